@@ -21,6 +21,7 @@ import javax.inject.Singleton;
 
 import com.bekwam.resignator.model.JarsignerConfig;
 import com.bekwam.resignator.model.Profile;
+import com.bekwam.resignator.model.SignerType;
 import com.bekwam.resignator.model.SigningArgumentsType;
 import com.bekwam.resignator.model.SourceFile;
 import com.bekwam.resignator.model.TargetFile;
@@ -46,6 +47,9 @@ public class ActiveProfile implements ActiveRecord<Profile> {
     private StringProperty jarsignerConfigKeypass = new SimpleStringProperty("");
     private StringProperty jarsignerConfigKeystore = new SimpleStringProperty("");
     private BooleanProperty jarsignerConfigVerbose = new SimpleBooleanProperty(Boolean.FALSE);
+    private ObjectProperty<SignerType> jarsignerConfigSignerType = new SimpleObjectProperty<SignerType>(SignerType.JARSIGNER);
+    private StringProperty jarsignerConfigTsaUrl = new SimpleStringProperty(JarsignerConfig.DEFAULT_TSA_URL);
+    private BooleanProperty jarsignerConfigDeferTimestamps = new SimpleBooleanProperty(Boolean.FALSE);
     private BooleanProperty replaceSignatures = new SimpleBooleanProperty(Boolean.FALSE);
     private ObjectProperty<SigningArgumentsType> argsType = new SimpleObjectProperty<SigningArgumentsType>(SigningArgumentsType.JAR);
     
@@ -73,6 +77,15 @@ public class ActiveProfile implements ActiveRecord<Profile> {
     public Boolean getJarsignerConfigVerbose() { return jarsignerConfigVerbose.get(); }
     public void setJarsignerConfigVerbose(Boolean jarsignerConfigVerbose_b) { jarsignerConfigVerbose.set(jarsignerConfigVerbose_b); }
 
+    public SignerType getJarsignerConfigSignerType() { return jarsignerConfigSignerType.get(); }
+    public void setJarsignerConfigSignerType(SignerType jarsignerConfigSignerType_e) { jarsignerConfigSignerType.set(jarsignerConfigSignerType_e); }
+
+    public String getJarsignerConfigTsaUrl() { return jarsignerConfigTsaUrl.get(); }
+    public void setJarsignerConfigTsaUrl(String jarsignerConfigTsaUrl_s) { jarsignerConfigTsaUrl.set(jarsignerConfigTsaUrl_s); }
+
+    public Boolean getJarsignerConfigDeferTimestamps() { return jarsignerConfigDeferTimestamps.get(); }
+    public void setJarsignerConfigDeferTimestamps(Boolean jarsignerConfigDeferTimestamps_b) { jarsignerConfigDeferTimestamps.set(jarsignerConfigDeferTimestamps_b); }
+
     public Boolean getReplaceSignatures() {
         return replaceSignatures.get();
     }
@@ -92,6 +105,9 @@ public class ActiveProfile implements ActiveRecord<Profile> {
     public StringProperty jarsignerConfigKeypassProperty() { return jarsignerConfigKeypass; }
     public StringProperty jarsignerConfigKeystoreProperty() { return jarsignerConfigKeystore; }
     public BooleanProperty jarsignerConfigVerboseProperty() { return jarsignerConfigVerbose; }
+    public ObjectProperty<SignerType> jarsignerConfigSignerTypeProperty() { return jarsignerConfigSignerType; }
+    public StringProperty jarsignerConfigTsaUrlProperty() { return jarsignerConfigTsaUrl; }
+    public BooleanProperty jarsignerConfigDeferTimestampsProperty() { return jarsignerConfigDeferTimestamps; }
 
     public BooleanProperty replaceSignaturesProperty() {
         return replaceSignatures;
@@ -109,6 +125,9 @@ public class ActiveProfile implements ActiveRecord<Profile> {
         jarsignerConfigKeypass.setValue("");
         jarsignerConfigKeystore.setValue("");
         jarsignerConfigVerbose.setValue(Boolean.FALSE);
+        jarsignerConfigSignerType.setValue(SignerType.JARSIGNER);
+        jarsignerConfigTsaUrl.setValue(JarsignerConfig.DEFAULT_TSA_URL);
+        jarsignerConfigDeferTimestamps.setValue(Boolean.FALSE);
         replaceSignatures.setValue(Boolean.FALSE);
         argsType.setValue(SigningArgumentsType.JAR);
     }
@@ -130,6 +149,9 @@ public class ActiveProfile implements ActiveRecord<Profile> {
                 jarsignerConfigKeypass.getValue(),
                 jarsignerConfigKeystore.getValue(),
                 jarsignerConfigVerbose.getValue() );
+        jc.setSignerType(jarsignerConfigSignerType.getValue());
+        jc.setTsaUrl(jarsignerConfigTsaUrl.getValue());
+        jc.setDeferTimestamps(jarsignerConfigDeferTimestamps.get());
         p.setJarsignerConfig(Optional.of(jc));
 
         return p;
@@ -152,12 +174,18 @@ public class ActiveProfile implements ActiveRecord<Profile> {
             jarsignerConfigKeypass.setValue( jc.getKeypass() );
             jarsignerConfigKeystore.setValue( jc.getKeystore() );
             jarsignerConfigVerbose.setValue( jc.getVerbose() );
+            jarsignerConfigSignerType.setValue( jc.getSignerType() );
+            jarsignerConfigTsaUrl.setValue( jc.getTsaUrl() );
+            jarsignerConfigDeferTimestamps.setValue( jc.isDeferTimestamps() );
         } else {
             jarsignerConfigAlias.setValue("");
             jarsignerConfigStorepass.setValue("");
             jarsignerConfigKeypass.setValue("");
             jarsignerConfigKeystore.setValue("");
             jarsignerConfigVerbose.setValue(Boolean.FALSE);
+            jarsignerConfigSignerType.setValue(SignerType.JARSIGNER);
+            jarsignerConfigTsaUrl.setValue(JarsignerConfig.DEFAULT_TSA_URL);
+            jarsignerConfigDeferTimestamps.setValue(Boolean.FALSE);
         }
     }
 }
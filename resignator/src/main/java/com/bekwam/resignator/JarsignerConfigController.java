@@ -17,8 +17,9 @@ package com.bekwam.resignator;
 
 import com.bekwam.jfxbop.view.Viewable;
 import com.bekwam.resignator.commands.CommandExecutionException;
-import com.bekwam.resignator.commands.KeytoolCommand;
+import com.bekwam.resignator.commands.KeystoreCache;
 import com.bekwam.resignator.model.ConfigurationDataSource;
+import com.bekwam.resignator.model.SignerType;
 import com.google.common.base.Preconditions;
 import javafx.application.Platform;
 import javafx.beans.InvalidationListener;
@@ -35,6 +36,7 @@ import javafx.scene.layout.VBox;
 import javafx.scene.paint.Color;
 import javafx.stage.FileChooser;
 import javafx.stage.Window;
+import javafx.util.StringConverter;
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -91,6 +93,15 @@ public class JarsignerConfigController extends ResignatorBaseView {
 	@FXML
 	private ChoiceBox<Boolean> cbVerbose;
 
+	@FXML
+	private ChoiceBox<SignerType> cbSigner;
+
+	@FXML
+	private TextField tfTsaUrl;
+
+	@FXML
+	private CheckBox ckDeferTimestamps;
+
 	@FXML
 	private Label lblConfKeypass;
 
@@ -122,7 +133,7 @@ public class JarsignerConfigController extends ResignatorBaseView {
 	private ActiveConfiguration activeConfiguration;
 
 	@Inject
-	private KeytoolCommand keytoolCommand;
+	private KeystoreCache keystoreCache;
 
 	private String keystoreDir = System.getProperty("user.home");
 
@@ -135,10 +146,27 @@ public class JarsignerConfigController extends ResignatorBaseView {
 		
 		cbVerbose.getItems().addAll(Boolean.TRUE, Boolean.FALSE);
 
+		cbSigner.getItems().addAll(SignerType.JARSIGNER, SignerType.BUILTIN);
+		cbSigner.setConverter(new StringConverter<SignerType>() {
+
+			@Override
+			public String toString(SignerType type) {
+				return (type == SignerType.BUILTIN) ? "Builtin" : "jarsigner";
+			}
+
+			@Override
+			public SignerType fromString(String type) {
+				return StringUtils.equalsIgnoreCase(type, "Builtin") ? SignerType.BUILTIN : SignerType.JARSIGNER;
+			}
+		});
+
 		pfStorepass.textProperty().bindBidirectional(activeProfile.jarsignerConfigStorepassProperty());
 		tfKeystore.textProperty().bindBidirectional(activeProfile.jarsignerConfigKeystoreProperty());
 		pfKeypass.textProperty().bindBidirectional(activeProfile.jarsignerConfigKeypassProperty());
 		cbVerbose.valueProperty().bindBidirectional(activeProfile.jarsignerConfigVerboseProperty());
+		cbSigner.valueProperty().bindBidirectional(activeProfile.jarsignerConfigSignerTypeProperty());
+		tfTsaUrl.textProperty().bindBidirectional(activeProfile.jarsignerConfigTsaUrlProperty());
+		ckDeferTimestamps.selectedProperty().bindBidirectional(activeProfile.jarsignerConfigDeferTimestampsProperty());
 
 		lblConfKeypass.setVisible(false);
 		lblConfStorepass.setVisible( false );
@@ -180,6 +208,9 @@ public class JarsignerConfigController extends ResignatorBaseView {
 		pfStorepass.textProperty().addListener(new WeakInvalidationListener(needsSaveListener));
 		pfKeypass.textProperty().addListener(new WeakInvalidationListener(needsSaveListener));
 		cbAlias.valueProperty().addListener(new WeakInvalidationListener(needsSaveListener));
+		cbSigner.valueProperty().addListener(new WeakInvalidationListener(needsSaveListener));
+		tfTsaUrl.textProperty().addListener(new WeakInvalidationListener(needsSaveListener));
+		ckDeferTimestamps.selectedProperty().addListener(new WeakInvalidationListener(needsSaveListener));
 	}
 	
 	@FXML
@@ -231,7 +262,7 @@ public class JarsignerConfigController extends ResignatorBaseView {
 						updateMessage("Loading...");
 						updateProgress( 0.1d, 1.0d );
 
-						final List<String> aliases = keytoolCommand.findAliases(
+						final List<String> aliases = keystoreCache.getAliases(
 								activeConfiguration.getKeytoolCommand().toString(),
 							ks,
 							sp
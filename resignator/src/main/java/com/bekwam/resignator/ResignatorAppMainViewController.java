@@ -15,19 +15,18 @@
  */
 package com.bekwam.resignator;
 
-import static java.util.Comparator.comparing;
-import static java.util.stream.Collectors.toList;
-
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 import javax.inject.Inject;
@@ -42,11 +41,14 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.bekwam.jfxbop.view.Viewable;
-import com.bekwam.resignator.commands.KeytoolCommand;
+import com.bekwam.resignator.commands.FolderSignCommand;
 import com.bekwam.resignator.commands.SignCommand;
+import com.bekwam.resignator.commands.SignValidator;
 import com.bekwam.resignator.commands.UnsignCommand;
 import com.bekwam.resignator.model.ConfigurationDataSource;
-import com.bekwam.resignator.model.Profile;
+import com.bekwam.resignator.model.JarsignerConfig;
+import com.bekwam.resignator.model.SignJarResult;
+import com.bekwam.resignator.model.SignValidationResult;
 import com.bekwam.resignator.model.SigningArgumentsType;
 import com.google.common.base.Preconditions;
 
@@ -182,7 +184,12 @@ public class ResignatorAppMainViewController extends ResignatorBaseView {
     Provider<UnsignCommand> unsignCommandProvider;
 
     @Inject
-    Provider<KeytoolCommand> keytoolCommandProvider;
+    Provider<FolderSignCommand> folderSignCommandProvider;
+
+    @Inject
+    SignValidator signValidator;
+
+    private boolean validating = false;  // FX thread only
     
     @Inject
     Provider<NewPasswordController> newPasswordControllerProvider;
@@ -370,12 +377,34 @@ public class ResignatorAppMainViewController extends ResignatorBaseView {
                         }
 
                         Platform.runLater( () -> {
-
                             if( pc.getStage().isShowing() ) {  // ended in timeout timeout
                                 pc.getStage().hide();
                             }
+                        });
+
+                        final boolean unlocked = !(pc.wasCancelled() || pc.wasReset() || !pc.doesPasswordMatch());
 
-                            if (pc.wasCancelled() || pc.wasReset() || !pc.doesPasswordMatch()) {
+                        if( unlocked ) {
+
+                            //
+                            // save password for later decryption ops; the credentials of the profiles likely to be
+                            // used first are decrypted on worker threads before the browser is populated
+                            //
+
+                            activeConfiguration.setUnhashedPassword(pc.getPassword());
+
+                            updateMessage("Decrypting profiles");
+                            Platform.runLater( () -> piSignProgress.setVisible(true) );
+
+                            configurationDS.unlock(
+                                    activeConfiguration.getUnhashedPassword(),
+                                    fraction -> updateProgress(fraction, 1.0d)
+                            ).join();
+                        }
+
+                        Platform.runLater( () -> {
+
+                            if (!unlocked) {
 
                                 if( logger.isDebugEnabled() ) {
                                     logger.debug("[INIT TASK] was cancelled or the number of retries was exceeded");
@@ -401,13 +430,6 @@ public class ResignatorAppMainViewController extends ResignatorBaseView {
 
                             } else {
 
-                                //
-                                // save password for later decryption ops
-                                //
-
-                                activeConfiguration.setUnhashedPassword(pc.getPassword());
-                                configurationDS.decrypt( activeConfiguration.getUnhashedPassword() );
-
                                 //
                                 // init profileBrowser
                                 //
@@ -417,11 +439,7 @@ public class ResignatorAppMainViewController extends ResignatorBaseView {
 
                                 long startTimeMillis = System.currentTimeMillis();
 
-                                final List<String> profileNames = configurationDS.getProfiles().
-                                        stream().
-                                        map(Profile::getProfileName).
-                                        sorted((o1, o2) -> o1.compareToIgnoreCase(o2)).
-                                        collect(Collectors.toList());
+                                final List<String> profileNames = configurationDS.getProfileNames();
 
                                 final List<String> recentProfiles = configurationDS.getRecentProfileNames();
 
@@ -472,6 +490,9 @@ public class ResignatorAppMainViewController extends ResignatorBaseView {
                     super.succeeded();
                     updateMessage("");
                     lblStatus.textProperty().unbind();
+                    piSignProgress.progressProperty().unbind();
+                    piSignProgress.setProgress(0.0d);
+                    piSignProgress.setVisible(false);
                 }
 
                 @Override
@@ -480,6 +501,9 @@ public class ResignatorAppMainViewController extends ResignatorBaseView {
                     logger.error("task cancelled", getException());
                     updateMessage("");
                     lblStatus.textProperty().unbind();
+                    piSignProgress.progressProperty().unbind();
+                    piSignProgress.setProgress(0.0d);
+                    piSignProgress.setVisible(false);
                 }
 
                 @Override
@@ -488,10 +512,14 @@ public class ResignatorAppMainViewController extends ResignatorBaseView {
                     logger.error("task failed", getException());
                     updateMessage("");
                     lblStatus.textProperty().unbind();
+                    piSignProgress.progressProperty().unbind();
+                    piSignProgress.setProgress(0.0d);
+                    piSignProgress.setVisible(false);
                 }
             };
 
             lblStatus.textProperty().bind(t.messageProperty());
+            piSignProgress.progressProperty().bind(t.progressProperty());
 
             new Thread(t).start();
 
@@ -658,11 +686,11 @@ public class ResignatorAppMainViewController extends ResignatorBaseView {
         clearValidationErrors();
 
         //
-        // Get profiles from loaded Configuration object
+        // Get profile names from the data source; profiles are read as they're loaded
         //
-        List<Profile> profiles = configurationDS.getProfiles();
+        List<String> profileNames = configurationDS.getProfileNames();
 
-        if (CollectionUtils.isEmpty(profiles)) {
+        if (CollectionUtils.isEmpty(profileNames)) {
 
             if (logger.isDebugEnabled()) {
                 logger.debug("[LOAD PROFILE] no profiles");
@@ -677,15 +705,6 @@ public class ResignatorAppMainViewController extends ResignatorBaseView {
             return;
         }
 
-        //
-        // Distill list of profile names from List of Profile objects
-        //
-        List<String> profileNames = profiles.
-                stream().
-                sorted(comparing(Profile::getProfileName)).
-                map(Profile::getProfileName).
-                collect(toList());
-
         //
         // Select default item which is active item if available otherwise first item
         //
@@ -960,11 +979,7 @@ public class ResignatorAppMainViewController extends ResignatorBaseView {
     }
 
     boolean profileNameInUse(String profileName) {
-        return configurationDS.
-                getProfiles().
-                stream().
-                filter(p -> StringUtils.equalsIgnoreCase(p.getProfileName(), profileName)).
-                count() > 0;
+        return configurationDS.profileExists(profileName);
     }
 
     @FXML
@@ -1076,13 +1091,18 @@ public class ResignatorAppMainViewController extends ResignatorBaseView {
         }
     }
 
-    private boolean validateSign() {
+    /**
+     * Checks the form on the FX thread then the keystore in the background
+     *
+     * Problems are reported to the user as they're found.  The returned future completes on the FX thread.
+     */
+    private CompletableFuture<SignValidationResult> validateSign() {
 
         if (logger.isDebugEnabled()) {
             logger.debug("[VALIDATE]");
         }
 
-        boolean isValid = true;
+        List<SignValidationResult.Problem> problems = new ArrayList<>();
 
         //
         // Validate the Source JAR field
@@ -1093,7 +1113,7 @@ public class ResignatorAppMainViewController extends ResignatorBaseView {
             if (!tfSourceFile.getStyleClass().contains("tf-validation-error")) {
                 tfSourceFile.getStyleClass().add("tf-validation-error");
             }
-            isValid = false;
+            problems.add(new SignValidationResult.Problem(SignValidationResult.Field.SOURCE, "Source is required"));
 
         } else {
 
@@ -1110,7 +1130,7 @@ public class ResignatorAppMainViewController extends ResignatorBaseView {
 
                 alert.showAndWait();
 
-                isValid = false;
+                problems.add(new SignValidationResult.Problem(SignValidationResult.Field.SOURCE, alert.getContentText()));
             }
         }
 
@@ -1122,7 +1142,7 @@ public class ResignatorAppMainViewController extends ResignatorBaseView {
             if (!tfTargetFile.getStyleClass().contains("tf-validation-error")) {
                 tfTargetFile.getStyleClass().add("tf-validation-error");
             }
-            isValid = false;
+            problems.add(new SignValidationResult.Problem(SignValidationResult.Field.TARGET, "Target is required"));
         }
 
         if( activeProfile.getArgsType() == SigningArgumentsType.FOLDER ) {
@@ -1140,7 +1160,7 @@ public class ResignatorAppMainViewController extends ResignatorBaseView {
                 );
                 alert.showAndWait();
                 
-                isValid = false;
+                problems.add(new SignValidationResult.Problem(SignValidationResult.Field.TARGET, alert.getContentText()));
         	}
         }
         
@@ -1150,18 +1170,23 @@ public class ResignatorAppMainViewController extends ResignatorBaseView {
 
         String jarsignerConfigField = "";
         String jarsignerConfigMessage = "";
-        if (isValid && StringUtils.isBlank(activeProfile.getJarsignerConfigKeystore())) {
+        SignValidationResult.Field field = null;
+        if (problems.isEmpty() && StringUtils.isBlank(activeProfile.getJarsignerConfigKeystore())) {
             jarsignerConfigField = "Keystore";
             jarsignerConfigMessage = "A keystore must be specified";
-        } else if (isValid && StringUtils.isBlank(activeProfile.getJarsignerConfigStorepass())) {
+            field = SignValidationResult.Field.KEYSTORE;
+        } else if (problems.isEmpty() && StringUtils.isBlank(activeProfile.getJarsignerConfigStorepass())) {
             jarsignerConfigField = "Storepass";
             jarsignerConfigMessage = "A password for the keystore must be specified";
-        } else if (isValid && StringUtils.isBlank(activeProfile.getJarsignerConfigAlias())) {
+            field = SignValidationResult.Field.STOREPASS;
+        } else if (problems.isEmpty() && StringUtils.isBlank(activeProfile.getJarsignerConfigAlias())) {
             jarsignerConfigField = "Alias";
             jarsignerConfigMessage = "An alias for the key must be specified";
-        } else if (isValid && StringUtils.isBlank(activeProfile.getJarsignerConfigKeypass())) {
+            field = SignValidationResult.Field.ALIAS;
+        } else if (problems.isEmpty() && StringUtils.isBlank(activeProfile.getJarsignerConfigKeypass())) {
             jarsignerConfigField = "Keypass";
             jarsignerConfigMessage = "A password for the key must be specified";
+            field = SignValidationResult.Field.KEYPASS;
         }
 
         if (StringUtils.isNotEmpty(jarsignerConfigMessage)) {
@@ -1188,51 +1213,39 @@ public class ResignatorAppMainViewController extends ResignatorBaseView {
             alert.getDialogPane().contentProperty().set(fp);
             alert.showAndWait();
 
-            isValid = false;
+            problems.add(new SignValidationResult.Problem(field, jarsignerConfigMessage));
         }
         
+        if( !problems.isEmpty() ) {
+            return CompletableFuture.completedFuture(new SignValidationResult(problems));
+        }
+
         //
-        // #38 check keystore prior to running
+        // #38 check keystore prior to running; the keystore is read in the background
         //
-        KeytoolCommand keytoolCommand = keytoolCommandProvider.get();
-        
-        Task<Boolean> keytoolTask = new Task<Boolean>() {
-			@Override
-			protected Boolean call() throws Exception {
-				
-            	final List<String> aliases = keytoolCommand.findAliases(
-            			activeConfiguration.getKeytoolCommand().toString(),
-            			activeProfile.getJarsignerConfigKeystore(),
-            			activeProfile.getJarsignerConfigStorepass()
-    			);
-            	if( logger.isDebugEnabled() ) {
-            		logger.debug("[KEYTOOL] # aliases=" + CollectionUtils.size(aliases));
-            	}
-				
-				return true;
-			}
-        };
-        new Thread(keytoolTask).start();
-        
-        try {
-			if( !keytoolTask.get() ) {
-				if( logger.isDebugEnabled() ) {
-					logger.debug("[KEYTOOL] keystore or configuration not valid");
-				}
-				isValid = false;
-			}
-		} catch (InterruptedException|ExecutionException e) {
-
-			isValid = false;
-			logger.error( "error accessing keystore", e );
-            Alert alert = new Alert(
-                    Alert.AlertType.ERROR,
-                    e.getMessage()  // contains formatted string
-            );
-            alert.showAndWait();
-		}
-        
-        return isValid;
+        return signValidator.validateKeystore(
+                activeConfiguration.getKeytoolCommand().toString(),
+                activeProfile.getJarsignerConfigKeystore(),
+                activeProfile.getJarsignerConfigStorepass(),
+                activeProfile.getJarsignerConfigAlias()
+        ).thenApplyAsync(result -> {
+
+            if( !result.isValid() ) {
+
+                if( logger.isDebugEnabled() ) {
+                    logger.debug("[VALIDATE] keystore or configuration not valid {}", result);
+                }
+
+                Alert alert = new Alert(
+                        Alert.AlertType.ERROR,
+                        result.getProblems().get(0).getMessage()  // contains formatted string
+                );
+                alert.showAndWait();
+            }
+
+            return result;
+
+        }, Platform::runLater);
     }
 
     private boolean confirmReplaceExisting() {
@@ -1296,15 +1309,47 @@ public class ResignatorAppMainViewController extends ResignatorBaseView {
                     activeProfile.getTargetFileFileName());
         }
 
-        boolean isValid = validateSign();
+        if( validating ) {  // already waiting on the keystore from an earlier click
+            return;
+        }
 
-        if (!isValid) {
-            if (logger.isDebugEnabled()) {
-                logger.debug("[SIGN] form not valid; returning");
+        validating = true;
+
+        CompletableFuture<SignValidationResult> validation = null;
+        try {
+            validation = validateSign();
+        } finally {
+            if( validation == null ) {  // validateSign() threw
+                validating = false;
             }
-            return;
         }
 
+        validation.thenAccept(result -> {
+
+            if (!result.isValid()) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("[SIGN] form not valid; returning");
+                }
+                return;
+            }
+
+            signValidated();
+
+        }).whenComplete((v, exc) -> {
+
+            if( exc != null ) {
+                logger.error("error validating or starting sign", exc);
+            }
+
+            Platform.runLater(() -> validating = false);  // also when validation or signValidated() failed
+        });
+    }
+
+    /**
+     * Runs on the FX thread once validateSign() has passed
+     */
+    private void signValidated() {
+
         final Boolean doUnsign = ckReplace.isSelected();
         UnsignCommand unsignCommand = unsignCommandProvider.get();
         SignCommand signCommand = signCommandProvider.get();
@@ -1354,92 +1399,68 @@ public class ResignatorAppMainViewController extends ResignatorBaseView {
 	        	return;
 	        }
 
-	        //
-	        // This number is applied to the progress bar to report a particular
-	        // iterations unit-of-work (2 operations per jar)
-	        //
-	        double unitFactor = 1.0d / (sourceJars.length * 2.0d);
-	        
-	        Task<Void> task = new Task<Void>() {
+	        List<Path> sourceJarPaths = Arrays.stream(sourceJars).map(File::toPath).collect(Collectors.toList());
+	        Path targetDir = Paths.get(activeProfile.getTargetFileFileName());
+	        JarsignerConfig jc = activeProfile.toDomain().getJarsignerConfig().get();
+	        FolderSignCommand folderSignCommand = folderSignCommandProvider.get();
+
+	        Task<List<SignJarResult>> task = new Task<List<SignJarResult>>() {
 	        	
 	            @Override
-	            protected Void call() throws Exception {
-	
-	            	double accruedProgress = 0.0d;
-	            	
-	            	for( File sf : sourceJars ) {
-
-	                	File tf = new File( activeProfile.getTargetFileFileName(), sf.getName() );
-	        
-                		if (logger.isDebugEnabled()) {
-                			logger.debug("[SIGN] progress={}", accruedProgress);
-                		}
-
-	                	updateMessage("");
-	                	Platform.runLater(() -> piSignProgress.setVisible(true));
-	                	updateProgress(accruedProgress, 1.0d);
-	                	accruedProgress += unitFactor;
-
-                		if (doUnsign) {
-	                		if (logger.isDebugEnabled()) {
-	                			logger.debug("[SIGN] doing bulk unsign operation");
-	                		}
-	                		updateTitle("Unsigning JAR");
-	                		unsignCommand.unsignJAR(
-	                            Paths.get(sf.getAbsolutePath()),
-	                            Paths.get(tf.getAbsolutePath()),
-	                            s ->
-	                                    Platform.runLater(() ->
-	                                                    txtConsole.appendText(s + System.getProperty("line.separator"))
-	                                    )
-	                				);
-	
-	                		if (isCancelled()) {
-	                			return null;
-	                		}
-	                    
-	                	} else {
-	
-		                    if (logger.isDebugEnabled()) {
-		                        logger.debug("[SIGN] copying bulk for sign operation");
-		                    }
-		                    updateTitle("Copying JAR");
-		                    Platform.runLater(
-		                            () -> txtConsole.appendText("Copying JAR" + System.getProperty("line.separator"))
-		                    );
-		                    unsignCommand.copyJAR(sf.getAbsolutePath(), tf.getAbsolutePath());
-		                }
-		
-		                updateProgress(accruedProgress, 1.0d);
-	                	accruedProgress += unitFactor;
-
-		                updateTitle("Signing JAR");
-		
-		                signCommand.signJAR(
-		                        Paths.get(tf.getAbsolutePath()),
-		                        Paths.get(activeProfile.getJarsignerConfigKeystore()),
-		                        activeProfile.getJarsignerConfigStorepass(),
-		                        activeProfile.getJarsignerConfigAlias(),
-		                        activeProfile.getJarsignerConfigKeypass(),
-		                        s ->
-		                                Platform.runLater(() ->
-		                                                txtConsole.appendText(s + System.getProperty("line.separator"))
-		                                )
-		                );
-	            	}
-	            	
-	                return null;
+	            protected List<SignJarResult> call() throws Exception {
+
+	            	updateMessage("");
+	            	updateTitle("Signing JARs");
+	            	Platform.runLater(() -> piSignProgress.setVisible(true));
+	            	updateProgress(0.0d, 1.0d);
+
+	            	return folderSignCommand.signJARs(
+	            			sourceJarPaths,
+	            			targetDir,
+	            			doUnsign,
+	            			jc,
+	            			s ->
+	            					Platform.runLater(() ->
+	            									txtConsole.appendText(s + System.getProperty("line.separator"))
+	            					),
+	            			p -> updateProgress(p, 1.0d),
+	            			this::isCancelled
+	            	);
 	            }
 	
 	            @Override
 	            protected void succeeded() {
 	                super.succeeded();
-	
+
+	                List<SignJarResult> failures = getValue()
+	                		.stream()
+	                		.filter(r -> !r.isSucceeded())
+	                		.collect(Collectors.toList());
+
 	                updateProgress(1.0d, 1.0d);
-	                updateMessage("JARs signed successfully");
+	                if( failures.isEmpty() ) {
+	                	updateMessage("JARs signed successfully");
+	                } else {
+	                	updateMessage((getValue().size() - failures.size()) + " of " + getValue().size() + " JARs signed");
+	                }
 	
                     piSignProgress.progressProperty().unbind();
                     lblStatus.textProperty().unbind();
+
+                    if( !failures.isEmpty() ) {
+
+                    	StringBuilder sb = new StringBuilder();
+                    	for( SignJarResult r : failures ) {
+                    		sb.append(r.getSourceJar().getFileName())
+                    		  .append(": ")
+                    		  .append(r.getErrorMessage().orElse(""))
+                    		  .append(System.getProperty("line.separator"));
+                    	}
+
+                    	Alert alert = new Alert(Alert.AlertType.ERROR, sb.toString());
+                    	alert.setHeaderText(failures.size() + " JAR(s) could not be signed");
+                    	alert.showAndWait();
+                    }
 	            }
 	
 	            @Override
@@ -1534,21 +1555,25 @@ public class ResignatorAppMainViewController extends ResignatorBaseView {
 	
 	                if (doUnsign) {
 	                    if (logger.isDebugEnabled()) {
-	                        logger.debug("[SIGN] doing unsign operation");
+	                        logger.debug("[SIGN] doing unsign and sign operation");
 	                    }
-	                    updateTitle("Unsigning JAR");
-	                    unsignCommand.unsignJAR(
+	                    updateTitle("Unsigning and signing JAR");
+	                    signCommand.unsignAndSignJAR(
 	                            Paths.get(activeProfile.getSourceFileFileName()),
 	                            Paths.get(activeProfile.getTargetFileFileName()),
+	                            Paths.get(activeProfile.getJarsignerConfigKeystore()),
+	                            activeProfile.getJarsignerConfigStorepass(),
+	                            activeProfile.getJarsignerConfigAlias(),
+	                            activeProfile.getJarsignerConfigKeypass(),
+	                            activeProfile.getJarsignerConfigSignerType(),
+	                            activeProfile.getJarsignerConfigTsaUrl(),
 	                            s ->
 	                                    Platform.runLater(() ->
 	                                                    txtConsole.appendText(s + System.getProperty("line.separator"))
 	                                    )
 	                    );
 	
-	                    if (isCancelled()) {
-	                        return null;
-	                    }
+	                    return null;  // fused; nothing left to sign
 	                } else {
 	
 	                    //
@@ -1574,6 +1599,8 @@ public class ResignatorAppMainViewController extends ResignatorBaseView {
 	                        activeProfile.getJarsignerConfigStorepass(),
 	                        activeProfile.getJarsignerConfigAlias(),
 	                        activeProfile.getJarsignerConfigKeypass(),
+	                        activeProfile.getJarsignerConfigSignerType(),
+	                        activeProfile.getJarsignerConfigTsaUrl(),
 	                        s ->
 	                                Platform.runLater(() ->
 	                                                txtConsole.appendText(s + System.getProperty("line.separator"))
@@ -1829,6 +1856,21 @@ public class ResignatorAppMainViewController extends ResignatorBaseView {
 				needsSave.set(false);  // needed in case failure infinite cycle
     		}
     	}
+
+        //
+        // saves are written behind; wait for the last one
+        //
+        try {
+            configurationDS.flush();
+        } catch(IOException exc) {
+            logger.error("can't write configuration on close", exc);
+
+            Alert alert = new Alert(
+                    Alert.AlertType.ERROR,
+                    exc.getMessage());
+            alert.setHeaderText("Can't save config file");
+            alert.showAndWait();
+        }
     	
         Platform.exit();
         System.exit(0);  // close webstart
@@ -2,8 +2,11 @@ package com.bekwam.resignator;
 
 import com.bekwam.jfxbop.data.ManagedDataSource;
 import com.bekwam.jfxbop.data.ManagedDataSourceInterceptor;
+import com.bekwam.resignator.model.BinaryConfigurationDataSource;
 import com.bekwam.resignator.model.ConfigurationDataSource;
 import com.bekwam.resignator.model.ConfigurationDataSourceImpl;
+import com.bekwam.resignator.model.JournalConfigurationDataSource;
+import com.bekwam.resignator.model.ShardedConfigurationDataSource;
 import com.google.inject.AbstractModule;
 import com.google.inject.matcher.Matchers;
 import com.google.inject.name.Names;
@@ -25,6 +28,38 @@ public class ResignatorModule extends AbstractModule {
     private final static String HELP_LINK = "http://www.bekwam.com/resignator/help.html";
     private final static Integer UNSIGN_TIMEOUT = 60;  // 60 seconds
 
+    // -Dresignator.unsignStreaming=false unpacks and repacks with the jar tool
+    private final static Boolean UNSIGN_STREAMING = Boolean.valueOf(System.getProperty("resignator.unsignStreaming", "true"));
+
+    // -Dresignator.signingThreads=n overrides; defaults to one worker per core
+    private final static Integer SIGNING_THREADS = Math.max(1,
+            Integer.getInteger("resignator.signingThreads", Runtime.getRuntime().availableProcessors()));
+
+    // -Dresignator.signCache=true keeps copies of signed JARs under ~/.resignator/signcache and reuses them for JARs
+    // in a folder that haven't changed
+    private final static Boolean SIGN_CACHE_ENABLED = Boolean.valueOf(System.getProperty("resignator.signCache", "false"));
+
+    // -Dresignator.signCacheMaxMB=n caps the disk used by the sign cache
+    private final static Long SIGN_CACHE_MAX_BYTES = Math.max(1L, Long.getLong("resignator.signCacheMaxMB", 256L)) * 1024 * 1024;
+
+    // -Dresignator.tsaMaxConcurrent=n caps the timestamp requests in flight at once
+    private final static Integer TSA_MAX_CONCURRENT = Math.max(1, Integer.getInteger("resignator.tsaMaxConcurrent", 4));
+
+    // -Dresignator.saveDelayMillis=n waits n ms after a save so that a burst of saves is written once
+    private final static Long SAVE_DELAY_MILLIS = Math.max(0L, Long.getLong("resignator.saveDelayMillis", 500L));
+
+    // -Dresignator.configStore=journal appends profile changes to a journal instead of rewriting the config file;
+    // =sharded keeps each profile in its own file under profiles/ and reads it when it's loaded
+    // =binary keeps the config in resignator.bin (ConfigurationBinaryFormat)
+    private final static String CONFIG_STORE = System.getProperty("resignator.configStore", "");
+
+    // -Dresignator.decryptThreads=n overrides; defaults to one worker per core
+    private final static Integer DECRYPT_THREADS = Math.max(1,
+            Integer.getInteger("resignator.decryptThreads", Runtime.getRuntime().availableProcessors()));
+
+    private final static Integer TSA_MAX_ATTEMPTS = 3;
+    private final static Long TSA_BACKOFF_MILLIS = 1000L;  // doubled after each failed attempt
+
     @Override
     protected void configure() {
 
@@ -41,7 +76,24 @@ public class ResignatorModule extends AbstractModule {
         bind(Integer.class).annotatedWith(Names.named("NumRecentProfiles")).toInstance(NUM_RECENT_PROFILES);
         bind(String.class).annotatedWith(Names.named("HelpLink")).toInstance(HELP_LINK);
         bind(Integer.class).annotatedWith(Names.named("UnsignTimeout")).toInstance(UNSIGN_TIMEOUT);
+        bind(Boolean.class).annotatedWith(Names.named("UnsignStreaming")).toInstance(UNSIGN_STREAMING);
+        bind(Integer.class).annotatedWith(Names.named("SigningThreads")).toInstance(SIGNING_THREADS);
+        bind(Boolean.class).annotatedWith(Names.named("SignCacheEnabled")).toInstance(SIGN_CACHE_ENABLED);
+        bind(Long.class).annotatedWith(Names.named("SignCacheMaxBytes")).toInstance(SIGN_CACHE_MAX_BYTES);
+        bind(Integer.class).annotatedWith(Names.named("TsaMaxConcurrent")).toInstance(TSA_MAX_CONCURRENT);
+        bind(Integer.class).annotatedWith(Names.named("TsaMaxAttempts")).toInstance(TSA_MAX_ATTEMPTS);
+        bind(Long.class).annotatedWith(Names.named("TsaBackoffMillis")).toInstance(TSA_BACKOFF_MILLIS);
+        bind(Long.class).annotatedWith(Names.named("SaveDelayMillis")).toInstance(SAVE_DELAY_MILLIS);
+        bind(Integer.class).annotatedWith(Names.named("DecryptThreads")).toInstance(DECRYPT_THREADS);
 
-        bind(ConfigurationDataSource.class).to(ConfigurationDataSourceImpl.class);
+        if( "journal".equalsIgnoreCase(CONFIG_STORE) ) {
+            bind(ConfigurationDataSource.class).to(JournalConfigurationDataSource.class);
+        } else if( "sharded".equalsIgnoreCase(CONFIG_STORE) ) {
+            bind(ConfigurationDataSource.class).to(ShardedConfigurationDataSource.class);
+        } else if( "binary".equalsIgnoreCase(CONFIG_STORE) ) {
+            bind(ConfigurationDataSource.class).to(BinaryConfigurationDataSource.class);
+        } else {
+            bind(ConfigurationDataSource.class).to(ConfigurationDataSourceImpl.class);
+        }
     }
 }
@@ -17,9 +17,10 @@ package com.bekwam.resignator;
 
 import com.bekwam.jfxbop.guice.GuiceBaseView;
 import com.bekwam.jfxbop.view.Viewable;
+import com.bekwam.resignator.commands.JDKHomeValidator;
 import com.bekwam.resignator.model.Configuration;
 import com.bekwam.resignator.model.ConfigurationDataSource;
-import com.google.common.base.Preconditions;
+import javafx.application.Platform;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.scene.Scene;
@@ -27,6 +28,7 @@ import javafx.scene.control.*;
 import javafx.stage.DirectoryChooser;
 import javafx.stage.Window;
 import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -35,9 +37,6 @@ import javax.inject.Singleton;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.LinkedHashMap;
-import java.util.Map;
 import java.util.Optional;
 
 /**
@@ -64,11 +63,17 @@ public class SettingsController extends GuiceBaseView {
     @FXML
     Label lblErrJDKHome;
 
+    @FXML
+    MenuButton mbDetectedJDKs;
+
     @Inject
     ConfigurationDataSource configurationDS;
 
     @Inject
     ActiveConfiguration activeConfiguration;
+
+    @Inject
+    JDKHomeValidator jdkHomeValidator;
     
     private String jdkDir = System.getProperty("java.home");
     private boolean dirtyFlag = false;
@@ -88,6 +93,19 @@ public class SettingsController extends GuiceBaseView {
         
         piSettings.setVisible(false);
         lblErrJDKHome.setVisible(false);
+
+        //
+        // Offer the JDKs installed in the usual places once they're found
+        //
+        mbDetectedJDKs.setDisable(true);
+        jdkHomeValidator.discover().thenAcceptAsync(jdks -> {
+            for( Path jdk : jdks ) {
+                MenuItem mi = new MenuItem(jdk.toString());
+                mi.setOnAction(evt -> tfJDKHome.setText(jdk.toString()));
+                mbDetectedJDKs.getItems().add(mi);
+            }
+            mbDetectedJDKs.setDisable(jdks.isEmpty());
+        }, Platform::runLater);
     }
 
     @FXML
@@ -117,40 +135,45 @@ public class SettingsController extends GuiceBaseView {
             logger.debug("[SAVE] saving configuration; jarsignerExec={}", activeConfiguration.jdkHomeProperty());
         }
 
-        try {
-        	piSettings.setProgress(0.0d);
-        	piSettings.setVisible(true);
-        	
-        	piSettings.setProgress(0.3d);
+        Button btnSave = (Button)evt.getSource();
+
+        btnSave.setDisable(true);
+        piSettings.setProgress(ProgressIndicator.INDETERMINATE_PROGRESS);
+        piSettings.setVisible(true);
+
+        //
+        // The JDK's commands are run in the background; the dialog stays responsive
+        //
+        jdkHomeValidator.validate(StringUtils.defaultString(activeConfiguration.getJDKHome())).thenAcceptAsync(valid -> {
 
-        	if( validateJDKHome(activeConfiguration.getJDKHome()) ) {
-            	piSettings.setProgress(0.4d);
-        		configurationDS.saveConfiguration();
-            	piSettings.setProgress(0.6d);
+            btnSave.setDisable(false);
+            piSettings.setVisible(false);
+            piSettings.setProgress(0.0d);
 
-                ((Button)evt.getSource()).getScene().getWindow().hide();
+            if( !valid ) {
+                lblErrJDKHome.setVisible(true);  // still dirty
+                return;
+            }
 
-        	} else {
-        		// report error
-        		lblErrJDKHome.setVisible(true);
+            try {
 
-                // still dirty
-        	}
+                configurationDS.saveConfiguration();
 
-            piSettings.setVisible(false);            
+                btnSave.getScene().getWindow().hide();
 
-        } catch(IOException exc) {
+            } catch(IOException exc) {
 
-            logger.error("error saving or setting jarsignerexec, exc");
+                logger.error("error saving or setting jarsignerexec", exc);
 
-            String msg = exc.getMessage();
-            Alert alert = new Alert(
-                    Alert.AlertType.ERROR,
-                    msg);
-            alert.setHeaderText("Can't save configuration");
-            alert.showAndWait();
+                String msg = exc.getMessage();
+                Alert alert = new Alert(
+                        Alert.AlertType.ERROR,
+                        msg);
+                alert.setHeaderText("Can't save configuration");
+                alert.showAndWait();
+            }
 
-        }
+        }, Platform::runLater);
     }
 
     @FXML
@@ -192,50 +215,4 @@ public class SettingsController extends GuiceBaseView {
    			}
    		}
     }
-    
-    private boolean validateJDKHome(String jdkHome) {
-
-        Preconditions.checkNotNull( jdkHome );
-
-        Map<Path, Integer> cmdsAndResults = new LinkedHashMap<>();
-        cmdsAndResults.put(Paths.get(jdkHome, "bin", "keytool"),0);
-        cmdsAndResults.put(Paths.get(jdkHome, "bin", "jarsigner"),0);
-        cmdsAndResults.put(Paths.get(jdkHome, "bin", "jar"),1);
-
-        try {
-            piSettings.setVisible(true);
-            piSettings.setProgress(0.0d);
-
-            for (Path cmd : cmdsAndResults.keySet()) {
-
-                if (logger.isDebugEnabled()) {
-                    logger.debug("[VAL JDKHOME] cmd={}", cmd.toString());
-                }
-
-                Process p = Runtime.getRuntime().exec(new String[]{cmd.toString()});
-
-                int exitValue = p.waitFor();
-
-                if (logger.isDebugEnabled()) {
-                    logger.debug("[VAL JDKHOME] retval={}", exitValue);
-                }
-
-                if( exitValue != cmdsAndResults.get(cmd) ) {  // lookup expected return code
-                    return false;
-                }
-
-                piSettings.setProgress(
-                        piSettings.getProgress() + 1/cmdsAndResults.size()
-                );
-            }
-        } catch(IOException | InterruptedException exc){
-            logger.error("error running '{" + jdkHome + "}'", exc);
-            return false;
-        } finally {
-            piSettings.setVisible( false );
-            piSettings.setProgress(0.0d);
-        }
-
-        return true;
-    }
 }
@@ -0,0 +1,698 @@
+/*
+ * Copyright 2015 Bekwam, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bekwam.resignator.commands;
+
+import com.bekwam.resignator.model.JarsignerConfig;
+import com.bekwam.resignator.util.JarUtils;
+import com.bekwam.resignator.util.RawZipFile;
+import com.bekwam.resignator.util.RawZipWriter;
+import org.apache.commons.lang3.StringUtils;
+import org.bouncycastle.cert.jcajce.JcaCertStore;
+import org.bouncycastle.cms.CMSProcessableByteArray;
+import org.bouncycastle.cms.CMSSignedData;
+import org.bouncycastle.cms.CMSSignedDataGenerator;
+import org.bouncycastle.cms.jcajce.JcaSignerInfoGeneratorBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.*;
+import java.security.cert.X509Certificate;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Signs a JAR in the app's JVM without starting a jarsigner process
+ *
+ * Produces the same artifacts as jarsigner: SHA-256 entry digests in META-INF/MANIFEST.MF, a .SF file holding
+ * digests of the manifest and its sections, and a PKCS#7 signature block (.RSA, .DSA, or .EC) over the .SF file.
+ *
+ * @author carl_000
+ */
+public class BuiltinSigner {
+
+    private final static Logger logger = LoggerFactory.getLogger(BuiltinSigner.class);
+
+    private final static String DIGEST_ALGORITHM = "SHA-256";
+    private final static String DIGEST_ATTRIBUTE = "SHA-256-Digest";
+    private final static String CREATED_BY = "Resignator";
+
+    private final static Attributes.Name SIGNATURE_VERSION = new Attributes.Name("Signature-Version");
+    private final static Attributes.Name CREATED_BY_NAME = new Attributes.Name("Created-By");
+
+    @Inject
+    TimestampClient timestampClient = new TimestampClient();
+
+    public void signJAR(Path sourceJarFile,
+                        Path targetJarFile,
+                        Path keystore,
+                        String storepass,
+                        String alias,
+                        String keypass,
+                        Consumer<String> observer) throws CommandExecutionException {
+        signJAR(sourceJarFile, targetJarFile, keystore, storepass, alias, keypass,
+                JarsignerConfig.DEFAULT_TSA_URL, false, observer);
+    }
+
+    /**
+     * Signs sourceJarFile into targetJarFile reading the source and writing the target once
+     *
+     * @param tsaUrl timestamp authority; blank to sign without a timestamp
+     * @param replaceSignatures if true, all existing signature files and digests are discarded (unsign and sign in one
+     *                          operation); otherwise signatures by other aliases are kept
+     */
+    public void signJAR(Path sourceJarFile,
+                        Path targetJarFile,
+                        Path keystore,
+                        String storepass,
+                        String alias,
+                        String keypass,
+                        String tsaUrl,
+                        boolean replaceSignatures,
+                        Consumer<String> observer) throws CommandExecutionException {
+
+        observer.accept("Loading key '" + alias + "' from keystore");
+        SigningSession session = SigningSession.open(keystore, storepass, alias, keypass);
+
+        signJAR(sourceJarFile, targetJarFile, session, tsaUrl, replaceSignatures, observer);
+    }
+
+    /**
+     * Signs sourceJarFile into targetJarFile with a key that's already been loaded
+     *
+     * Safe to call from several threads with the same session.
+     */
+    public void signJAR(Path sourceJarFile,
+                        Path targetJarFile,
+                        SigningSession session,
+                        String tsaUrl,
+                        boolean replaceSignatures,
+                        Consumer<String> observer) throws CommandExecutionException {
+
+        String alias = session.getAlias();
+        String keyAlgorithm = keyAlgorithm(session);
+
+        if( logger.isDebugEnabled() ) {
+            logger.debug("[BUILTIN SIGN] source={}, target={}, alias={}, tsaUrl={}, replaceSignatures={}",
+                    sourceJarFile, targetJarFile, alias, tsaUrl, replaceSignatures);
+        }
+
+        Path tempFile = null;
+
+        try (
+                ZipFile zf = new ZipFile(sourceJarFile.toFile())
+        ) {
+
+            String baseName = JarUtils.signatureFileBaseName(alias);
+            String sfName = JarUtils.META_INF + baseName + ".SF";
+            String blockName = JarUtils.META_INF + baseName + "." + keyAlgorithm;
+
+            observer.accept("Computing digests for '" + sourceJarFile.getFileName() + "'");
+            byte[] rawManifest = readManifestBytes(zf);
+            Manifest mf = parseManifest(rawManifest);
+            Map<String, String> digests = computeDigests(zf);
+
+            //
+            // Form the manifest keeping the bytes of each section for the .SF digests
+            //
+            List<byte[]> rawSections = (rawManifest != null) ? JarUtils.splitSections(rawManifest) : null;
+            boolean keepRaw = !replaceSignatures &&
+                    mf.getMainAttributes().get(Attributes.Name.MANIFEST_VERSION) != null &&
+                    !rawSections.isEmpty() && JarUtils.sectionName(rawSections.get(0)) == null;
+
+            byte[] mainSection;
+            Map<String, byte[]> entrySections;
+            if( keepRaw ) {
+                mainSection = rawSections.get(0);
+                entrySections = keepSections(zf, mf, rawSections.subList(1, rawSections.size()), digests);
+            } else {
+                if( replaceSignatures ) {
+                    observer.accept("Removing existing signatures");
+                }
+                JarUtils.stripDigests(mf);
+                Attributes main = mf.getMainAttributes();
+                if( main.get(Attributes.Name.MANIFEST_VERSION) == null ) {
+                    main.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+                    main.put(CREATED_BY_NAME, CREATED_BY);
+                }
+                mainSection = JarUtils.mainSection(main, Attributes.Name.MANIFEST_VERSION);
+                entrySections = formSections(mf, digests);
+            }
+
+            ByteArrayOutputStream mfBytes = new ByteArrayOutputStream();
+            mfBytes.write(mainSection);
+            for( byte[] section : entrySections.values() ) {
+                mfBytes.write(section);
+            }
+
+            observer.accept("Creating signature file '" + sfName + "'");
+            byte[] sf = createSignatureFile(mfBytes.toByteArray(), mainSection, entrySections);
+
+            observer.accept("Creating signature block '" + blockName + "'");
+            byte[] block = createSignatureBlock(sf, session, keyAlgorithm);
+
+            if( StringUtils.isNotBlank(tsaUrl) ) {
+                observer.accept("Timestamping signature with '" + tsaUrl + "'");
+                block = timestampClient.timestamp(block, tsaUrl);
+            }
+
+            //
+            // Write to a temp file in the target dir so that signing in-place is safe
+            //
+            tempFile = JarUtils.createSiblingTempFile(targetJarFile);
+
+            observer.accept("Writing signed JAR '" + targetJarFile.getFileName() + "'");
+            writeJAR(zf, tempFile, mfBytes.toByteArray(), sfName, sf, blockName, block, replaceSignatures);
+
+            Files.move(tempFile, targetJarFile, StandardCopyOption.REPLACE_EXISTING);
+            tempFile = null;
+
+        } catch(IOException | GeneralSecurityException exc) {
+            String msg = String.format("error signing %s", sourceJarFile);
+            logger.error( msg, exc );
+            throw new CommandExecutionException( msg + System.getProperty("line.separator") + exc.getMessage() );
+        } finally {
+            if( tempFile != null ) {
+                try {
+                    Files.deleteIfExists(tempFile);
+                } catch(IOException exc) {
+                    logger.warn("can't delete temp file " + tempFile, exc);
+                }
+            }
+        }
+
+        observer.accept("Finished");
+    }
+
+    /**
+     * @return contents of MANIFEST.MF or null if there isn't one
+     */
+    private byte[] readManifestBytes(ZipFile zf) throws IOException {
+
+        ZipEntry mfEntry = zf.getEntry(JarUtils.MANIFEST_NAME);
+        if( mfEntry == null ) {
+            return null;
+        }
+
+        try (
+                InputStream is = zf.getInputStream(mfEntry)
+        ) {
+            return readFully(is);
+        }
+    }
+
+    private Manifest parseManifest(byte[] rawManifest) throws IOException {
+        Manifest mf = new Manifest();
+        if( rawManifest != null ) {
+            mf.read(new ByteArrayInputStream(rawManifest));
+        }
+        return mf;
+    }
+
+    /**
+     * SHA-256 digest of every entry that isn't a directory or signature related
+     *
+     * @return Base64 digests by entry name in JAR order
+     */
+    private Map<String, String> computeDigests(ZipFile zf) throws IOException, NoSuchAlgorithmException {
+
+        Map<String, String> digests = new LinkedHashMap<>();
+
+        MessageDigest md = MessageDigest.getInstance(DIGEST_ALGORITHM);
+        byte[] buf = new byte[8192];
+
+        Enumeration<? extends ZipEntry> entries = zf.entries();
+        while( entries.hasMoreElements() ) {
+
+            ZipEntry e = entries.nextElement();
+
+            if( e.isDirectory() ||
+                    StringUtils.equalsIgnoreCase(e.getName(), JarUtils.MANIFEST_NAME) ||
+                    JarUtils.isSignatureRelated(e.getName()) ) {
+                continue;
+            }
+
+            md.reset();
+            try (
+                    InputStream is = zf.getInputStream(e)
+            ) {
+                int n;
+                while( (n = is.read(buf)) != -1 ) {
+                    md.update(buf, 0, n);
+                }
+            }
+
+            digests.put(e.getName(), Base64.getEncoder().encodeToString(md.digest()));
+        }
+
+        return digests;
+    }
+
+    /**
+     * Writes every section from the parsed manifest: digested entries in JAR order followed by any other sections
+     */
+    private Map<String, byte[]> formSections(Manifest mf, Map<String, String> digests) {
+
+        for( Map.Entry<String, String> d : digests.entrySet() ) {
+            Attributes attrs = mf.getAttributes(d.getKey());
+            if( attrs == null ) {
+                attrs = new Attributes();
+                mf.getEntries().put(d.getKey(), attrs);
+            }
+            attrs.putValue(DIGEST_ATTRIBUTE, d.getValue());
+        }
+
+        Set<String> ordered = new LinkedHashSet<>(digests.keySet());
+        ordered.addAll(mf.getEntries().keySet());
+
+        Map<String, byte[]> sections = new LinkedHashMap<>();
+        for( String name : ordered ) {
+            sections.put(name, JarUtils.entrySection(name, mf.getAttributes(name)));
+        }
+        return sections;
+    }
+
+    /**
+     * Keeps the bytes of every existing section that already has a correct digest and appends sections for new entries
+     *
+     * Like jarsigner, this leaves the .SF digests of other signers valid for the sections that weren't changed.  A
+     * section is rewritten only when its entry has no digest yet or its contents changed.
+     */
+    private Map<String, byte[]> keepSections(ZipFile zf,
+                                             Manifest mf,
+                                             List<byte[]> rawSections,
+                                             Map<String, String> digests) throws IOException {
+
+        Map<String, byte[]> sections = new LinkedHashMap<>();
+
+        for( byte[] raw : rawSections ) {
+            String name = JarUtils.sectionName(raw);
+            if( name != null && !sections.containsKey(name) ) {  // a section without a Name isn't valid
+                sections.put(name, raw);
+            }
+        }
+
+        for( Map.Entry<String, String> d : digests.entrySet() ) {
+
+            Attributes attrs = mf.getAttributes(d.getKey());
+            if( attrs != null && sections.containsKey(d.getKey()) && hasCurrentDigest(zf, d.getKey(), attrs, d.getValue()) ) {
+                continue;
+            }
+
+            Attributes updated = new Attributes();
+            if( attrs != null ) {
+                updated.putAll(attrs);
+                updated.keySet().removeIf(k -> StringUtils.endsWithIgnoreCase(k.toString(), "-Digest"));
+            }
+            updated.putValue(DIGEST_ATTRIBUTE, d.getValue());
+            sections.put(d.getKey(), JarUtils.entrySection(d.getKey(), updated));
+        }
+
+        return sections;
+    }
+
+    /**
+     * True if the section's SHA-256 digest, or lacking that the digest another signer used, matches the entry
+     */
+    private boolean hasCurrentDigest(ZipFile zf, String name, Attributes attrs, String sha256) throws IOException {
+
+        String existing = attrs.getValue(DIGEST_ATTRIBUTE);
+        if( existing != null ) {
+            return existing.equals(sha256);
+        }
+
+        boolean matched = false;
+        for( Object key : attrs.keySet() ) {
+
+            String attrName = key.toString();
+            if( !StringUtils.endsWithIgnoreCase(attrName, "-Digest") ) {
+                continue;
+            }
+
+            MessageDigest md;
+            try {
+                md = MessageDigest.getInstance(StringUtils.removeEndIgnoreCase(attrName, "-Digest"));
+            } catch(NoSuchAlgorithmException exc) {
+                continue;
+            }
+
+            try (
+                    InputStream is = zf.getInputStream(zf.getEntry(name))
+            ) {
+                byte[] buf = new byte[8192];
+                int n;
+                while( (n = is.read(buf)) != -1 ) {
+                    md.update(buf, 0, n);
+                }
+            }
+
+            if( !Base64.getEncoder().encodeToString(md.digest()).equals(attrs.getValue(attrName)) ) {
+                return false;
+            }
+            matched = true;
+        }
+        return matched;
+    }
+
+    private byte[] createSignatureFile(byte[] manifest,
+                                       byte[] mainSection,
+                                       Map<String, byte[]> entrySections) throws IOException, NoSuchAlgorithmException {
+
+        MessageDigest md = MessageDigest.getInstance(DIGEST_ALGORITHM);
+        Base64.Encoder enc = Base64.getEncoder();
+
+        Attributes main = new Attributes();
+        main.put(SIGNATURE_VERSION, "1.0");
+        main.put(CREATED_BY_NAME, CREATED_BY);
+        main.putValue(DIGEST_ATTRIBUTE + "-Manifest", enc.encodeToString(md.digest(manifest)));
+        main.putValue(DIGEST_ATTRIBUTE + "-Manifest-Main-Attributes", enc.encodeToString(md.digest(mainSection)));
+
+        ByteArrayOutputStream sf = new ByteArrayOutputStream();
+        sf.write(JarUtils.mainSection(main, SIGNATURE_VERSION));
+
+        for( Map.Entry<String, byte[]> e : entrySections.entrySet() ) {
+            Attributes attrs = new Attributes();
+            attrs.putValue(DIGEST_ATTRIBUTE, enc.encodeToString(md.digest(e.getValue())));
+            sf.write(JarUtils.entrySection(e.getKey(), attrs));
+        }
+
+        return sf.toByteArray();
+    }
+
+    /**
+     * Detached PKCS#7 SignedData over the .SF file
+     *
+     * Like jarsigner, there are no signed attributes; the signature is over the .SF bytes directly
+     */
+    private byte[] createSignatureBlock(byte[] sf, SigningSession session, String keyAlgorithm) throws GeneralSecurityException, IOException {
+
+        try {
+
+            PrivateKey privateKey = session.getPrivateKey();
+            X509Certificate cert = session.getCertificate();
+
+            JcaSignerInfoGeneratorBuilder signerInfoBuilder = new JcaSignerInfoGeneratorBuilder(
+                    new JcaDigestCalculatorProviderBuilder().build()
+            );
+            signerInfoBuilder.setDirectSignature(true);
+
+            CMSSignedDataGenerator gen = new CMSSignedDataGenerator();
+            gen.addSignerInfoGenerator(
+                    signerInfoBuilder.build(
+                            new JcaContentSignerBuilder("SHA256with" + ("EC".equals(keyAlgorithm) ? "ECDSA" : keyAlgorithm)).build(privateKey),
+                            cert)
+            );
+            gen.addCertificates(new JcaCertStore(session.getCertificateChain()));
+
+            CMSSignedData signedData = gen.generate(new CMSProcessableByteArray(sf), false);
+
+            return signedData.getEncoded();
+
+        } catch(GeneralSecurityException | IOException exc) {
+            throw exc;
+        } catch(Exception exc) {  // BC operator and CMS exceptions
+            throw new GeneralSecurityException(exc.getMessage(), exc);
+        }
+    }
+
+    /**
+     * Adds a timestamp to the signature by alias in a JAR that was signed without one
+     *
+     * Only the signature block changes so the entries are copied without recompressing.  This lets a batch sign
+     * every JAR first and go to the TSA afterwards.
+     */
+    public void timestampJAR(Path jarFile,
+                             String alias,
+                             String tsaUrl,
+                             Consumer<String> observer) throws CommandExecutionException {
+
+        if( logger.isDebugEnabled() ) {
+            logger.debug("[BUILTIN SIGN] timestamping jar={}, alias={}, tsaUrl={}", jarFile, alias, tsaUrl);
+        }
+
+        Path tempFile = null;
+
+        try (
+                ZipFile zf = new ZipFile(jarFile.toFile())
+        ) {
+
+            ZipEntry blockEntry = findSignatureBlock(zf, alias);
+            if( blockEntry == null ) {
+                throw new IOException("no signature block for alias '" + alias + "'");
+            }
+
+            byte[] block;
+            try (
+                    InputStream is = zf.getInputStream(blockEntry)
+            ) {
+                block = readFully(is);
+            }
+
+            observer.accept("Timestamping signature with '" + tsaUrl + "'");
+            byte[] stamped = timestampClient.timestamp(block, tsaUrl);
+
+            tempFile = JarUtils.createSiblingTempFile(jarFile);
+
+            try {
+                rewriteEntryRaw(jarFile, tempFile, blockEntry.getName(), stamped);
+            } catch(ZipException exc) {
+                if( logger.isDebugEnabled() ) {
+                    logger.debug("[BUILTIN SIGN] can't copy raw entries ({}); recompressing", exc.getMessage());
+                }
+                rewriteEntryRecompressed(zf, tempFile, blockEntry.getName(), stamped);
+            }
+
+            Files.move(tempFile, jarFile, StandardCopyOption.REPLACE_EXISTING);
+            tempFile = null;
+
+        } catch(IOException | GeneralSecurityException exc) {
+            String msg = String.format("error timestamping %s", jarFile);
+            logger.error( msg, exc );
+            throw new CommandExecutionException( msg + System.getProperty("line.separator") + exc.getMessage() );
+        } finally {
+            if( tempFile != null ) {
+                try {
+                    Files.deleteIfExists(tempFile);
+                } catch(IOException exc) {
+                    logger.warn("can't delete temp file " + tempFile, exc);
+                }
+            }
+        }
+    }
+
+    private ZipEntry findSignatureBlock(ZipFile zf, String alias) {
+
+        String prefix = JarUtils.META_INF + JarUtils.signatureFileBaseName(alias) + ".";
+
+        Enumeration<? extends ZipEntry> entries = zf.entries();
+        while( entries.hasMoreElements() ) {
+            ZipEntry e = entries.nextElement();
+            String name = StringUtils.upperCase(e.getName(), Locale.ENGLISH);
+            if( name.startsWith(prefix) && !name.endsWith(".SF") && JarUtils.isSignatureRelated(name) ) {
+                return e;
+            }
+        }
+        return null;
+    }
+
+    private byte[] readFully(InputStream is) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        int n;
+        while( (n = is.read(buf)) != -1 ) {
+            baos.write(buf, 0, n);
+        }
+        return baos.toByteArray();
+    }
+
+    private void rewriteEntryRaw(Path source, Path target, String entryName, byte[] contents) throws IOException {
+
+        try (
+                RawZipFile rzf = new RawZipFile(source);
+                RawZipWriter writer = new RawZipWriter(target)
+        ) {
+            for( RawZipFile.Entry e : rzf.getEntries() ) {
+                if( entryName.equals(e.getName()) ) {
+                    writer.writeEntry(entryName, contents, e.getTime());
+                } else {
+                    writer.copyEntry(rzf, e);
+                }
+            }
+        }
+    }
+
+    private void rewriteEntryRecompressed(ZipFile zf, Path target, String entryName, byte[] contents) throws IOException {
+
+        try (
+                ZipOutputStream zos = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(target)))
+        ) {
+
+            byte[] buf = new byte[8192];
+
+            Enumeration<? extends ZipEntry> entries = zf.entries();
+            while( entries.hasMoreElements() ) {
+
+                ZipEntry e = entries.nextElement();
+
+                if( entryName.equals(e.getName()) ) {
+                    writeEntry(zos, entryName, contents);
+                } else {
+                    JarUtils.copyEntry(zf, e, zos, buf);
+                }
+            }
+        }
+    }
+
+    /**
+     * RSA, DSA, or EC; also the extension of the signature block
+     *
+     * @throws CommandExecutionException for other key types such as Ed25519 and RSASSA-PSS; jarsigner handles those
+     */
+    private String keyAlgorithm(SigningSession session) throws CommandExecutionException {
+        String algorithm = StringUtils.upperCase(session.getPrivateKey().getAlgorithm(), Locale.ENGLISH);
+        switch( algorithm ) {
+            case "RSA":
+            case "DSA":
+                return algorithm;
+            case "EC":
+            case "ECDSA":
+                return "EC";
+            default:
+                throw new CommandExecutionException(String.format(
+                        "key type %s of alias %s isn't supported by the builtin signer; use jarsigner for this key",
+                        session.getPrivateKey().getAlgorithm(), session.getAlias()));
+        }
+    }
+
+    /**
+     * Writes MANIFEST.MF, the .SF, and the signature block first followed by the remaining entries of the source
+     *
+     * Any previous signature by the same alias is replaced.  Signatures by other signers are kept unless
+     * replaceSignatures is set.  The remaining entries are copied still compressed when the source allows it.
+     */
+    private void writeJAR(ZipFile zf,
+                          Path target,
+                          byte[] manifest,
+                          String sfName,
+                          byte[] sf,
+                          String blockName,
+                          byte[] block,
+                          boolean replaceSignatures) throws IOException {
+
+        Set<String> replaced = new HashSet<>(Arrays.asList(
+                StringUtils.upperCase(JarUtils.MANIFEST_NAME, Locale.ENGLISH),
+                StringUtils.upperCase(sfName, Locale.ENGLISH),
+                StringUtils.upperCase(blockName, Locale.ENGLISH)
+        ));
+
+        Predicate<String> skip = name -> replaced.contains(StringUtils.upperCase(name, Locale.ENGLISH)) ||
+                (replaceSignatures && JarUtils.isSignatureRelated(name));
+
+        try {
+            writeJARRaw(Paths.get(zf.getName()), target, manifest, sfName, sf, blockName, block, skip);
+        } catch(ZipException exc) {
+            if( logger.isDebugEnabled() ) {
+                logger.debug("[BUILTIN SIGN] can't copy raw entries ({}); recompressing", exc.getMessage());
+            }
+            writeJARRecompressed(zf, target, manifest, sfName, sf, blockName, block, skip);
+        }
+    }
+
+    private void writeJARRaw(Path source,
+                             Path target,
+                             byte[] manifest,
+                             String sfName,
+                             byte[] sf,
+                             String blockName,
+                             byte[] block,
+                             Predicate<String> skip) throws IOException {
+
+        long now = System.currentTimeMillis();
+
+        try (
+                RawZipFile rzf = new RawZipFile(source);
+                RawZipWriter writer = new RawZipWriter(target)
+        ) {
+
+            writer.writeEntry(JarUtils.MANIFEST_NAME, manifest, now);
+            writer.writeEntry(sfName, sf, now);
+            writer.writeEntry(blockName, block, now);
+
+            for( RawZipFile.Entry e : rzf.getEntries() ) {
+                if( !skip.test(e.getName()) ) {
+                    writer.copyEntry(rzf, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Inflates and deflates every entry; for zips RawZipFile can't handle
+     */
+    private void writeJARRecompressed(ZipFile zf,
+                                      Path target,
+                                      byte[] manifest,
+                                      String sfName,
+                                      byte[] sf,
+                                      String blockName,
+                                      byte[] block,
+                                      Predicate<String> skip) throws IOException {
+
+        try (
+                ZipOutputStream zos = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(target)))
+        ) {
+
+            writeEntry(zos, JarUtils.MANIFEST_NAME, manifest);
+            writeEntry(zos, sfName, sf);
+            writeEntry(zos, blockName, block);
+
+            byte[] buf = new byte[8192];
+
+            Enumeration<? extends ZipEntry> entries = zf.entries();
+            while( entries.hasMoreElements() ) {
+
+                ZipEntry e = entries.nextElement();
+
+                if( !skip.test(e.getName()) ) {
+                    JarUtils.copyEntry(zf, e, zos, buf);
+                }
+            }
+        }
+    }
+
+    private void writeEntry(ZipOutputStream zos, String name, byte[] contents) throws IOException {
+        ZipEntry e = new ZipEntry(name);
+        e.setTime(System.currentTimeMillis());
+        zos.putNextEntry(e);
+        zos.write(contents);
+        zos.closeEntry();
+    }
+}
@@ -19,16 +19,32 @@ import com.google.common.base.Preconditions;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.*;
-import java.nio.file.Files;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
  * Executes an OS command as a Process
  *
+ * stdout and stderr are read by background threads as the command runs so that a verbose command can't fill the
+ * pipe and block.  Each line goes to the caller's observer; the last MAX_OUTPUT_LINES are kept for logging.
+ *
+ * jar, jarsigner, and keytool run in the app's JVM instead when the running JDK provides them as a ToolProvider
+ * (see InProcessTools), saving a JVM startup per command.  Tools run this way can't be timed out and always run in
+ * the app's working directory so commands needing another working dir still start a process.
+ *
  * @author carl_000
  */
 public class CommandExecutor {
@@ -36,10 +52,11 @@ public class CommandExecutor {
     private Logger logger = LoggerFactory.getLogger(CommandExecutor.class);
 
     private final static int DEFAULT_TIMEOUT_IN_SECONDS = 1000;
+    private final static int MAX_OUTPUT_LINES = 500;
+    private final static long DRAIN_TIMEOUT_MILLIS = 5000;
 
     private final Path workingDir;
     private final int timeoutInSeconds;
-    private final Optional<Path> outputDir;
 
     public CommandExecutor() {
         this(DEFAULT_TIMEOUT_IN_SECONDS);
@@ -48,26 +65,37 @@ public class CommandExecutor {
     public CommandExecutor(int timeoutInSeconds) {
         this.timeoutInSeconds = timeoutInSeconds;
         this.workingDir = Paths.get(System.getProperty("user.dir"));
-        this.outputDir = Optional.empty();
     }
 
     public CommandExecutor(int timeoutInSeconds, Path workingDir) {
         Preconditions.checkNotNull(workingDir);
         this.timeoutInSeconds = timeoutInSeconds;
         this.workingDir = workingDir;
-        this.outputDir = Optional.empty();
     }
 
-    public CommandExecutor(int timeoutInSeconds, Path workingDir, Path outputDir) {
-        this.timeoutInSeconds = timeoutInSeconds;
-        this.workingDir = workingDir;
-        Preconditions.checkNotNull(outputDir);
-        this.outputDir = Optional.of(outputDir);
+    public void exec(String[] cmdAndArgs) throws CommandExecutionException {
+        exec(cmdAndArgs, line -> {});
     }
 
-    public void exec(String[] cmdAndArgs) throws CommandExecutionException {
+    public void exec(String[] cmdAndArgs, Consumer<String> observer) throws CommandExecutionException {
+        exec(cmdAndArgs, observer, line -> {});
+    }
 
-        Optional<Path> execOutput = Optional.empty();
+    /**
+     * Runs the command to completion
+     *
+     * @param cmdAndArgs command followed by its args
+     * @param observer receives each line of stdout and stderr as it is written; called from the reader threads
+     * @param stdoutObserver also receives each line of stdout, for callers parsing the command's output
+     * @throws CommandExecutionException if the command can't be started, exits with non-zero, or times out
+     */
+    public void exec(String[] cmdAndArgs, Consumer<String> observer, Consumer<String> stdoutObserver) throws CommandExecutionException {
+
+        Preconditions.checkNotNull(observer);
+        Preconditions.checkNotNull(stdoutObserver);
+
+        OutputBuffer output = new OutputBuffer(observer);
+        List<Thread> readers = new ArrayList<>();
 
         try {
 
@@ -76,23 +104,52 @@ public class CommandExecutor {
                 throw new CommandExecutionException( "cmdAndArgs cannot be null and must contain at least one item" );
             }
 
+            Optional<Object> tool = InProcessTools.find(cmdAndArgs[0]);
+            if( tool.isPresent() && isAppWorkingDir() ) {
+
+                if(logger.isDebugEnabled() ) {
+                    logger.debug("[EXEC] running command {} in process", cmdAndArgs[0]);
+                }
+
+                int exitValue = InProcessTools.run(
+                        tool.get(),
+                        Arrays.copyOfRange(cmdAndArgs, 1, cmdAndArgs.length),
+                        line -> {
+                            output.add(line);
+                            stdoutObserver.accept(line);
+                        },
+                        output::add
+                );
+
+                dumpOutput(output);
+
+                if( exitValue != 0 ) {
+                    String msg = String.format("error invoking command %s", cmdAndArgs[0]);
+                    logger.error( msg );
+                    throw new CommandExecutionException(msg);
+                }
+
+                return;
+            }
+
             ProcessBuilder pb = new ProcessBuilder(cmdAndArgs);
             pb.directory(workingDir.toFile());
             pb.redirectErrorStream(false);
 
-            Path d = outputDir.orElse(workingDir);
-            execOutput = Optional.of(Files.createTempFile(d, "", ".txt"));
-            execOutput.get().toFile().deleteOnExit();
-
             Process p = pb.start();
 
+            readers.add(startReader(p.getInputStream(), output, stdoutObserver, cmdAndArgs[0], "stdout"));
+            readers.add(startReader(p.getErrorStream(), output, line -> {}, cmdAndArgs[0], "stderr"));
+
             boolean exitted = p.waitFor(timeoutInSeconds, TimeUnit.SECONDS);
 
             if( exitted ) {
 
+                joinReaders(readers);
+
                 if( p.exitValue() == 0 ) {
 
-                    dumpOutputFile(execOutput.get());
+                    dumpOutput(output);
 
                     if(logger.isDebugEnabled() ) {
                         logger.debug("[EXEC] command {} executed successfully", cmdAndArgs[0]);
@@ -100,7 +157,7 @@ public class CommandExecutor {
 
                 } else {
 
-                    dumpOutputFile(execOutput.get());
+                    dumpOutput(output);
 
                     String msg = String.format("error invoking command %s", cmdAndArgs[0]);
                     logger.error( msg );
@@ -109,7 +166,10 @@ public class CommandExecutor {
 
             } else {
 
-                dumpOutputFile(execOutput.get());
+                p.destroyForcibly();
+                joinReaders(readers);
+
+                dumpOutput(output);
 
                 String msg = String.format("command %s timed out after %d seconds", cmdAndArgs[0], timeoutInSeconds);
                 logger.error( msg );
@@ -126,43 +186,95 @@ public class CommandExecutor {
             logger.error( msg, exc );
             throw new CommandExecutionException(msg);
         } finally {
+            readers.forEach(Thread::interrupt);  // only still running if exec() failed
+        }
+    }
 
-            // can't use deleteOnExit b/c commands might pick this up
-            if( execOutput.isPresent() ) {
-                boolean wasDeleted = execOutput.get().toFile().delete();
-                if( !wasDeleted ) {
-                    if(logger.isDebugEnabled() ) {
-                        logger.debug("[EXEC] temp file '" + execOutput.get() + "' was not deleted");
-                    }
+    private boolean isAppWorkingDir() {
+        return workingDir.toAbsolutePath().equals(Paths.get(System.getProperty("user.dir")).toAbsolutePath());
+    }
+
+    private Thread startReader(InputStream is, OutputBuffer output, Consumer<String> streamObserver, String cmd, String streamName) {
+
+        Thread t = new Thread(() -> {
+            try (
+                    BufferedReader br = new BufferedReader(new InputStreamReader(is, Charset.defaultCharset()))
+            ) {
+                String line;
+                while( (line = br.readLine()) != null ) {
+                    output.add(line);
+                    streamObserver.accept(line);
+                }
+            } catch(IOException exc) {
+                if( logger.isDebugEnabled() ) {
+                    logger.debug("[EXEC] stopped reading " + streamName + " of " + cmd, exc);
                 }
             }
+        }, "resignator-exec-" + streamName);
+
+        t.setDaemon(true);
+        t.start();
+
+        return t;
+    }
+
+    /**
+     * Waits for the readers to reach the end of the streams after the process exits
+     *
+     * Bounded since a child the command started could keep the pipes open.
+     */
+    private void joinReaders(List<Thread> readers) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT_MILLIS;
+        for( Thread t : readers ) {
+            t.join(Math.max(1, deadline - System.currentTimeMillis()));
         }
     }
 
-    private void dumpOutputFile(Path outputFile) {
-        Preconditions.checkNotNull(outputFile);
+    private void dumpOutput(OutputBuffer output) {
         if (logger.isDebugEnabled()) {
-            File of = outputFile.toFile();
-            if (of.exists()) {
+            List<String> lines = output.lines();
+            if( !lines.isEmpty() ) {
                 logger.debug("[EXEC] output from command");
-                try (
-                        LineNumberReader lnr = new LineNumberReader(
-                                new BufferedReader(
-                                        new FileReader(of)
-                                )
-                        )
-                        ) {
-                    String line;
-                    while ((line = lnr.readLine()) != null) {
-                        logger.debug("{} {}", lnr.getLineNumber(), line);
-                    }
-                } catch(IOException exc) {
-                    logger.warn("[EXEC] error reading file=" + outputFile.toString(), exc);
+                long lineNumber = output.firstLineNumber();
+                for( String line : lines ) {
+                    logger.debug("{} {}", lineNumber++, line);
                 }
+            } else {
+                logger.debug("[EXEC] no output from command");
             }
+        }
+    }
+
+    /**
+     * Keeps the last MAX_OUTPUT_LINES lines written to either stream
+     */
+    private static class OutputBuffer {
+
+        private final Consumer<String> observer;
+        private final Deque<String> lines = new ArrayDeque<>();
+        private long numLines = 0;
+
+        OutputBuffer(Consumer<String> observer) {
+            this.observer = observer;
+        }
+
+        void add(String line) {
+            synchronized (this) {
+                if( lines.size() == MAX_OUTPUT_LINES ) {
+                    lines.removeFirst();
+                }
+                lines.addLast(line);
+                numLines++;
+            }
+            observer.accept(line);
+        }
+
+        synchronized List<String> lines() {
+            return new ArrayList<>(lines);
+        }
 
-        } else {
-            logger.debug("[EXEC] no outputFile present");
+        synchronized long firstLineNumber() {
+            return numLines - lines.size() + 1;
         }
     }
 }
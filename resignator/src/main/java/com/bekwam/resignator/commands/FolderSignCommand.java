@@ -0,0 +1,400 @@
+/*
+ * Copyright 2015 Bekwam, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bekwam.resignator.commands;
+
+import com.bekwam.resignator.model.JarsignerConfig;
+import com.bekwam.resignator.model.SignJarResult;
+import com.bekwam.resignator.model.SignerType;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.DoubleConsumer;
+
+/**
+ * Unsigns (or copies) and signs a folder full of JARs on a bounded pool of worker threads
+ *
+ * With doUnsign, each JAR goes through SignCommand.unsignAndSignJAR() which, for the builtin signer, writes the
+ * target once.  JARs already signed with the same settings are taken from the SignCache when it's on.  Each JAR
+ * gets its own UnsignCommand and SignCommand so that no per-operation state is shared between workers.  A failure in
+ * one JAR is recorded in its SignJarResult and does not stop the others.
+ *
+ * When the profile defers timestamps and the builtin signer is used, the workers sign without a timestamp.  Once
+ * every JAR is signed, the signature blocks are sent to the TSA concurrently and the tokens added to the JARs.  A slow
+ * TSA then holds up only that last stage rather than every worker.
+ *
+ * @author carl_000
+ */
+public class FolderSignCommand {
+
+    private final static Logger logger = LoggerFactory.getLogger(FolderSignCommand.class);
+
+    private final static int STEPS_PER_JAR = 2;  // copy then sign; or unsign and sign fused
+    private final static int DEFERRED_TIMESTAMP_STEPS = 1;
+
+    @Inject
+    Provider<UnsignCommand> unsignCommandProvider;
+
+    @Inject
+    Provider<SignCommand> signCommandProvider;
+
+    @Inject
+    SignCache signCache;
+
+    @Inject
+    @Named("SigningThreads")
+    Integer signingThreads;
+
+    @Inject
+    @Named("TsaMaxConcurrent")
+    Integer tsaMaxConcurrent = 4;
+
+    @Inject
+    BuiltinSigner builtinSigner;
+
+    /**
+     * A JAR signed by a worker that still needs its timestamp
+     */
+    private static class Unstamped {
+
+        final int index;
+        final Optional<String> cacheKey;
+
+        Unstamped(int index, Optional<String> cacheKey) {
+            this.index = index;
+            this.cacheKey = cacheKey;
+        }
+    }
+
+    /**
+     * Signs each source JAR into targetDir, blocking until all JARs are finished
+     *
+     * @param sourceJars JARs to sign
+     * @param targetDir folder receiving the signed JARs (same file names)
+     * @param doUnsign strip existing signatures rather than copy
+     * @param jc keystore, alias, passwords, and signer
+     * @param observer console messages; called from the worker threads
+     * @param progressObserver fraction of steps finished across all workers, 0.0 to 1.0
+     * @param cancelled polled before each step; remaining JARs are skipped once true
+     * @return one result per source JAR in the order given
+     * @throws CommandExecutionException if the key can't be loaded from the keystore (builtin signer)
+     * @throws InterruptedException if the calling thread is interrupted while waiting; workers are stopped
+     */
+    public List<SignJarResult> signJARs(List<Path> sourceJars,
+                                        Path targetDir,
+                                        boolean doUnsign,
+                                        JarsignerConfig jc,
+                                        Consumer<String> observer,
+                                        DoubleConsumer progressObserver,
+                                        BooleanSupplier cancelled) throws CommandExecutionException, InterruptedException {
+
+        Preconditions.checkNotNull(sourceJars);
+        Preconditions.checkNotNull(targetDir);
+        Preconditions.checkNotNull(jc);
+
+        List<SignJarResult> results = new ArrayList<>();
+
+        if( sourceJars.isEmpty() ) {
+            return results;
+        }
+
+        //
+        // The builtin signer reads the key once here for all JARs and workers
+        //
+        Optional<SigningSession> session = Optional.empty();
+        if( jc.getSignerType() == SignerType.BUILTIN ) {
+            observer.accept("Loading key '" + jc.getAlias() + "' from keystore");
+            session = Optional.of(SigningSession.open(jc));
+        }
+        final Optional<SigningSession> batchSession = session;
+
+        //
+        // jarsigner can only timestamp as it signs
+        //
+        final boolean deferred = jc.isDeferTimestamps() && batchSession.isPresent() && StringUtils.isNotBlank(jc.getTsaUrl());
+        final String signingTsaUrl = deferred ? "" : jc.getTsaUrl();
+        final Queue<Unstamped> unstamped = new ConcurrentLinkedQueue<>();
+
+        int nThreads = Math.max(1, Math.min(signingThreads, sourceJars.size()));
+
+        if( logger.isDebugEnabled() ) {
+            logger.debug("[FOLDER SIGN] signing {} jars with {} threads; deferred timestamps={}",
+                    sourceJars.size(), nThreads, deferred);
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(
+                nThreads,
+                new ThreadFactoryBuilder().setNameFormat("resignator-sign-%d").setDaemon(true).build()
+        );
+
+        final double totalSteps = sourceJars.size() * (STEPS_PER_JAR + (deferred ? DEFERRED_TIMESTAMP_STEPS : 0));
+        final AtomicInteger stepsDone = new AtomicInteger(0);
+        final Runnable stepFinished = () -> progressObserver.accept(stepsDone.incrementAndGet() / totalSteps);
+
+        try {
+
+            List<Future<SignJarResult>> futures = new ArrayList<>();
+            for( int i = 0; i < sourceJars.size(); i++ ) {
+                final int index = i;
+                Path sourceJar = sourceJars.get(i);
+                Path targetJar = targetDir.resolve(sourceJar.getFileName());
+                Consumer<Optional<String>> onUnstamped = deferred ?
+                        cacheKey -> unstamped.add(new Unstamped(index, cacheKey)) :
+                        null;
+                futures.add(pool.submit(
+                        () -> signOne(sourceJar, targetJar, doUnsign, jc, signingTsaUrl, batchSession,
+                                observer, stepFinished, cancelled, onUnstamped)
+                ));
+            }
+
+            for( Future<SignJarResult> f : futures ) {
+                try {
+                    results.add(f.get());
+                } catch(ExecutionException exc) {  // signOne() reports its own errors
+                    logger.error("unexpected error in signing worker", exc.getCause());
+                    throw new IllegalStateException(exc.getCause());
+                }
+            }
+
+            if( deferred ) {
+                for( int i = unstamped.size(); i < results.size(); i++ ) {  // cached or failed; nothing to stamp
+                    stepFinished.run();
+                }
+                stampAll(results, new ArrayList<>(unstamped), jc, observer, stepFinished, cancelled);
+            }
+
+        } finally {
+            pool.shutdownNow();
+            signCache.flush();
+        }
+
+        return results;
+    }
+
+    private SignJarResult signOne(Path sourceJar,
+                                  Path targetJar,
+                                  boolean doUnsign,
+                                  JarsignerConfig jc,
+                                  String tsaUrl,
+                                  Optional<SigningSession> session,
+                                  Consumer<String> observer,
+                                  Runnable stepFinished,
+                                  BooleanSupplier cancelled,
+                                  Consumer<Optional<String>> onUnstamped) {
+
+        long startTime = System.currentTimeMillis();
+
+        String jarName = sourceJar.getFileName().toString();
+        Consumer<String> jarObserver = s -> observer.accept("[" + jarName + "] " + s);
+
+        int stepsLeft = STEPS_PER_JAR;
+
+        try {
+
+            if( cancelled.getAsBoolean() ) {
+                return new SignJarResult(sourceJar, targetJar, Optional.of("Cancelled"), 0L);
+            }
+
+            Optional<String> cacheKey = signCache.key(sourceJar, jc, doUnsign);
+            if( cacheKey.isPresent() && signCache.restore(cacheKey.get(), targetJar) ) {
+                jarObserver.accept("Unchanged; using signed JAR from cache");
+                return new SignJarResult(sourceJar, targetJar, Optional.empty(), elapsed(startTime));
+            }
+
+            if( doUnsign && session.isPresent() ) {
+
+                signCommandProvider.get().unsignAndSignJAR(sourceJar, targetJar, session.get(), tsaUrl, jarObserver);
+
+            } else if( doUnsign ) {
+
+                signCommandProvider.get().unsignAndSignJAR(
+                        sourceJar,
+                        targetJar,
+                        Paths.get(jc.getKeystore()),
+                        jc.getStorepass(),
+                        jc.getAlias(),
+                        jc.getKeypass(),
+                        jc.getSignerType(),
+                        tsaUrl,
+                        jarObserver
+                );
+
+            } else {
+
+                jarObserver.accept("Copying JAR");
+                unsignCommandProvider.get().copyJAR(sourceJar.toString(), targetJar.toString());
+                stepFinished.run();
+                stepsLeft--;
+
+                if( cancelled.getAsBoolean() ) {
+                    return new SignJarResult(sourceJar, targetJar, Optional.of("Cancelled"), elapsed(startTime));
+                }
+
+                if( session.isPresent() ) {
+                    signCommandProvider.get().signJAR(targetJar, session.get(), tsaUrl, jarObserver);
+                } else {
+                    signCommandProvider.get().signJAR(
+                            targetJar,
+                            Paths.get(jc.getKeystore()),
+                            jc.getStorepass(),
+                            jc.getAlias(),
+                            jc.getKeypass(),
+                            jc.getSignerType(),
+                            tsaUrl,
+                            jarObserver
+                    );
+                }
+            }
+
+            if( onUnstamped != null ) {
+                onUnstamped.accept(cacheKey);  // cached once it has its timestamp
+            } else if( cacheKey.isPresent() ) {
+                signCache.store(cacheKey.get(), targetJar);
+            }
+
+            return new SignJarResult(sourceJar, targetJar, Optional.empty(), elapsed(startTime));
+
+        } catch(Exception exc) {
+
+            logger.error("error signing jar=" + sourceJar, exc);
+
+            String msg = StringUtils.defaultIfBlank(exc.getMessage(), exc.getClass().getSimpleName());
+            jarObserver.accept("Failed: " + msg);
+
+            return new SignJarResult(sourceJar, targetJar, Optional.of(msg), elapsed(startTime));
+
+        } finally {
+            while( stepsLeft-- > 0 ) {  // fused, failed, or skipped steps still count toward the total
+                stepFinished.run();
+            }
+        }
+    }
+
+    /**
+     * Timestamps the JARs signed by the workers, replacing their results with failures where the TSA can't be used
+     *
+     * The TimestampClient limits the requests in flight; this pool only has to keep that many busy.
+     */
+    private void stampAll(List<SignJarResult> results,
+                          List<Unstamped> unstamped,
+                          JarsignerConfig jc,
+                          Consumer<String> observer,
+                          Runnable stepFinished,
+                          BooleanSupplier cancelled) throws InterruptedException {
+
+        if( unstamped.isEmpty() ) {
+            return;
+        }
+
+        int nThreads = Math.max(1, Math.min(tsaMaxConcurrent, unstamped.size()));
+
+        if( logger.isDebugEnabled() ) {
+            logger.debug("[FOLDER SIGN] timestamping {} jars with {} threads", unstamped.size(), nThreads);
+        }
+
+        observer.accept("Timestamping " + unstamped.size() + " signed JARs");
+
+        ExecutorService pool = Executors.newFixedThreadPool(
+                nThreads,
+                new ThreadFactoryBuilder().setNameFormat("resignator-tsa-%d").setDaemon(true).build()
+        );
+
+        try {
+
+            List<Future<SignJarResult>> futures = new ArrayList<>();
+            for( Unstamped u : unstamped ) {
+                SignJarResult signed = results.get(u.index);
+                futures.add(pool.submit(() -> stampOne(signed, u.cacheKey, jc, observer, stepFinished, cancelled)));
+            }
+
+            for( int i = 0; i < unstamped.size(); i++ ) {
+                try {
+                    results.set(unstamped.get(i).index, futures.get(i).get());
+                } catch(ExecutionException exc) {  // stampOne() reports its own errors
+                    logger.error("unexpected error in timestamp worker", exc.getCause());
+                    throw new IllegalStateException(exc.getCause());
+                }
+            }
+
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private SignJarResult stampOne(SignJarResult signed,
+                                   Optional<String> cacheKey,
+                                   JarsignerConfig jc,
+                                   Consumer<String> observer,
+                                   Runnable stepFinished,
+                                   BooleanSupplier cancelled) {
+
+        long startTime = System.currentTimeMillis();
+
+        Path targetJar = signed.getTargetJar();
+        String jarName = signed.getSourceJar().getFileName().toString();
+        Consumer<String> jarObserver = s -> observer.accept("[" + jarName + "] " + s);
+
+        try {
+
+            if( cancelled.getAsBoolean() ) {
+                return new SignJarResult(signed.getSourceJar(), targetJar,
+                        Optional.of("Cancelled; signed without a timestamp"), signed.getElapsedMillis());
+            }
+
+            builtinSigner.timestampJAR(targetJar, jc.getAlias(), jc.getTsaUrl(), jarObserver);
+
+            if( cacheKey.isPresent() ) {
+                signCache.store(cacheKey.get(), targetJar);
+            }
+
+            return new SignJarResult(signed.getSourceJar(), targetJar, Optional.empty(),
+                    signed.getElapsedMillis() + elapsed(startTime));
+
+        } catch(Exception exc) {
+
+            logger.error("error timestamping jar=" + targetJar, exc);
+
+            String msg = "Signed without a timestamp; " +
+                    StringUtils.defaultIfBlank(exc.getMessage(), exc.getClass().getSimpleName());
+            jarObserver.accept("Failed: " + msg);
+
+            return new SignJarResult(signed.getSourceJar(), targetJar, Optional.of(msg),
+                    signed.getElapsedMillis() + elapsed(startTime));
+
+        } finally {
+            stepFinished.run();
+        }
+    }
+
+    private long elapsed(long startTime) {
+        return System.currentTimeMillis() - startTime;
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2015 Bekwam, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bekwam.resignator.commands;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
+
+/**
+ * Runs jar, jarsigner, and keytool inside the app's JVM through java.util.spi.ToolProvider
+ *
+ * ToolProvider was added in Java 9 so it's looked up by reflection; on Java 8, or for a tool the running JDK
+ * doesn't provide, CommandExecutor starts a process from the configured JDK as before.  The in-process tool is
+ * the running JDK's rather than the configured one.  -Dresignator.inProcessTools=false always starts processes.
+ *
+ * @author carl_000
+ */
+class InProcessTools {
+
+    private final static Logger logger = LoggerFactory.getLogger(InProcessTools.class);
+
+    private final static boolean ENABLED = Boolean.valueOf(System.getProperty("resignator.inProcessTools", "true"));
+
+    private final static Set<String> TOOL_NAMES = new HashSet<>(Arrays.asList("jar", "jarsigner", "keytool"));
+
+    private final static Method FIND_FIRST;
+    private final static Method RUN;
+
+    static {
+        Method findFirst = null;
+        Method run = null;
+        try {
+            Class<?> toolProviderClass = Class.forName("java.util.spi.ToolProvider");
+            findFirst = toolProviderClass.getMethod("findFirst", String.class);
+            run = toolProviderClass.getMethod("run", PrintWriter.class, PrintWriter.class, String[].class);
+        } catch(ClassNotFoundException | NoSuchMethodException exc) {
+            if( logger.isDebugEnabled() ) {
+                logger.debug("[IN PROCESS] ToolProvider not available; tools will run as processes");
+            }
+        }
+        FIND_FIRST = findFirst;
+        RUN = run;
+    }
+
+    private final static ConcurrentMap<String, Optional<Object>> providers = new ConcurrentHashMap<>();
+
+    private InProcessTools() {}
+
+    /**
+     * Finds the ToolProvider for a command like C:\jdk\bin\jarsigner.exe
+     *
+     * @param command path to a JDK tool
+     * @return provider or empty if the command isn't a JDK tool or must run as a process
+     */
+    static Optional<Object> find(String command) {
+
+        if( !ENABLED || FIND_FIRST == null || StringUtils.isBlank(command) ) {
+            return Optional.empty();
+        }
+
+        String toolName = StringUtils.removeEndIgnoreCase(
+                Paths.get(command).getFileName().toString(),
+                ".exe"
+        ).toLowerCase(Locale.ENGLISH);
+
+        if( !TOOL_NAMES.contains(toolName) ) {
+            return Optional.empty();
+        }
+
+        return providers.computeIfAbsent(toolName, InProcessTools::lookup);
+    }
+
+    /**
+     * Runs the tool passing each line it writes to the observer of the stream
+     *
+     * @param provider from find()
+     * @param args args without the command
+     * @param stdoutObserver receives stdout lines
+     * @param stderrObserver receives stderr lines
+     * @return exit code of the tool
+     * @throws CommandExecutionException if the tool throws
+     */
+    static int run(Object provider, String[] args, Consumer<String> stdoutObserver, Consumer<String> stderrObserver) throws CommandExecutionException {
+
+        try (
+                PrintWriter out = new PrintWriter(new LineWriter(stdoutObserver));
+                PrintWriter err = new PrintWriter(new LineWriter(stderrObserver))
+        ) {
+
+            return (Integer)RUN.invoke(provider, out, err, args);
+
+        } catch(IllegalAccessException | InvocationTargetException exc) {
+            Throwable cause = exc instanceof InvocationTargetException ? exc.getCause() : exc;
+            logger.error("error running tool in process", cause);
+            throw new CommandExecutionException("error running tool in process; " + cause.getMessage());
+        }
+    }
+
+    private static Optional<Object> lookup(String toolName) {
+        try {
+            Optional<?> provider = (Optional<?>)FIND_FIRST.invoke(null, toolName);
+            if( logger.isDebugEnabled() ) {
+                logger.debug("[IN PROCESS] tool={}, available={}", toolName, provider.isPresent());
+            }
+            return provider.map(p -> (Object)p);
+        } catch(IllegalAccessException | InvocationTargetException exc) {
+            logger.warn("can't look up tool " + toolName + "; will run as a process", exc);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Passes complete lines to an observer
+     */
+    private static class LineWriter extends Writer {
+
+        private final Consumer<String> observer;
+        private final StringBuilder line = new StringBuilder();
+
+        LineWriter(Consumer<String> observer) {
+            this.observer = observer;
+        }
+
+        @Override
+        public synchronized void write(char[] cbuf, int off, int len) {
+            for( int i = off; i < off + len; i++ ) {
+                char c = cbuf[i];
+                if( c == '\n' ) {
+                    emit();
+                } else if( c != '\r' ) {
+                    line.append(c);
+                }
+            }
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public synchronized void close() {
+            if( line.length() > 0 ) {
+                emit();
+            }
+        }
+
+        private void emit() {
+            observer.accept(line.toString());
+            line.setLength(0);
+        }
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright 2015 Bekwam, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bekwam.resignator.commands;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.SystemUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Singleton;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks that a directory is a JDK with working keytool, jarsigner, and jar commands and finds JDKs installed in the
+ * usual places
+ *
+ * The three commands are run at the same time on background threads, each with a timeout.  A verdict is remembered
+ * until the JDK path or the mtime of one of the commands changes.
+ *
+ * @author carl_000
+ */
+@Singleton
+public class JDKHomeValidator {
+
+    private final static Logger logger = LoggerFactory.getLogger(JDKHomeValidator.class);
+
+    private final static int PROBE_TIMEOUT_SECS = 15;
+
+    // expected exit code when run without args
+    private final static Map<String, Integer> PROBES = new LinkedHashMap<>();
+    static {
+        PROBES.put("keytool", 0);
+        PROBES.put("jarsigner", 0);
+        PROBES.put("jar", 1);
+    }
+
+    private final static File NULL_FILE = new File(SystemUtils.IS_OS_WINDOWS ? "NUL" : "/dev/null");
+
+    private final ExecutorService executor = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setNameFormat("resignator-jdk-probe-%d").setDaemon(true).build()
+    );
+
+    private final Map<String, Boolean> verdicts = new ConcurrentHashMap<>();
+
+    /**
+     * Runs the JDK's keytool, jarsigner, and jar without args and checks their exit codes
+     *
+     * @param jdkHome candidate JDK_HOME
+     * @return completes with true if all three ran as expected; never completes exceptionally
+     */
+    public CompletableFuture<Boolean> validate(String jdkHome) {
+
+        Preconditions.checkNotNull(jdkHome);
+
+        return CompletableFuture.supplyAsync(() -> stateKey(jdkHome), executor).thenCompose(key -> {
+
+            if( key == null ) {
+                return CompletableFuture.completedFuture(false);  // missing commands
+            }
+
+            Boolean verdict = verdicts.get(key);
+            if( verdict != null ) {
+                if( logger.isDebugEnabled() ) {
+                    logger.debug("[VAL JDKHOME] remembered verdict={} for {}", verdict, jdkHome);
+                }
+                return CompletableFuture.completedFuture(verdict);
+            }
+
+            List<CompletableFuture<Boolean>> probes = new ArrayList<>();
+            for( Map.Entry<String, Integer> probe : PROBES.entrySet() ) {
+                Path cmd = Paths.get(jdkHome, "bin", probe.getKey());
+                probes.add(CompletableFuture.supplyAsync(() -> probe(cmd, probe.getValue()), executor));
+            }
+
+            return CompletableFuture.
+                    allOf(probes.toArray(new CompletableFuture[0])).
+                    thenApply(v -> {
+                        boolean valid = probes.stream().allMatch(CompletableFuture::join);
+                        verdicts.put(key, valid);
+                        return valid;
+                    });
+
+        }).exceptionally(exc -> {
+            logger.error("error validating '" + jdkHome + "'", exc);
+            return false;
+        });
+    }
+
+    /**
+     * Lists JDKs in JAVA_HOME, the running JRE's JDK, /usr/lib/jvm, SDKMAN, and the macOS and Windows install dirs
+     *
+     * Only checks for the commands; nothing is run.
+     *
+     * @return completes with the JDK dirs found in no particular order of preference
+     */
+    public CompletableFuture<List<Path>> discover() {
+        return CompletableFuture.supplyAsync(this::findJDKs, executor);
+    }
+
+    private List<Path> findJDKs() {
+
+        Set<Path> candidates = new LinkedHashSet<>();
+
+        String javaHomeEnv = System.getenv("JAVA_HOME");
+        if( StringUtils.isNotBlank(javaHomeEnv) ) {
+            candidates.add(Paths.get(javaHomeEnv));
+        }
+
+        Path javaHome = Paths.get(System.getProperty("java.home"));
+        candidates.add(javaHome);
+        if( javaHome.getParent() != null ) {
+            candidates.add(javaHome.getParent());  // Java 8 JRE inside a JDK
+        }
+
+        String userHome = System.getProperty("user.home");
+        String sdkmanDir = StringUtils.defaultIfBlank(System.getenv("SDKMAN_DIR"), userHome + File.separator + ".sdkman");
+
+        addChildren(candidates, Paths.get("/usr/lib/jvm"), "");
+        addChildren(candidates, Paths.get(sdkmanDir, "candidates", "java"), "");
+        addChildren(candidates, Paths.get("/Library/Java/JavaVirtualMachines"), "Contents/Home");
+        addChildren(candidates, Paths.get(userHome, "Library", "Java", "JavaVirtualMachines"), "Contents/Home");
+        if( SystemUtils.IS_OS_WINDOWS ) {
+            String programFiles = StringUtils.defaultIfBlank(System.getenv("ProgramFiles"), "C:\\Program Files");
+            addChildren(candidates, Paths.get(programFiles, "Java"), "");
+        }
+
+        Set<Path> jdks = new LinkedHashSet<>();
+        for( Path candidate : candidates ) {
+            if( hasCommands(candidate) ) {
+                try {
+                    jdks.add(candidate.toRealPath());  // symlinks like /usr/lib/jvm/default-java
+                } catch(IOException exc) {
+                    jdks.add(candidate);
+                }
+            }
+        }
+
+        if( logger.isDebugEnabled() ) {
+            logger.debug("[DISCOVER JDKS] found {}", jdks);
+        }
+
+        return new ArrayList<>(jdks);
+    }
+
+    private void addChildren(Set<Path> candidates, Path dir, String subPath) {
+
+        if( !Files.isDirectory(dir) ) {
+            return;
+        }
+
+        try (
+                DirectoryStream<Path> children = Files.newDirectoryStream(dir, Files::isDirectory)
+        ) {
+            for( Path child : children ) {
+                candidates.add(subPath.isEmpty() ? child : child.resolve(subPath));
+            }
+        } catch(IOException exc) {
+            logger.warn("can't list " + dir, exc);
+        }
+    }
+
+    private boolean hasCommands(Path jdkHome) {
+        return PROBES.keySet().stream().allMatch(name -> executable(jdkHome.resolve("bin"), name) != null);
+    }
+
+    private Path executable(Path binDir, String name) {
+        for( String fileName : new String[] { name, name + ".exe" } ) {
+            Path p = binDir.resolve(fileName);
+            if( Files.isRegularFile(p) ) {
+                return p;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Forms a key from the JDK path and the mtimes of the commands; null if a command is missing
+     */
+    private String stateKey(String jdkHome) {
+
+        Path binDir = Paths.get(jdkHome, "bin").toAbsolutePath().normalize();
+
+        StringBuilder key = new StringBuilder(binDir.toString());
+
+        for( String name : PROBES.keySet() ) {
+
+            Path p = executable(binDir, name);
+            if( p == null ) {
+                if( logger.isDebugEnabled() ) {
+                    logger.debug("[VAL JDKHOME] {} not found in {}", name, binDir);
+                }
+                return null;
+            }
+
+            try {
+                key.append('\n').append(Files.getLastModifiedTime(p).toMillis());
+            } catch(IOException exc) {
+                return null;
+            }
+        }
+
+        return key.toString();
+    }
+
+    private boolean probe(Path cmd, int expectedExitValue) {
+
+        if( logger.isDebugEnabled() ) {
+            logger.debug("[VAL JDKHOME] cmd={}", cmd.toString());
+        }
+
+        Process p = null;
+
+        try {
+
+            p = new ProcessBuilder(cmd.toString()).
+                    redirectErrorStream(true).
+                    redirectOutput(ProcessBuilder.Redirect.appendTo(NULL_FILE)).
+                    start();
+
+            if( !p.waitFor(PROBE_TIMEOUT_SECS, TimeUnit.SECONDS) ) {
+                logger.warn("{} didn't exit after {} seconds", cmd, PROBE_TIMEOUT_SECS);
+                return false;
+            }
+
+            if (logger.isDebugEnabled()) {
+                logger.debug("[VAL JDKHOME] cmd={}, retval={}", cmd, p.exitValue());
+            }
+
+            return p.exitValue() == expectedExitValue;
+
+        } catch(IOException exc) {
+            logger.error("error running '" + cmd + "'", exc);
+            return false;
+        } catch(InterruptedException exc) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            if( p != null && p.isAlive() ) {
+                p.destroyForcibly();
+            }
+        }
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright 2015 Bekwam, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bekwam.resignator.commands;
+
+import com.bekwam.resignator.model.KeystoreEntry;
+import com.google.common.base.Preconditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Remembers the entries of each keystore so that opening the JarsignerConfig dialog and validating before each sign
+ * read the store only once
+ *
+ * Entries are keyed by keystore path, mtime, size, and a hash of the store password so that a changed file or a
+ * different password always misses.  The keystore's directory is also watched and entries for a file are dropped as
+ * soon as it changes.  Failures, like a wrong password, aren't cached.
+ *
+ * @author carl_000
+ */
+@Singleton
+public class KeystoreCache {
+
+    private final static Logger logger = LoggerFactory.getLogger(KeystoreCache.class);
+
+    @Inject
+    Provider<KeytoolCommand> keytoolCommandProvider;
+
+    private final Map<Key, List<KeystoreEntry>> entries = new ConcurrentHashMap<>();
+
+    private final Set<Path> watchedDirs = ConcurrentHashMap.newKeySet();
+
+    private WatchService watchService;
+
+    /**
+     * Key for one version of a keystore file opened with one password
+     */
+    private static class Key {
+
+        final Path keystore;
+        final long lastModified;
+        final long size;
+        final String storepassHash;
+
+        Key(Path keystore, long lastModified, long size, String storepassHash) {
+            this.keystore = keystore;
+            this.lastModified = lastModified;
+            this.size = size;
+            this.storepassHash = storepassHash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key that = (Key) o;
+            return lastModified == that.lastModified &&
+                    size == that.size &&
+                    keystore.equals(that.keystore) &&
+                    storepassHash.equals(that.storepassHash);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(keystore, lastModified, size, storepassHash);
+        }
+    }
+
+    public List<String> getAliases(String keytoolExec, String keystore, String storepass) throws CommandExecutionException {
+        return getEntries(keytoolExec, keystore, storepass).
+                stream().
+                map(KeystoreEntry::getAlias).
+                collect(toList());
+    }
+
+    /**
+     * Returns the entries of keystore reading the store only if it hasn't been read with storepass since it last
+     * changed
+     *
+     * @see KeytoolCommand#findKeystoreEntries(String, String, String)
+     */
+    public List<KeystoreEntry> getEntries(String keytoolExec, String keystore, String storepass) throws CommandExecutionException {
+
+        Preconditions.checkNotNull(keytoolExec);
+        Preconditions.checkNotNull(keystore);
+        Preconditions.checkNotNull(storepass);
+
+        Path path = Paths.get(keystore).toAbsolutePath().normalize();
+
+        Key key;
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            key = new Key(path, attrs.lastModifiedTime().toMillis(), attrs.size(), hash(storepass));
+        } catch(IOException exc) {
+            // let KeytoolCommand report the missing file
+            return keytoolCommandProvider.get().findKeystoreEntries(keytoolExec, keystore, storepass);
+        }
+
+        List<KeystoreEntry> cached = entries.get(key);
+        if( cached != null ) {
+            if( logger.isDebugEnabled() ) {
+                logger.debug("[KEYSTORE CACHE] hit for {}", path);
+            }
+            return cached;
+        }
+
+        List<KeystoreEntry> found = Collections.unmodifiableList(
+                keytoolCommandProvider.get().findKeystoreEntries(keytoolExec, keystore, storepass)
+        );
+
+        entries.keySet().removeIf(k -> k.keystore.equals(path) && k.storepassHash.equals(key.storepassHash));
+        entries.put(key, found);
+
+        watch(path.getParent());
+
+        return found;
+    }
+
+    /**
+     * Drops all entries
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    private void invalidate(Path keystore) {
+        if( entries.keySet().removeIf(k -> k.keystore.equals(keystore)) ) {
+            if( logger.isDebugEnabled() ) {
+                logger.debug("[KEYSTORE CACHE] {} changed; entries dropped", keystore);
+            }
+        }
+    }
+
+    private void watch(Path dir) {
+
+        if( dir == null || watchedDirs.contains(dir) ) {
+            return;
+        }
+
+        try {
+
+            synchronized (this) {
+                if( watchService == null ) {
+                    watchService = FileSystems.getDefault().newWatchService();
+                    Thread t = new Thread(this::processEvents, "resignator-keystore-watch");
+                    t.setDaemon(true);
+                    t.start();
+                }
+            }
+
+            dir.register(
+                    watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE
+            );
+            watchedDirs.add(dir);
+
+        } catch(IOException exc) {
+            // the mtime and size in the key still catch most changes
+            logger.warn("can't watch keystore dir " + dir, exc);
+        }
+    }
+
+    private void processEvents() {
+
+        try {
+
+            while( true ) {
+
+                WatchKey watchKey = watchService.take();
+                Path dir = (Path)watchKey.watchable();
+
+                for( WatchEvent<?> event : watchKey.pollEvents() ) {
+                    if( event.kind() == StandardWatchEventKinds.OVERFLOW ) {
+                        entries.keySet().removeIf(k -> dir.equals(k.keystore.getParent()));
+                    } else {
+                        invalidate(dir.resolve((Path)event.context()));
+                    }
+                }
+
+                if( !watchKey.reset() ) {
+                    watchedDirs.remove(dir);
+                    entries.keySet().removeIf(k -> dir.equals(k.keystore.getParent()));
+                }
+            }
+
+        } catch(InterruptedException | ClosedWatchServiceException exc) {
+            if( logger.isDebugEnabled() ) {
+                logger.debug("[KEYSTORE CACHE] watcher stopped");
+            }
+        }
+    }
+
+    private String hash(String storepass) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(storepass.getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch(NoSuchAlgorithmException exc) {
+            throw new IllegalStateException(exc);  // required of every JRE
+        }
+    }
+}
@@ -16,25 +16,33 @@
 package com.bekwam.resignator.commands;
 
 import com.bekwam.resignator.model.KeystoreEntry;
+import com.bekwam.resignator.util.KeyStoreUtils;
 import com.google.common.base.Preconditions;
 import org.apache.commons.collections.CollectionUtils;
-import org.apache.commons.lang3.RandomStringUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.text.StrTokenizer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.text.DateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
 
 import static java.util.stream.Collectors.toList;
 
 /**
- * Wraps up an external call to keytool.exe
+ * Lists keystore entries, reading the store in the app's JVM or, failing that, with keytool.exe
  *
- * keytool.exe doesn't return anything on stderr
+ * Only keytool's stdout is parsed; newer keytools write warnings, like one about a JKS store, to stderr
  *
  * @author carl_000
  */
@@ -44,9 +52,6 @@ public class KeytoolCommand {
 
     private enum KeystoreListParseStateType { START, HEADER, ENTRY, FP, END, ERROR_END };
 
-    private final static String OUTPUTFILE_PREFIX = "keytoolCommand-";
-    private final static String OUTPUTFILE_SUFFIX = ".txt";
-
     private final int TIMEOUT_SECS = 5;
 
     private final static String newLine = System.getProperty("line.separator");
@@ -62,88 +67,137 @@ public class KeytoolCommand {
         return aliases;
     }
 
+    /**
+     * Lists the entries of a keystore with the KeyStore API
+     *
+     * keytool is only run for a store the app's JRE can't open, say a type added in a later JDK.
+     *
+     * @param keytoolExec keytool of the configured JDK
+     * @param keystore path to the store
+     * @param storepass password of the store
+     * @return entries in the order the store gives them
+     * @throws CommandExecutionException if the store can't be read or the password is wrong
+     */
     public List<KeystoreEntry> findKeystoreEntries(String keytoolExec, String keystore, String storepass) throws CommandExecutionException {
 
-        List<KeystoreEntry> entries = new ArrayList<>();
-
         Preconditions.checkNotNull(keytoolExec);
         Preconditions.checkNotNull(keystore);
         Preconditions.checkNotNull(storepass);
 
-        File outputFile = null;
+        Path keystorePath = Paths.get(keystore);
 
         try {
 
-            String[] cmdAndArgs = {
-                    keytoolExec,
-                    "-keystore", keystore,
-                    "-storepass", storepass,
-                    "-list"
-            };
+            return listEntries(keystorePath, storepass);
+
+        } catch(IOException exc) {
+
+            if( KeyStoreUtils.isWrongPassword(exc) || !Files.isRegularFile(keystorePath) ) {
 
-            File resignatorDir = new File(System.getProperty("user.home"), ".resignator");
+                if( logger.isErrorEnabled() ) {
+                    logger.error("error reading keystore " + keystore, exc);
+                }
 
-            String outputFileName = OUTPUTFILE_PREFIX +
-                    StringUtils.lowerCase(RandomStringUtils.randomAlphabetic(12)) +
-                    OUTPUTFILE_SUFFIX;
+                throw new CommandExecutionException("Error reading keystore '" + keystore + "'" + newLine + exc.getMessage());
+            }
 
-            outputFile = new File(resignatorDir, outputFileName);
+            if( logger.isWarnEnabled() ) {
+                logger.warn("can't open keystore {} ({}); running keytool", keystore, exc.getMessage());
+            }
 
-            ProcessBuilder pb = new ProcessBuilder(cmdAndArgs);
-            pb.redirectErrorStream(false);
-            pb.redirectOutput(outputFile);
+            return runKeytool(keytoolExec, keystore, storepass);
 
-            Process p = pb.start();
+        } catch(GeneralSecurityException exc) {
 
-            boolean exitted = p.waitFor(TIMEOUT_SECS, TimeUnit.SECONDS);
+            if( logger.isErrorEnabled() ) {
+                logger.error("error reading keystore " + keystore, exc);
+            }
 
-            if( exitted ) {
+            throw new CommandExecutionException("Error reading keystore '" + keystore + "'" + newLine + exc.getMessage());
+        }
+    }
 
-                if( p.exitValue() == 0 ) {
+    /**
+     * Loads the store once and forms an entry for each alias
+     *
+     * The creation date is formatted for the default locale like keytool's.  The fingerprint is the SHA-256 of the
+     * entry's certificate; secret key entries have none.
+     */
+    public List<KeystoreEntry> listEntries(Path keystore, String storepass) throws IOException, GeneralSecurityException {
 
-                    BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(outputFile)));
-                    entries.addAll(parseKeystoreEntries(br));
-                    br.close();
+        KeyStore ks = KeyStoreUtils.load(keystore, storepass.toCharArray());
 
-                } else {
+        DateFormat dateFormat = DateFormat.getDateInstance(DateFormat.MEDIUM);
 
-                    String firstLine = "";
-                    if( outputFile != null && outputFile.exists() ) {
-                        BufferedReader br = new BufferedReader(new FileReader(outputFile));
-                        firstLine = br.readLine();
-                        br.close();
-                    }
+        List<KeystoreEntry> entries = new ArrayList<>();
 
-                    if( logger.isErrorEnabled() ) {
-                        logger.error("error running exec={}; firstLine={}",
-                                keytoolExec,
-                                firstLine);
-                    }
+        for( String alias : Collections.list(ks.aliases()) ) {
 
-                    throw new CommandExecutionException( "Command '" + keytoolExec + "' failed to run" + newLine + firstLine );
-                }
+            Date created = ks.getCreationDate(alias);
+            Certificate cert = ks.getCertificate(alias);
 
+            String entryType;
+            if( ks.isCertificateEntry(alias) ) {
+                entryType = "trustedCertEntry";
+            } else if( cert != null ) {
+                entryType = "PrivateKeyEntry";
             } else {
+                entryType = "SecretKeyEntry";
+            }
 
-                if( logger.isErrorEnabled() ) {
-                    logger.error("command '" + keytoolExec + "' timed out");
-                }
+            entries.add(new KeystoreEntry(
+                    alias,
+                    created != null ? dateFormat.format(created) : "",
+                    entryType,
+                    cert != null ? KeyStoreUtils.fingerprint(cert) : ""
+            ));
+        }
+
+        return entries;
+    }
+
+    private List<KeystoreEntry> runKeytool(String keytoolExec, String keystore, String storepass) throws CommandExecutionException {
 
-                throw new CommandExecutionException("Command '" + keytoolExec + "' timed out");
+        List<KeystoreEntry> entries = new ArrayList<>();
+
+        String[] cmdAndArgs = {
+                keytoolExec,
+                "-keystore", keystore,
+                "-storepass", storepass,
+                "-list"
+        };
+
+        List<String> output = Collections.synchronizedList(new ArrayList<>());
+        List<String> stdout = Collections.synchronizedList(new ArrayList<>());  // parsed; stderr can hold warnings
+
+        try {
+
+            new CommandExecutor(TIMEOUT_SECS).exec(cmdAndArgs, output::add, stdout::add);
+
+        } catch(CommandExecutionException exc) {
+
+            String firstLine = output.isEmpty() ? "" : output.get(0);
+
+            if( logger.isErrorEnabled() ) {
+                logger.error("error running exec={}; firstLine={}",
+                        keytoolExec,
+                        firstLine);
             }
 
-        } catch(Exception exc) {  // includes interrupted exception
+            throw new CommandExecutionException( "Command '" + keytoolExec + "' failed to run" + newLine + firstLine );
+        }
+
+        try (
+                BufferedReader br = new BufferedReader(new StringReader(String.join(newLine, stdout)))
+        ) {
+            entries.addAll(parseKeystoreEntries(br));
+        } catch(IOException exc) {
 
             if( logger.isErrorEnabled() ) {
                 logger.error("error running keytool", exc);
             }
 
             throw new CommandExecutionException("Error running keytool command" + newLine + exc.getMessage() );
-
-        } finally {
-            if( outputFile != null ) {
-                outputFile.delete();
-            }
         }
 
         return entries;
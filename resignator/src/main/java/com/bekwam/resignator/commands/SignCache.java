@@ -0,0 +1,373 @@
+/*
+ * Copyright 2015 Bekwam, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bekwam.resignator.commands;
+
+import com.bekwam.resignator.model.JarsignerConfig;
+import com.bekwam.resignator.util.JarUtils;
+import com.google.common.base.Preconditions;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Persistent cache of signed JARs under ~/.resignator/signcache
+ *
+ * A signed JAR is stored under a key formed from the SHA-256 of the source JAR, the SHA-256 of the keystore file,
+ * the alias, the signer, and whether existing signatures were replaced.  When the key is found again, the stored JAR
+ * is copied to the target or, if the target already has the same contents, nothing is done.
+ *
+ * File hashes are remembered by path, size, and last modified time in hashes.properties so that unchanged files
+ * aren't read again on later runs.  The hash of a stored JAR is kept next to it in a .sha256 file so a hit doesn't
+ * read the stored JAR unless the target has to be replaced.
+ *
+ * Off unless -Dresignator.signCache=true.  The least recently used JARs are removed once the cache holds more than
+ * MAX_ENTRIES JARs or more than maxBytes in all.  Last use is the last modified time of the .sha256 file.
+ *
+ * @author carl_000
+ */
+@Singleton
+public class SignCache {
+
+    private final static Logger logger = LoggerFactory.getLogger(SignCache.class);
+
+    private final static String CACHE_DIR = "signcache";
+    private final static String HASHES_FILE = "hashes.properties";
+    private final static String JAR_SUFFIX = ".jar";
+    private final static String HASH_SUFFIX = ".sha256";
+    private final static String KEY_VERSION = "2";
+    private final static int MAX_ENTRIES = 1000;
+
+    @Inject
+    @Named("ConfigDir")
+    String configDir;
+
+    @Inject
+    @Named("SignCacheEnabled")
+    Boolean enabled = false;
+
+    @Inject
+    @Named("SignCacheMaxBytes")
+    Long maxBytes = 256L * 1024 * 1024;
+
+    private Path cacheDir;
+
+    private final Map<String, String> hashes = new ConcurrentHashMap<>();  // path -> size:lastModified:sha256
+    private volatile boolean hashesDirty = false;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Forms the cache key for signing sourceJar with the settings in jc
+     *
+     * @return key or empty if the cache is disabled or can't be used
+     */
+    public Optional<String> key(Path sourceJar, JarsignerConfig jc, boolean replaceSignatures) {
+
+        Preconditions.checkNotNull(sourceJar);
+        Preconditions.checkNotNull(jc);
+
+        if( !enabled ) {
+            return Optional.empty();
+        }
+
+        try {
+
+            init();
+
+            String material = KEY_VERSION + "\n" +
+                    hash(sourceJar) + "\n" +
+                    hash(Paths.get(jc.getKeystore())) + "\n" +
+                    jc.getAlias() + "\n" +
+                    jc.getSignerType() + "\n" +
+                    StringUtils.trimToEmpty(jc.getTsaUrl()) + "\n" +
+                    replaceSignatures;
+
+            return Optional.of(hex(sha256().digest(material.getBytes(StandardCharsets.UTF_8))));
+
+        } catch(IOException | NoSuchAlgorithmException exc) {
+            logger.warn("can't form sign cache key for " + sourceJar + "; signing without the cache", exc);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Puts the cached JAR for key at targetJar
+     *
+     * @return true if targetJar now holds the cached JAR; false on a miss
+     */
+    public boolean restore(String key, Path targetJar) {
+
+        Path cached = cacheDir.resolve(key + JAR_SUFFIX);
+        Path hashFile = cacheDir.resolve(key + HASH_SUFFIX);
+
+        if( !Files.exists(cached) || !Files.exists(hashFile) ) {
+            return false;
+        }
+
+        try {
+
+            String cachedHash = new String(Files.readAllBytes(hashFile), StandardCharsets.US_ASCII).trim();
+
+            if( Files.exists(targetJar) && hash(targetJar).equals(cachedHash) ) {
+                if( logger.isDebugEnabled() ) {
+                    logger.debug("[SIGN CACHE] target {} is up to date", targetJar);
+                }
+            } else {
+                Path tempFile = JarUtils.createSiblingTempFile(targetJar);
+                try {
+                    Files.copy(cached, tempFile, StandardCopyOption.REPLACE_EXISTING);
+                    Files.move(tempFile, targetJar, StandardCopyOption.REPLACE_EXISTING);
+                } finally {
+                    Files.deleteIfExists(tempFile);
+                }
+                remember(targetJar, cachedHash);
+            }
+
+            Files.setLastModifiedTime(hashFile, FileTime.fromMillis(System.currentTimeMillis()));  // for eviction
+
+            return true;
+
+        } catch(IOException | NoSuchAlgorithmException exc) {
+            logger.warn("can't restore " + targetJar + " from sign cache", exc);
+            return false;
+        }
+    }
+
+    /**
+     * Stores a copy of a newly signed JAR under key
+     */
+    public void store(String key, Path signedJar) {
+
+        try {
+
+            if( Files.size(signedJar) > maxBytes ) {
+                if( logger.isDebugEnabled() ) {
+                    logger.debug("[SIGN CACHE] {} is larger than the cache; not stored", signedJar);
+                }
+                return;
+            }
+
+            MessageDigest md = sha256();
+
+            Path tempFile = Files.createTempFile(cacheDir, key, ".tmp");
+            try {
+                try (
+                        InputStream is = new DigestInputStream(Files.newInputStream(signedJar), md)
+                ) {
+                    Files.copy(is, tempFile, StandardCopyOption.REPLACE_EXISTING);
+                }
+                Files.move(tempFile, cacheDir.resolve(key + JAR_SUFFIX), StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+
+            String h = hex(md.digest());
+
+            Path tempHashFile = Files.createTempFile(cacheDir, key, ".tmp");
+            try {
+                Files.write(tempHashFile, h.getBytes(StandardCharsets.US_ASCII));
+                Files.move(tempHashFile, cacheDir.resolve(key + HASH_SUFFIX), StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tempHashFile);
+            }
+
+            remember(signedJar, h);  // the target; compared on the next hit
+
+            evict();
+
+        } catch(IOException | NoSuchAlgorithmException exc) {
+            logger.warn("can't store " + signedJar + " in sign cache", exc);
+        }
+    }
+
+    /**
+     * Saves the remembered file hashes; called after a batch
+     */
+    public void flush() {
+
+        if( !hashesDirty || cacheDir == null ) {
+            return;
+        }
+
+        hashes.keySet().removeIf(name -> !Files.exists(Paths.get(name)));
+
+        Properties props = new Properties();
+        props.putAll(hashes);
+
+        Path hashesFile = cacheDir.resolve(HASHES_FILE);
+
+        try {
+            Path tempFile = Files.createTempFile(cacheDir, HASHES_FILE, ".tmp");
+            try (
+                    OutputStream os = Files.newOutputStream(tempFile)
+            ) {
+                props.store(os, "Resignator sign cache file hashes");
+            }
+            Files.move(tempFile, hashesFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            hashesDirty = false;
+        } catch(IOException exc) {
+            logger.warn("can't save " + hashesFile, exc);
+        }
+    }
+
+    private synchronized void init() throws IOException {
+
+        if( cacheDir != null ) {
+            return;
+        }
+
+        Path dir = Paths.get(System.getProperty("user.home"), configDir, CACHE_DIR);
+        Files.createDirectories(dir);
+
+        Path hashesFile = dir.resolve(HASHES_FILE);
+        if( Files.exists(hashesFile) ) {
+            Properties props = new Properties();
+            try (
+                    InputStream is = Files.newInputStream(hashesFile)
+            ) {
+                props.load(is);
+            }
+            for( String name : props.stringPropertyNames() ) {
+                hashes.put(name, props.getProperty(name));
+            }
+        }
+
+        cacheDir = dir;
+    }
+
+    /**
+     * SHA-256 of a file's contents; read only if the file changed since it was last hashed
+     */
+    private String hash(Path file) throws IOException, NoSuchAlgorithmException {
+
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        String stamp = attrs.size() + ":" + attrs.lastModifiedTime().toMillis() + ":";
+
+        String pathKey = file.toAbsolutePath().normalize().toString();
+
+        String remembered = hashes.get(pathKey);
+        if( remembered != null && remembered.startsWith(stamp) ) {
+            return remembered.substring(stamp.length());
+        }
+
+        MessageDigest md = sha256();
+        byte[] buf = new byte[64 * 1024];
+        try (
+                InputStream is = Files.newInputStream(file)
+        ) {
+            int n;
+            while( (n = is.read(buf)) != -1 ) {
+                md.update(buf, 0, n);
+            }
+        }
+
+        String h = hex(md.digest());
+
+        hashes.put(pathKey, stamp + h);
+        hashesDirty = true;
+
+        return h;
+    }
+
+    private void remember(Path file, String h) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        hashes.put(
+                file.toAbsolutePath().normalize().toString(),
+                attrs.size() + ":" + attrs.lastModifiedTime().toMillis() + ":" + h
+        );
+        hashesDirty = true;
+    }
+
+    /**
+     * Removes the least recently used JARs until there are at most MAX_ENTRIES taking at most maxBytes
+     */
+    private synchronized void evict() throws IOException {
+
+        List<Path> jars;
+        try (
+                Stream<Path> s = Files.list(cacheDir)
+        ) {
+            jars = s.filter(p -> p.getFileName().toString().endsWith(JAR_SUFFIX)).collect(Collectors.toList());
+        }
+
+        Map<Path, Long> lastUsed = new HashMap<>();
+        Map<Path, Long> sizes = new HashMap<>();
+        long totalBytes = 0;
+        for( Path p : jars ) {
+            Path hashFile = hashFile(p);
+            lastUsed.put(p, Files.getLastModifiedTime(Files.exists(hashFile) ? hashFile : p).toMillis());
+            sizes.put(p, Files.size(p));
+            totalBytes += sizes.get(p);
+        }
+
+        if( jars.size() <= MAX_ENTRIES && totalBytes <= maxBytes ) {
+            return;
+        }
+
+        jars.sort(Comparator.comparing(lastUsed::get));
+
+        int count = jars.size();
+        for( Path p : jars ) {
+            if( count <= MAX_ENTRIES && totalBytes <= maxBytes ) {
+                break;
+            }
+            if( logger.isDebugEnabled() ) {
+                logger.debug("[SIGN CACHE] evicting {}", p.getFileName());
+            }
+            Files.deleteIfExists(p);
+            Files.deleteIfExists(hashFile(p));
+            totalBytes -= sizes.get(p);
+            count--;
+        }
+    }
+
+    private Path hashFile(Path cachedJar) {
+        String name = cachedJar.getFileName().toString();
+        return cachedJar.resolveSibling(StringUtils.removeEnd(name, JAR_SUFFIX) + HASH_SUFFIX);
+    }
+
+    private MessageDigest sha256() throws NoSuchAlgorithmException {
+        return MessageDigest.getInstance("SHA-256");
+    }
+
+    private String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for( byte b : bytes ) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+}
@@ -16,16 +16,22 @@
 package com.bekwam.resignator.commands;
 
 import com.bekwam.resignator.ActiveConfiguration;
+import com.bekwam.resignator.model.JarsignerConfig;
+import com.bekwam.resignator.model.SignerType;
 import com.google.common.base.Preconditions;
 import org.apache.commons.lang3.StringUtils;
 
 import javax.inject.Inject;
+import javax.inject.Provider;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.function.Consumer;
 
 /**
- * Signs a JAR file using the jarsigner command
+ * Signs a JAR file using the jarsigner command or the BuiltinSigner
  *
  * @author carl_000
  */
@@ -34,12 +40,145 @@ public class SignCommand {
     @Inject
     ActiveConfiguration activeConfiguration;
 
+    @Inject
+    BuiltinSigner builtinSigner;
+
+    @Inject
+    Provider<UnsignCommand> unsignCommandProvider;
+
     public void signJAR(Path jarFilePath,
                         Path keystore,
                         String storepass,
                         String alias,
                         String keypass,
                         Consumer<String> observer) throws CommandExecutionException {
+        signJAR(jarFilePath, keystore, storepass, alias, keypass, SignerType.JARSIGNER, observer);
+    }
+
+    public void signJAR(Path jarFilePath,
+                        Path keystore,
+                        String storepass,
+                        String alias,
+                        String keypass,
+                        SignerType signerType,
+                        Consumer<String> observer) throws CommandExecutionException {
+        signJAR(jarFilePath, keystore, storepass, alias, keypass, signerType, JarsignerConfig.DEFAULT_TSA_URL, observer);
+    }
+
+    /**
+     * Signs a JAR in place
+     *
+     * @param tsaUrl timestamp authority; blank to sign without a timestamp
+     */
+    public void signJAR(Path jarFilePath,
+                        Path keystore,
+                        String storepass,
+                        String alias,
+                        String keypass,
+                        SignerType signerType,
+                        String tsaUrl,
+                        Consumer<String> observer) throws CommandExecutionException {
+
+        validateArgs(jarFilePath, keystore, storepass, alias, keypass);
+
+        if( signerType == SignerType.BUILTIN ) {
+            observer.accept("Running builtin signer on '" + jarFilePath.toString() + "'");
+            builtinSigner.signJAR(jarFilePath, jarFilePath, keystore, storepass, alias, keypass, tsaUrl, false, observer);
+            return;
+        }
+
+        Preconditions.checkNotNull(activeConfiguration.getJarsignerCommand() );
+
+        observer.accept("Running jarsigner command on '" + jarFilePath.toString() + "'");
+
+        List<String> cmdAndArgs = new ArrayList<>();
+        cmdAndArgs.add(activeConfiguration.getJarsignerCommand().toString());
+        cmdAndArgs.addAll(Arrays.asList("-keystore", keystore.toString()));
+        cmdAndArgs.addAll(Arrays.asList("-storepass", storepass));
+        cmdAndArgs.addAll(Arrays.asList("-keypass", keypass));
+        if( StringUtils.isNotBlank(tsaUrl) ) {
+            cmdAndArgs.addAll(Arrays.asList("-tsa", tsaUrl));
+        }
+        cmdAndArgs.add(jarFilePath.toString());
+        cmdAndArgs.add(alias);
+
+        CommandExecutor cmd = new CommandExecutor();
+        cmd.exec(cmdAndArgs.toArray(new String[0]), observer);
+
+        observer.accept( "Finished" );
+    }
+
+    /**
+     * Strips any existing signatures from sourceJarFile and signs the result as targetJarFile
+     *
+     * The builtin signer does this in one operation that writes the JAR once.  jarsigner can only sign in place so
+     * for it, the JAR is unsigned to the target and then signed there.
+     */
+    public void unsignAndSignJAR(Path sourceJarFile,
+                                 Path targetJarFile,
+                                 Path keystore,
+                                 String storepass,
+                                 String alias,
+                                 String keypass,
+                                 SignerType signerType,
+                                 String tsaUrl,
+                                 Consumer<String> observer) throws CommandExecutionException {
+
+        validateArgs(sourceJarFile, keystore, storepass, alias, keypass);
+
+        if( targetJarFile == null ) {
+            throw new CommandExecutionException("targetJarFile is required");
+        }
+
+        if( signerType == SignerType.BUILTIN ) {
+            observer.accept("Running builtin signer on '" + sourceJarFile.toString() + "' replacing signatures");
+            builtinSigner.signJAR(sourceJarFile, targetJarFile, keystore, storepass, alias, keypass, tsaUrl, true, observer);
+            return;
+        }
+
+        unsignCommandProvider.get().unsignJAR(sourceJarFile, targetJarFile, observer);
+
+        signJAR(targetJarFile, keystore, storepass, alias, keypass, signerType, tsaUrl, observer);
+    }
+
+    /**
+     * Signs a JAR in place with the builtin signer using a key loaded once for the batch
+     */
+    public void signJAR(Path jarFilePath,
+                        SigningSession session,
+                        String tsaUrl,
+                        Consumer<String> observer) throws CommandExecutionException {
+
+        validateJarFile(jarFilePath);
+
+        observer.accept("Running builtin signer on '" + jarFilePath.toString() + "'");
+        builtinSigner.signJAR(jarFilePath, jarFilePath, session, tsaUrl, false, observer);
+    }
+
+    /**
+     * Unsigns and signs in one operation with the builtin signer using a key loaded once for the batch
+     */
+    public void unsignAndSignJAR(Path sourceJarFile,
+                                 Path targetJarFile,
+                                 SigningSession session,
+                                 String tsaUrl,
+                                 Consumer<String> observer) throws CommandExecutionException {
+
+        validateJarFile(sourceJarFile);
+
+        if( targetJarFile == null ) {
+            throw new CommandExecutionException("targetJarFile is required");
+        }
+
+        observer.accept("Running builtin signer on '" + sourceJarFile.toString() + "' replacing signatures");
+        builtinSigner.signJAR(sourceJarFile, targetJarFile, session, tsaUrl, true, observer);
+    }
+
+    private void validateArgs(Path jarFilePath,
+                              Path keystore,
+                              String storepass,
+                              String alias,
+                              String keypass) throws CommandExecutionException {
 
         if( StringUtils.isEmpty(storepass) ) {
             throw new CommandExecutionException("storepass is required");
@@ -57,6 +196,11 @@ public class SignCommand {
             throw new CommandExecutionException("keystore is required");
         }
 
+        validateJarFile(jarFilePath);
+    }
+
+    private void validateJarFile(Path jarFilePath) throws CommandExecutionException {
+
         if( jarFilePath == null  ) {
             throw new CommandExecutionException("jarFilePath is required");
         }
@@ -64,25 +208,6 @@ public class SignCommand {
         if( !jarFilePath.toFile().exists()  ) {
             throw new CommandExecutionException(String.format("jar file %s not found", jarFilePath.toString()));
         }
-
-        Preconditions.checkNotNull(activeConfiguration.getJarsignerCommand() );
-
-        observer.accept("Running jarsigner command on '" + jarFilePath.toString() + "'");
-
-        String[] cmdAndArgs = {
-                activeConfiguration.getJarsignerCommand().toString(),
-                "-keystore", keystore.toString(),
-                "-storepass", storepass,
-                "-keypass", keypass,
-                "-tsa", "http://timestamp.digicert.com",
-                jarFilePath.toString(),
-                alias
-        };
-
-        CommandExecutor cmd = new CommandExecutor();
-        cmd.exec(cmdAndArgs);
-
-        observer.accept( "Finished" );
     }
 
     public static void main(String[] args) throws Exception {
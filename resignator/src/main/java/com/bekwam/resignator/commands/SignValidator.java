@@ -0,0 +1,178 @@
+/*
+ * Copyright 2015 Bekwam, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bekwam.resignator.commands;
+
+import com.bekwam.resignator.model.KeystoreEntry;
+import com.bekwam.resignator.model.SignValidationResult;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Checks the keystore settings of a profile off the JavaFX thread before signing
+ *
+ * A check that passed is remembered for the same keystore file (path, mtime, size), store password, and alias so
+ * repeated Sign clicks complete at once.  Checks in progress are shared.  Failed checks always run again since the
+ * user is expected to fix something.
+ *
+ * @author carl_000
+ */
+@Singleton
+public class SignValidator {
+
+    private final static Logger logger = LoggerFactory.getLogger(SignValidator.class);
+
+    private final static int MAX_REMEMBERED = 64;
+
+    @Inject
+    KeystoreCache keystoreCache;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setNameFormat("resignator-validate-%d").setDaemon(true).build()
+    );
+
+    private final Map<String, CompletableFuture<SignValidationResult>> results = new ConcurrentHashMap<>();
+
+    /**
+     * Opens the keystore and looks for the alias
+     *
+     * The returned future completes on a background thread; it never completes exceptionally.
+     *
+     * @param keytoolExec keytool of the configured JDK; used if the app's JRE can't open the store
+     * @param keystore path to the store
+     * @param storepass password of the store
+     * @param alias key to sign with
+     * @return VALID or the problem found
+     */
+    public CompletableFuture<SignValidationResult> validateKeystore(String keytoolExec,
+                                                                    String keystore,
+                                                                    String storepass,
+                                                                    String alias) {
+
+        Preconditions.checkNotNull(keytoolExec);
+        Preconditions.checkNotNull(keystore);
+        Preconditions.checkNotNull(storepass);
+        Preconditions.checkNotNull(alias);
+
+        return CompletableFuture.
+                supplyAsync(() -> stateKey(keystore, storepass, alias), executor).
+                thenCompose(key -> {
+
+                    if( results.size() > MAX_REMEMBERED ) {
+                        results.clear();
+                    }
+
+                    CompletableFuture<SignValidationResult> f = results.computeIfAbsent(
+                            key,
+                            k -> CompletableFuture.supplyAsync(
+                                    () -> check(keytoolExec, keystore, storepass, alias),
+                                    executor
+                            )
+                    );
+
+                    return f.thenApply(r -> {
+                        if( !r.isValid() ) {
+                            results.remove(key, f);
+                        }
+                        return r;
+                    });
+                }).
+                exceptionally(exc -> SignValidationResult.of(
+                        SignValidationResult.Field.KEYSTORE,
+                        StringUtils.defaultIfBlank(exc.getMessage(), exc.getClass().getSimpleName())
+                ));
+    }
+
+    private SignValidationResult check(String keytoolExec, String keystore, String storepass, String alias) {
+
+        if( logger.isDebugEnabled() ) {
+            logger.debug("[VALIDATE] checking keystore={}, alias={}", keystore, alias);
+        }
+
+        try {
+
+            List<KeystoreEntry> entries = keystoreCache.getEntries(keytoolExec, keystore, storepass);
+
+            if( logger.isDebugEnabled() ) {
+                logger.debug("[VALIDATE] # entries={}", entries.size());
+            }
+
+            // JKS keeps aliases in lowercase
+            boolean found = entries.
+                    stream().
+                    anyMatch(e -> StringUtils.equalsIgnoreCase(e.getAlias(), alias));
+
+            if( !found ) {
+                return SignValidationResult.of(
+                        SignValidationResult.Field.ALIAS,
+                        "Alias '" + alias + "' is not in keystore '" + keystore + "'"
+                );
+            }
+
+            return SignValidationResult.VALID;
+
+        } catch(CommandExecutionException exc) {
+            logger.error( "error accessing keystore", exc );
+            return SignValidationResult.of(SignValidationResult.Field.KEYSTORE, exc.getMessage());
+        } catch(RuntimeException exc) {
+            logger.error( "error accessing keystore", exc );
+            return SignValidationResult.of(
+                    SignValidationResult.Field.KEYSTORE,
+                    StringUtils.defaultIfBlank(exc.getMessage(), exc.getClass().getSimpleName())
+            );
+        }
+    }
+
+    private String stateKey(String keystore, String storepass, String alias) {
+
+        Path path = Paths.get(keystore).toAbsolutePath().normalize();
+
+        String fileState;
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            fileState = attrs.lastModifiedTime().toMillis() + ":" + attrs.size();
+        } catch(IOException exc) {
+            fileState = "missing";  // check() reports it
+        }
+
+        try {
+            byte[] storepassHash = MessageDigest.getInstance("SHA-256").digest(storepass.getBytes(StandardCharsets.UTF_8));
+            return path + "\n" + fileState + "\n" + Base64.getEncoder().encodeToString(storepassHash) + "\n" + alias;
+        } catch(NoSuchAlgorithmException exc) {
+            throw new IllegalStateException(exc);  // required of every JRE
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2015 Bekwam, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bekwam.resignator.commands;
+
+import com.bekwam.resignator.model.JarsignerConfig;
+import com.bekwam.resignator.util.KeyStoreUtils;
+import com.google.common.base.Preconditions;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.UnrecoverableKeyException;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The private key and certificate chain of an alias, read from the keystore once and shared by every JAR signed in
+ * a batch
+ *
+ * Immutable and safe to share between signing threads; each signature creates its own Signature object.
+ *
+ * @author carl_000
+ */
+public class SigningSession {
+
+    private final static Logger logger = LoggerFactory.getLogger(SigningSession.class);
+
+    private final Path keystore;
+    private final String alias;
+    private final PrivateKey privateKey;
+    private final List<Certificate> certificateChain;
+
+    private SigningSession(Path keystore, String alias, PrivateKey privateKey, Certificate[] chain) {
+        this.keystore = keystore;
+        this.alias = alias;
+        this.privateKey = privateKey;
+        this.certificateChain = Collections.unmodifiableList(Arrays.asList(chain));
+    }
+
+    public static SigningSession open(JarsignerConfig jc) throws CommandExecutionException {
+
+        Preconditions.checkNotNull(jc);
+
+        if( StringUtils.isEmpty(jc.getKeystore()) ) {
+            throw new CommandExecutionException("keystore is required");
+        }
+
+        return open(Paths.get(jc.getKeystore()), jc.getStorepass(), jc.getAlias(), jc.getKeypass());
+    }
+
+    public static SigningSession open(Path keystore, String storepass, String alias, String keypass) throws CommandExecutionException {
+
+        if( StringUtils.isEmpty(storepass) ) {
+            throw new CommandExecutionException("storepass is required");
+        }
+
+        if( StringUtils.isEmpty(keypass) ) {
+            throw new CommandExecutionException("keypass is required");
+        }
+
+        if( StringUtils.isEmpty(alias) ) {
+            throw new CommandExecutionException("alias is required");
+        }
+
+        if( keystore == null ) {
+            throw new CommandExecutionException("keystore is required");
+        }
+
+        if( logger.isDebugEnabled() ) {
+            logger.debug("[SESSION] opening keystore={}, alias={}", keystore, alias);
+        }
+
+        KeyStore ks;
+        try {
+            ks = KeyStoreUtils.load(keystore, storepass.toCharArray());
+        } catch(IOException exc) {
+            String msg = KeyStoreUtils.isWrongPassword(exc) ?
+                    String.format("storepass for keystore %s is incorrect", keystore) :
+                    String.format("can't open keystore %s", keystore);
+            logger.error( msg, exc );
+            throw new CommandExecutionException( msg + System.getProperty("line.separator") + exc.getMessage() );
+        }
+
+        try {
+
+            if( !ks.isKeyEntry(alias) ) {
+                throw new CommandExecutionException(String.format("alias %s not found in keystore %s", alias, keystore));
+            }
+
+            Key key = ks.getKey(alias, keypass.toCharArray());
+            Certificate[] chain = ks.getCertificateChain(alias);
+
+            if( !(key instanceof PrivateKey) || chain == null || chain.length == 0 ) {
+                throw new CommandExecutionException(String.format("alias %s is not a private key with a certificate", alias));
+            }
+
+            return new SigningSession(keystore, alias, (PrivateKey)key, chain);
+
+        } catch(UnrecoverableKeyException exc) {
+            String msg = String.format("keypass for alias %s in keystore %s is incorrect", alias, keystore);
+            logger.error( msg, exc );
+            throw new CommandExecutionException( msg );
+        } catch(GeneralSecurityException exc) {
+            String msg = String.format("can't read key %s from keystore %s", alias, keystore);
+            logger.error( msg, exc );
+            throw new CommandExecutionException( msg + System.getProperty("line.separator") + exc.getMessage() );
+        }
+    }
+
+    public Path getKeystore() {
+        return keystore;
+    }
+
+    public String getAlias() {
+        return alias;
+    }
+
+    public PrivateKey getPrivateKey() {
+        return privateKey;
+    }
+
+    public X509Certificate getCertificate() {
+        return (X509Certificate)certificateChain.get(0);
+    }
+
+    public List<Certificate> getCertificateChain() {
+        return certificateChain;
+    }
+
+    @Override
+    public String toString() {
+        return "SigningSession{" +
+                "keystore=" + keystore +
+                ", alias='" + alias + '\'' +
+                ", keyAlgorithm=" + privateKey.getAlgorithm() +
+                '}';
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright 2015 Bekwam, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bekwam.resignator.commands;
+
+import com.google.common.base.Preconditions;
+import org.bouncycastle.asn1.ASN1EncodableVector;
+import org.bouncycastle.asn1.ASN1Primitive;
+import org.bouncycastle.asn1.DERSet;
+import org.bouncycastle.asn1.cms.Attribute;
+import org.bouncycastle.asn1.cms.AttributeTable;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.cms.CMSSignedData;
+import org.bouncycastle.cms.SignerInformation;
+import org.bouncycastle.cms.SignerInformationStore;
+import org.bouncycastle.tsp.TSPAlgorithms;
+import org.bouncycastle.tsp.TSPException;
+import org.bouncycastle.tsp.TimeStampRequest;
+import org.bouncycastle.tsp.TimeStampRequestGenerator;
+import org.bouncycastle.tsp.TimeStampResponse;
+import org.bouncycastle.tsp.TimeStampToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.concurrent.Semaphore;
+
+/**
+ * RFC 3161 client used by the builtin signer to timestamp signatures
+ *
+ * Connections are kept alive between requests by fully reading and closing every response (HttpURLConnection pools
+ * them per host).  At most TsaMaxConcurrent requests are in flight across all signing threads.  Failed requests are
+ * retried with exponential backoff on I/O errors and on HTTP 429 and 5xx; other HTTP errors and invalid responses
+ * fail right away.
+ *
+ * @author carl_000
+ */
+@Singleton
+public class TimestampClient {
+
+    private final static Logger logger = LoggerFactory.getLogger(TimestampClient.class);
+
+    private final static String DIGEST_ALGORITHM = "SHA-256";
+    private final static int TIMEOUT_MILLIS = 30 * 1000;
+
+    @Inject
+    @Named("TsaMaxConcurrent")
+    Integer maxConcurrent = 4;
+
+    @Inject
+    @Named("TsaMaxAttempts")
+    Integer maxAttempts = 3;
+
+    @Inject
+    @Named("TsaBackoffMillis")
+    Long backoffMillis = 1000L;
+
+    private final SecureRandom random = new SecureRandom();
+
+    private Semaphore inFlight;
+
+    /**
+     * Adds a token over the signature value as an unsigned attribute of the (single) signer of a signature block
+     *
+     * @param block PKCS#7 signature block
+     * @param tsaUrl timestamp authority
+     * @return signature block with the token
+     * @throws IOException if the TSA can't be reached after retrying
+     * @throws GeneralSecurityException if the block or the TSA response is invalid
+     */
+    public byte[] timestamp(byte[] block, String tsaUrl) throws IOException, GeneralSecurityException {
+
+        try {
+
+            CMSSignedData signedData = new CMSSignedData(block);
+            SignerInformation signer = signedData.getSignerInfos().getSigners().iterator().next();
+
+            TimeStampToken token = requestToken(tsaUrl, signer.getSignature());
+
+            ASN1EncodableVector v = new ASN1EncodableVector();
+            v.add(new Attribute(
+                    PKCSObjectIdentifiers.id_aa_signatureTimeStampToken,
+                    new DERSet(ASN1Primitive.fromByteArray(token.getEncoded()))
+            ));
+
+            SignerInformation stamped = SignerInformation.replaceUnsignedAttributes(signer, new AttributeTable(v));
+
+            return CMSSignedData.replaceSigners(
+                    signedData,
+                    new SignerInformationStore(Collections.singletonList(stamped))
+            ).getEncoded();
+
+        } catch(GeneralSecurityException | IOException exc) {
+            throw exc;
+        } catch(Exception exc) {  // BC CMS exceptions
+            throw new GeneralSecurityException(exc.getMessage(), exc);
+        }
+    }
+
+    /**
+     * Requests a token over the SHA-256 of signature
+     */
+    public TimeStampToken requestToken(String tsaUrl, byte[] signature) throws IOException, GeneralSecurityException {
+
+        Preconditions.checkNotNull(tsaUrl);
+        Preconditions.checkNotNull(signature);
+
+        byte[] imprint = MessageDigest.getInstance(DIGEST_ALGORITHM).digest(signature);
+
+        TimeStampRequestGenerator reqGen = new TimeStampRequestGenerator();
+        reqGen.setCertReq(true);
+        TimeStampRequest request = reqGen.generate(
+                TSPAlgorithms.SHA256,
+                imprint,
+                BigInteger.valueOf(random.nextLong())
+        );
+
+        byte[] responseBytes = postWithRetry(tsaUrl, request.getEncoded());
+
+        try {
+
+            TimeStampResponse response = new TimeStampResponse(responseBytes);
+            response.validate(request);
+
+            TimeStampToken token = response.getTimeStampToken();
+            if( token == null ) {
+                throw new GeneralSecurityException("TSA " + tsaUrl + " did not return a token; " + response.getStatusString());
+            }
+
+            return token;
+
+        } catch(TSPException exc) {
+            throw new GeneralSecurityException("invalid response from TSA " + tsaUrl + "; " + exc.getMessage(), exc);
+        }
+    }
+
+    private byte[] postWithRetry(String tsaUrl, byte[] requestBytes) throws IOException {
+
+        long delay = backoffMillis;
+
+        for( int attempt = 1; ; attempt++ ) {
+
+            try {
+
+                return post(tsaUrl, requestBytes);
+
+            } catch(RetryableException exc) {
+
+                if( attempt >= maxAttempts ) {
+                    throw new IOException("TSA " + tsaUrl + " failed after " + attempt + " attempts; " + exc.getMessage(), exc);
+                }
+
+                if( logger.isWarnEnabled() ) {
+                    logger.warn("TSA {} attempt {} failed ({}); retrying in {} ms", tsaUrl, attempt, exc.getMessage(), delay);
+                }
+
+                try {
+                    Thread.sleep(delay + (long)(random.nextDouble() * delay / 2));  // jitter keeps workers apart
+                } catch(InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted waiting to retry TSA " + tsaUrl);
+                }
+
+                delay *= 2;
+            }
+        }
+    }
+
+    private byte[] post(String tsaUrl, byte[] requestBytes) throws IOException {
+
+        Semaphore permits = permits();
+
+        try {
+            permits.acquire();
+        } catch(InterruptedException exc) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted waiting for TSA " + tsaUrl);
+        }
+
+        int responseCode;
+        byte[] body;
+
+        try {
+
+            HttpURLConnection conn = (HttpURLConnection)new URL(tsaUrl).openConnection();
+            conn.setConnectTimeout(TIMEOUT_MILLIS);
+            conn.setReadTimeout(TIMEOUT_MILLIS);
+            conn.setDoOutput(true);
+            conn.setRequestMethod("POST");
+            conn.setRequestProperty("Content-Type", "application/timestamp-query");
+            conn.setFixedLengthStreamingMode(requestBytes.length);
+
+            try (
+                    OutputStream os = conn.getOutputStream()
+            ) {
+                os.write(requestBytes);
+            }
+
+            responseCode = conn.getResponseCode();
+
+            // read error bodies too so that the connection can be reused
+            body = drain(responseCode == HttpURLConnection.HTTP_OK ? conn.getInputStream() : conn.getErrorStream());
+
+        } catch(IOException exc) {
+            throw new RetryableException(String.valueOf(exc.getMessage()), exc);
+        } finally {
+            permits.release();
+        }
+
+        if( responseCode != HttpURLConnection.HTTP_OK ) {
+            String msg = "TSA " + tsaUrl + " returned HTTP " + responseCode;
+            if( responseCode == 429 || responseCode >= 500 ) {
+                throw new RetryableException(msg, null);
+            }
+            throw new IOException(msg);
+        }
+
+        return body;
+    }
+
+    private byte[] drain(InputStream is) throws IOException {
+
+        if( is == null ) {
+            return new byte[0];
+        }
+
+        try (
+                InputStream in = is
+        ) {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int n;
+            while( (n = in.read(buf)) != -1 ) {
+                baos.write(buf, 0, n);
+            }
+            return baos.toByteArray();
+        }
+    }
+
+    private synchronized Semaphore permits() {
+        if( inFlight == null ) {
+            inFlight = new Semaphore(Math.max(1, maxConcurrent));
+        }
+        return inFlight;
+    }
+
+    private static class RetryableException extends IOException {
+
+        private static final long serialVersionUID = -2201543374591164127L;
+
+        RetryableException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+}
@@ -16,6 +16,9 @@
 package com.bekwam.resignator.commands;
 
 import com.bekwam.resignator.ActiveConfiguration;
+import com.bekwam.resignator.util.JarUtils;
+import com.bekwam.resignator.util.RawZipFile;
+import com.bekwam.resignator.util.RawZipWriter;
 import com.google.common.base.Preconditions;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang3.RandomStringUtils;
@@ -28,12 +31,21 @@ import javax.inject.Named;
 import java.io.*;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Enumeration;
 import java.util.function.Consumer;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
 /**
  * Unsigns a JAR by unpacking it, stripping signature related items from the contents including META-INF/MANIFEST.MF,
  * and repacks
  *
+ * By default, the JAR is streamed from source to target in a single pass without the jar tool or a temp dir.  The
+ * UnsignStreaming binding set to false brings back the unpack / repack behavior.
+ *
  * @author carl_000
  */
 public class UnsignCommand {
@@ -43,6 +55,9 @@ public class UnsignCommand {
     @Inject
     @Named("UnsignTimeout")
     Integer unsignTimeout;
+    @Inject
+    @Named("UnsignStreaming")
+    Boolean unsignStreaming = true;
     private Logger logger = LoggerFactory.getLogger(UnsignCommand.class);
     private Path tempDir = null;
 
@@ -70,6 +85,11 @@ public class UnsignCommand {
             logger.debug("[UNSIGN] source jar file name={}", sourceJarFile.getName());
         }
 
+        if( unsignStreaming ) {
+            streamUnsignJAR(sourceJARFile, targetJARFile, observer);
+            return;
+        }
+
         //
         // Create a temporary and unique folder
         //
@@ -93,8 +113,8 @@ public class UnsignCommand {
         //
         // Unpack JAR
         //
-        unJAR(workingJarFile.toString(), tempDir);
         observer.accept("Unpacking JAR '" + workingJarFile.toString() + "'");
+        unJAR(workingJarFile.toString(), tempDir, observer);
         observer.accept("Deleting working JAR file");
         workingJarFile.toFile().delete();  // don't include for later re-jar operation
 
@@ -115,7 +135,142 @@ public class UnsignCommand {
         // Repack JAR
         //
         observer.accept("Repacking JAR '" + targetJARFile.toString() + "'");
-        repackJAR(targetJARFile, appDir);
+        repackJAR(targetJARFile, appDir, observer);
+    }
+
+    /**
+     * Reads the source zip and writes the target zip in one pass, dropping signature entries and removing the digest
+     * attributes from MANIFEST.MF in memory
+     *
+     * Other entries are copied still compressed when possible.
+     *
+     * The target is written to a temp file in its own dir and moved into place so that source and target can be the
+     * same file.
+     */
+    private void streamUnsignJAR(Path sourceJARFile, Path targetJARFile, Consumer<String> observer) throws CommandExecutionException {
+
+        Path tempFile = null;
+
+        try (
+                ZipFile zf = new ZipFile(sourceJARFile.toFile())
+        ) {
+
+            tempFile = JarUtils.createSiblingTempFile(targetJARFile);
+
+            observer.accept("Streaming JAR '" + sourceJARFile.getFileName() + "' to '" + targetJARFile.getFileName() + "'");
+
+            byte[] manifest = readStrippedManifest(zf, observer);
+
+            try {
+                writeUnsignedRaw(sourceJARFile, tempFile, manifest, observer);
+            } catch(ZipException exc) {
+                if( logger.isDebugEnabled() ) {
+                    logger.debug("[UNSIGN] can't copy raw entries ({}); recompressing", exc.getMessage());
+                }
+                writeUnsigned(zf, tempFile, manifest, observer);
+            }
+
+            Files.move(tempFile, targetJARFile, StandardCopyOption.REPLACE_EXISTING);
+            tempFile = null;
+
+        } catch(IOException exc) {
+            String msg = String.format("can't unsign %s to %s", sourceJARFile, targetJARFile);
+            logger.error( msg, exc );
+            throw new CommandExecutionException( msg + System.getProperty("line.separator") + exc.getMessage() );
+        } finally {
+            if( tempFile != null ) {
+                try {
+                    Files.deleteIfExists(tempFile);
+                } catch(IOException exc) {
+                    logger.warn("can't delete temp file " + tempFile, exc);
+                }
+            }
+        }
+    }
+
+    /**
+     * MANIFEST.MF without digest attributes or null if the JAR doesn't have a manifest
+     */
+    private byte[] readStrippedManifest(ZipFile zf, Consumer<String> observer) throws IOException {
+
+        ZipEntry e = zf.getEntry(JarUtils.MANIFEST_NAME);
+        if( e == null ) {
+            return null;
+        }
+
+        observer.accept("Editing MANIFEST.MF");
+
+        Manifest mf;
+        try (
+                InputStream is = zf.getInputStream(e)
+        ) {
+            mf = new Manifest(is);
+        }
+        JarUtils.stripDigests(mf);
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        mf.write(baos);
+        return baos.toByteArray();
+    }
+
+    /**
+     * Copies the entries still compressed; only MANIFEST.MF is deflated again
+     */
+    private void writeUnsignedRaw(Path sourceJARFile, Path target, byte[] manifest, Consumer<String> observer) throws IOException {
+
+        try (
+                RawZipFile rzf = new RawZipFile(sourceJARFile);
+                RawZipWriter writer = new RawZipWriter(target)
+        ) {
+            for( RawZipFile.Entry e : rzf.getEntries() ) {
+
+                if( JarUtils.isSignatureRelated(e.getName()) ) {
+                    dropped(e.getName(), observer);
+                } else if( manifest != null && StringUtils.equalsIgnoreCase(e.getName(), JarUtils.MANIFEST_NAME) ) {
+                    writer.writeEntry(e.getName(), manifest, e.getTime());
+                } else {
+                    writer.copyEntry(rzf, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Inflates and deflates every entry; for zips RawZipFile can't handle
+     */
+    private void writeUnsigned(ZipFile zf, Path target, byte[] manifest, Consumer<String> observer) throws IOException {
+
+        try (
+                ZipOutputStream zos = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(target)))
+        ) {
+
+            byte[] buf = new byte[8192];
+
+            Enumeration<? extends ZipEntry> entries = zf.entries();
+            while( entries.hasMoreElements() ) {
+
+                ZipEntry e = entries.nextElement();
+
+                if( JarUtils.isSignatureRelated(e.getName()) ) {
+                    dropped(e.getName(), observer);
+                } else if( manifest != null && StringUtils.equalsIgnoreCase(e.getName(), JarUtils.MANIFEST_NAME) ) {
+                    ZipEntry mfEntry = new ZipEntry(e.getName());
+                    mfEntry.setTime(e.getTime());
+                    zos.putNextEntry(mfEntry);
+                    zos.write(manifest);
+                    zos.closeEntry();
+                } else {
+                    JarUtils.copyEntry(zf, e, zos, buf);
+                }
+            }
+        }
+    }
+
+    private void dropped(String entryName, Consumer<String> observer) {
+        if( logger.isDebugEnabled() ) {
+            logger.debug("[UNSIGN] dropping {}", entryName);
+        }
+        observer.accept("Removing '" + entryName + "'");
     }
 
     private File verifySource(Path sourceJARFilePath) throws CommandExecutionException {
@@ -273,7 +428,7 @@ public class UnsignCommand {
         }
     }
 
-    private void repackJAR(Path targetJARFilePath, Path appDir) throws CommandExecutionException {
+    private void repackJAR(Path targetJARFilePath, Path appDir, Consumer<String> observer) throws CommandExecutionException {
         Preconditions.checkNotNull( activeConfiguration.getJarCommand() );
         String[] cmdAndArgs = {
                 activeConfiguration.getJarCommand().toString(),
@@ -283,10 +438,10 @@ public class UnsignCommand {
         };
 
         CommandExecutor cmd = new CommandExecutor();
-        cmd.exec(cmdAndArgs);
+        cmd.exec(cmdAndArgs, observer);
     }
 
-    private void unJAR(String zipFile, Path tempDir) throws CommandExecutionException {
+    private void unJAR(String zipFile, Path tempDir, Consumer<String> observer) throws CommandExecutionException {
 
         Preconditions.checkNotNull( activeConfiguration.getJarCommand() );
 
@@ -295,9 +450,7 @@ public class UnsignCommand {
             "xf", zipFile
         };
 
-        Path defaultWorkingDir = Paths.get(System.getProperty("user.dir"));
-
-        CommandExecutor cmd = new CommandExecutor(unsignTimeout, tempDir, defaultWorkingDir);
-        cmd.exec(cmdAndArgs);
+        CommandExecutor cmd = new CommandExecutor(unsignTimeout, tempDir);
+        cmd.exec(cmdAndArgs, observer);
     }
 }
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2015 Bekwam, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bekwam.resignator.model;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Singleton;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * ConfigurationDataSource that stores the Configuration in ConfigurationBinaryFormat
+ *
+ * The file is resignator.bin next to resignator.json.  The first time this is used, resignator.json is imported;
+ * it's left as it was.  ConfigurationBinaryFormat converts back to JSON.
+ *
+ * Selected with -Dresignator.configStore=binary.
+ *
+ * @author carl_000
+ */
+@Singleton
+public class BinaryConfigurationDataSource extends ConfigurationDataSourceImpl {
+
+    private final static Logger logger = LoggerFactory.getLogger(BinaryConfigurationDataSource.class);
+
+    private final static String BINARY_EXTENSION = ".bin";
+
+    private final ConfigurationBinaryFormat format = new ConfigurationBinaryFormat();
+
+    @Override
+    public void init() throws Exception {
+        importConfigFile();
+        super.init();
+    }
+
+    @Override
+    protected File dataFile(File fullConfigDir) throws IOException {
+        return new File(fullConfigDir, StringUtils.removeEnd(jsonConfigFile, ".json") + BINARY_EXTENSION);
+    }
+
+    @Override
+    protected Configuration readConfiguration(File cf) throws IOException {
+        return format.read(cf.toPath());
+    }
+
+    @Override
+    protected byte[] serialize(Configuration c) throws IOException {
+        return format.write(c);
+    }
+
+    private void importConfigFile() throws IOException {
+
+        File fullConfigDir = new File(System.getProperty("user.home"), configDir);
+        File configFile = new File(fullConfigDir, jsonConfigFile);
+        File binaryFile = dataFile(fullConfigDir);
+
+        if( !configFile.isFile() || configFile.length() == 0 || binaryFile.exists() ) {
+            return;
+        }
+
+        if( logger.isInfoEnabled() ) {
+            logger.info("[IMPORT] importing {} into {}", configFile.getAbsolutePath(), binaryFile.getAbsolutePath());
+        }
+
+        format.importJson(configFile.toPath(), binaryFile.toPath());
+    }
+}
@@ -0,0 +1,434 @@
+/*
+ * Copyright 2015 Bekwam, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bekwam.resignator.model;
+
+import com.bekwam.resignator.util.AtomicFiles;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.zip.CRC32;
+
+/**
+ * Compact binary encoding of Configuration
+ *
+ *   magic "RSGB", u16 version, u16 flags (0)
+ *   string table: varint count, then each string as varint length + UTF-8
+ *   body: the fields of ConfigurationTypeAdapter in the same order with strings as varint references into the
+ *         table (0 for null) and the booleans and enums of a record packed into a flags byte
+ *   u32 CRC32 of everything before it
+ *
+ * Every string is stored once so the keystore paths, aliases, and TSA URLs shared by many profiles cost a
+ * reference each.  Reading applies the same defaults as ConfigurationTypeAdapter so a document reads the same
+ * whichever format it was written in.
+ *
+ * Files are read through a memory-mapped FileChannel when they're large enough for that to pay off.  Not on
+ * Windows where a mapped file can't be replaced until the mapping is garbage collected.
+ *
+ * @author carl_000
+ */
+public class ConfigurationBinaryFormat {
+
+    private final static Logger logger = LoggerFactory.getLogger(ConfigurationBinaryFormat.class);
+
+    private final static byte[] MAGIC = { 'R', 'S', 'G', 'B' };
+    private final static int VERSION = 1;
+
+    private final static long MAP_THRESHOLD = 64 * 1024;
+    private final static boolean MAP_FILES = File.separatorChar != '\\';
+
+    // Profile flags
+    private final static int REPLACE_SIGNATURES = 0x01;
+    private final static int REPLACE_SIGNATURES_NULL = 0x02;
+    private final static int ARGS_FOLDER = 0x04;
+    private final static int HAS_SOURCE_FILE = 0x08;
+    private final static int HAS_TARGET_FILE = 0x10;
+    private final static int HAS_JARSIGNER_CONFIG = 0x20;
+
+    // JarsignerConfig flags
+    private final static int VERBOSE = 0x01;
+    private final static int SIGNER_BUILTIN = 0x02;
+    private final static int DEFER_TIMESTAMPS = 0x04;
+
+    public byte[] write(Configuration c) throws IOException {
+
+        if( logger.isDebugEnabled() ) {
+            logger.debug("[WRITE] # profiles={}", c.getProfiles().size());
+        }
+
+        StringTable strings = new StringTable();
+        Encoder body = new Encoder();
+
+        String lud = null;
+        if( c.getLastUpdatedDateTime().isPresent() ) {
+            lud = c.getLastUpdatedDateTime().get().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME);
+        }
+
+        body.varint(strings.ref(c.getActiveProfile().orElse("")));
+        body.varint(strings.ref(c.getJDKHome().orElse("")));
+        body.varint(strings.ref(c.getHashedPassword().orElse("")));
+        body.varint(strings.ref(lud));
+
+        body.varint(c.getRecentProfiles().size());
+        for( String rp : c.getRecentProfiles() ) {
+            body.varint(strings.ref(rp));
+        }
+
+        body.varint(c.getProfiles().size());
+        for( Profile p : c.getProfiles() ) {
+
+            int flags = 0;
+            if( p.getReplaceSignatures() == null ) {
+                flags |= REPLACE_SIGNATURES_NULL;
+            } else if( p.getReplaceSignatures() ) {
+                flags |= REPLACE_SIGNATURES;
+            }
+            if( p.getArgsType() == SigningArgumentsType.FOLDER ) {
+                flags |= ARGS_FOLDER;
+            }
+            if( p.getSourceFile().isPresent() ) {
+                flags |= HAS_SOURCE_FILE;
+            }
+            if( p.getTargetFile().isPresent() ) {
+                flags |= HAS_TARGET_FILE;
+            }
+            if( p.getJarsignerConfig().isPresent() ) {
+                flags |= HAS_JARSIGNER_CONFIG;
+            }
+
+            body.varint(strings.ref(p.getProfileName()));
+            body.u8(flags);
+
+            if( p.getSourceFile().isPresent() ) {
+                body.varint(strings.ref(p.getSourceFile().get().getFileName()));
+            }
+            if( p.getTargetFile().isPresent() ) {
+                body.varint(strings.ref(p.getTargetFile().get().getFileName()));
+            }
+
+            if( p.getJarsignerConfig().isPresent() ) {
+
+                JarsignerConfig jc = p.getJarsignerConfig().get();
+
+                int jcFlags = 0;
+                if( Boolean.TRUE.equals(jc.getVerbose()) ) {
+                    jcFlags |= VERBOSE;
+                }
+                if( jc.getSignerType() == SignerType.BUILTIN ) {
+                    jcFlags |= SIGNER_BUILTIN;
+                }
+                if( jc.isDeferTimestamps() ) {
+                    jcFlags |= DEFER_TIMESTAMPS;
+                }
+
+                body.varint(strings.ref(jc.getAlias()));
+                body.varint(strings.ref(jc.getEncryptedStorepass()));  // #1 only the encrypted fields are persisted
+                body.varint(strings.ref(jc.getEncryptedKeypass()));
+                body.varint(strings.ref(jc.getKeystore()));
+                body.varint(strings.ref(jc.getTsaUrl()));
+                body.u8(jcFlags);
+            }
+        }
+
+        Encoder out = new Encoder();
+        out.bytes(MAGIC);
+        out.u16(VERSION);
+        out.u16(0);
+        strings.write(out);
+        out.bytes(body.toByteArray());
+
+        CRC32 crc = new CRC32();
+        crc.update(out.buf(), 0, out.size());
+        out.u32(crc.getValue());
+
+        return out.toByteArray();
+    }
+
+    public Configuration read(Path file) throws IOException {
+
+        try (
+                FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)
+        ) {
+            long size = ch.size();
+
+            if( size > Integer.MAX_VALUE ) {
+                throw new IOException(file + " is too large to be a configuration");
+            }
+
+            ByteBuffer buf;
+            if( MAP_FILES && size >= MAP_THRESHOLD ) {
+                buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } else {
+                buf = ByteBuffer.allocate((int)size);
+                while( buf.hasRemaining() && ch.read(buf) != -1 ) {
+                    // fill
+                }
+                buf.flip();
+            }
+
+            return read(buf);
+        }
+    }
+
+    public Configuration read(ByteBuffer buf) throws IOException {
+
+        try {
+            return decode(buf.slice());
+        } catch(BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException exc) {
+            throw new IOException("corrupt binary configuration", exc);
+        }
+    }
+
+    private Configuration decode(ByteBuffer buf) throws IOException {
+
+        if( buf.remaining() < MAGIC.length + 8 ) {
+            throw new IOException("not a binary configuration");
+        }
+
+        for( byte b : MAGIC ) {
+            if( buf.get() != b ) {
+                throw new IOException("not a binary configuration");
+            }
+        }
+
+        int version = Short.toUnsignedInt(buf.getShort());
+        if( version != VERSION ) {
+            throw new IOException("unsupported binary configuration version " + version);
+        }
+        buf.getShort();  // flags
+
+        int crcPos = buf.limit() - 4;
+        long expectedCrc = Integer.toUnsignedLong(buf.getInt(crcPos));
+        CRC32 crc = new CRC32();
+        ByteBuffer covered = buf.duplicate();
+        covered.position(0).limit(crcPos);
+        crc.update(covered);
+        if( crc.getValue() != expectedCrc ) {
+            throw new IOException("binary configuration checksum mismatch");
+        }
+        buf.limit(crcPos);
+
+        String[] strings = new String[varint(buf)];
+        byte[] scratch = new byte[256];
+        for( int i = 0; i < strings.length; i++ ) {
+            int len = varint(buf);
+            if( len > scratch.length ) {
+                scratch = new byte[Math.max(len, scratch.length * 2)];
+            }
+            buf.get(scratch, 0, len);
+            strings[i] = new String(scratch, 0, len, StandardCharsets.UTF_8);
+        }
+
+        Configuration conf = new Configuration();
+
+        String ap = StringUtils.defaultString(string(buf, strings));
+        String jdkHome = StringUtils.defaultString(string(buf, strings));
+        String hp = StringUtils.defaultString(string(buf, strings));
+        String lud = string(buf, strings);
+
+        int numRecent = varint(buf);
+        for( int i = 0; i < numRecent; i++ ) {
+            conf.getRecentProfiles().add(string(buf, strings));
+        }
+
+        int numProfiles = varint(buf);
+        List<Profile> profiles = new ArrayList<>(numProfiles);
+        for( int i = 0; i < numProfiles; i++ ) {
+
+            String profileName = string(buf, strings);
+            int flags = buf.get() & 0xff;
+
+            if( profileName == null ) {
+                throw new IOException("profile without a profileName at #" + i);
+            }
+
+            Boolean rs = (flags & REPLACE_SIGNATURES_NULL) != 0 ? Boolean.FALSE : (flags & REPLACE_SIGNATURES) != 0;
+            SigningArgumentsType argsType = (flags & ARGS_FOLDER) != 0 ? SigningArgumentsType.FOLDER : SigningArgumentsType.JAR;
+
+            Profile p = new Profile(profileName, rs, argsType);
+
+            if( (flags & HAS_SOURCE_FILE) != 0 ) {
+                String sfn = string(buf, strings);
+                if( sfn != null ) {
+                    p.setSourceFile(Optional.of(new SourceFile(sfn)));
+                }
+            }
+            if( (flags & HAS_TARGET_FILE) != 0 ) {
+                String tfn = string(buf, strings);
+                if( tfn != null ) {
+                    p.setTargetFile(Optional.of(new TargetFile(tfn)));
+                }
+            }
+
+            if( (flags & HAS_JARSIGNER_CONFIG) != 0 ) {
+
+                String alias = StringUtils.defaultString(string(buf, strings));
+                String storepass = StringUtils.defaultString(string(buf, strings));
+                String keypass = StringUtils.defaultString(string(buf, strings));
+                String keystore = StringUtils.defaultString(string(buf, strings));
+                String tsaUrl = string(buf, strings);
+                int jcFlags = buf.get() & 0xff;
+
+                JarsignerConfig jc = new JarsignerConfig(alias, "", "", keystore, (jcFlags & VERBOSE) != 0);
+                jc.setEncryptedKeypass(keypass);
+                jc.setEncryptedStorepass(storepass);
+                jc.setSignerType((jcFlags & SIGNER_BUILTIN) != 0 ? SignerType.BUILTIN : SignerType.JARSIGNER);
+                jc.setTsaUrl(tsaUrl != null ? tsaUrl : JarsignerConfig.DEFAULT_TSA_URL);
+                jc.setDeferTimestamps((jcFlags & DEFER_TIMESTAMPS) != 0);
+                p.setJarsignerConfig(Optional.of(jc));
+            }
+
+            profiles.add(p);
+        }
+        conf.getProfiles().addAll(profiles);
+
+        if( logger.isDebugEnabled() ) {
+            logger.debug("[READ] # strings={}, # recent={}, # profiles={}",
+                    strings.length, conf.getRecentProfiles().size(), conf.getProfiles().size());
+        }
+
+        conf.setActiveProfile(Optional.of(ap));
+        conf.setJDKHome(Optional.of(jdkHome));
+        conf.setHashedPassword(Optional.of(hp));
+        conf.setLastUpdatedDateTime(Optional.ofNullable(
+                StringUtils.isNotEmpty(lud) ? LocalDateTime.parse(lud, DateTimeFormatter.ISO_LOCAL_DATE_TIME) : null));
+        return conf;
+    }
+
+    /**
+     * Writes the JSON document for a binary configuration file
+     */
+    public void exportJson(Path binaryFile, Path jsonFile) throws IOException {
+        AtomicFiles.write(jsonFile, ConfigurationDataSourceImpl.toJson(read(binaryFile)));
+    }
+
+    /**
+     * Writes a binary configuration file for a JSON document
+     */
+    public void importJson(Path jsonFile, Path binaryFile) throws IOException {
+        Configuration c;
+        try (
+                Reader r = Files.newBufferedReader(jsonFile, ConfigurationDataSourceImpl.JSON_CHARSET)
+        ) {
+            c = new ConfigurationTypeAdapter().fromJson(r);
+        }
+        AtomicFiles.write(binaryFile, write(c));
+    }
+
+    private static String string(ByteBuffer buf, String[] strings) {
+        int ref = varint(buf);
+        return ref == 0 ? null : strings[ref - 1];
+    }
+
+    private static int varint(ByteBuffer buf) {
+        int value = 0;
+        for( int shift = 0; shift < 32; shift += 7 ) {
+            int b = buf.get() & 0xff;
+            value |= (b & 0x7f) << shift;
+            if( (b & 0x80) == 0 ) {
+                if( value < 0 ) {
+                    throw new IllegalArgumentException("varint out of range");
+                }
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("varint too long");
+    }
+
+    /**
+     * Strings in order of first use; a reference is the position + 1
+     */
+    private static class StringTable {
+
+        private final Map<String, Integer> refs = new HashMap<>();
+        private final List<String> strings = new ArrayList<>();
+
+        int ref(String s) {
+            if( s == null ) {
+                return 0;
+            }
+            Integer ref = refs.get(s);
+            if( ref == null ) {
+                strings.add(s);
+                ref = strings.size();
+                refs.put(s, ref);
+            }
+            return ref;
+        }
+
+        void write(Encoder out) {
+            out.varint(strings.size());
+            for( String s : strings ) {
+                byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+                out.varint(utf8.length);
+                out.bytes(utf8);
+            }
+        }
+    }
+
+    private static class Encoder extends ByteArrayOutputStream {
+
+        void varint(int value) {
+            while( (value & ~0x7f) != 0 ) {
+                write((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            write(value);
+        }
+
+        void u8(int value) {
+            write(value);
+        }
+
+        void u16(int value) {
+            write(value >>> 8);
+            write(value);
+        }
+
+        void u32(long value) {
+            write((int)(value >>> 24));
+            write((int)(value >>> 16));
+            write((int)(value >>> 8));
+            write((int)value);
+        }
+
+        void bytes(byte[] b) {
+            write(b, 0, b.length);
+        }
+
+        byte[] buf() {
+            return buf;
+        }
+    }
+}
@@ -2,6 +2,8 @@ package com.bekwam.resignator.model;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.DoubleConsumer;
 
 /**
  * Main DAO for access all settings / preferences info in the app
@@ -39,11 +41,21 @@ public interface ConfigurationDataSource {
     /**
      * Returns a list of Profiles
      *
+     * A data source that reads profiles as they're loaded returns only the ones read so far; use getProfileNames()
+     * to list them all.
+     *
      * @return List of valid Profile objects
      * @since 1.0.0
      */
     List<Profile> getProfiles();
 
+    /**
+     * Returns the names of every Profile sorted ignoring case
+     *
+     * @return List of profile names
+     */
+    List<String> getProfileNames();
+
     /**
      * Loads the Configuration including all Profiles
      *
@@ -60,6 +72,13 @@ public interface ConfigurationDataSource {
      */
     void saveConfiguration() throws IOException;
 
+    /**
+     * Blocks until any saved changes not yet on disk are written
+     *
+     * @throws IOException error writing the config file now or in an earlier background write
+     */
+    void flush() throws IOException;
+
     /**
      * Returns the backing datastore Configuration object
      * 
@@ -110,10 +129,24 @@ public interface ConfigurationDataSource {
     /**
      * Separates decrypt operation for init problem with verifying password after a loadConfiguration()
      *
+     * Credentials are decrypted with passPhrase as each profile is loaded.
+     *
      * @param passPhrase
      */
     void decrypt(String passPhrase);
 
+    /**
+     * decrypt() followed by decrypting the credentials of the profiles likely to be loaded first
+     *
+     * The credentials are decrypted in parallel off the calling thread.  Profiles not covered are decrypted as
+     * they're loaded.
+     *
+     * @param passPhrase
+     * @param progress called from the worker threads with the fraction completed
+     * @return completes when the credentials have been decrypted
+     */
+    CompletableFuture<Void> unlock(String passPhrase, DoubleConsumer progress);
+
     /**
      * Deletes the resignator.json file; used if password forgotten
      */
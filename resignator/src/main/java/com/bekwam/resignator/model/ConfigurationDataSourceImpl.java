@@ -18,9 +18,10 @@ package com.bekwam.resignator.model;
 import com.bekwam.jfxbop.data.BaseManagedDataSource;
 import com.bekwam.resignator.ActiveConfiguration;
 import com.bekwam.resignator.ActiveProfile;
+import com.bekwam.resignator.util.AtomicFiles;
 import com.bekwam.resignator.util.CryptUtils;
-import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.stream.JsonWriter;
@@ -32,14 +33,35 @@ import org.slf4j.LoggerFactory;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
 import java.time.LocalDateTime;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.DoubleConsumer;
+import java.util.stream.Collectors;
 
 /**
  * Implementation of ConfigurationDataSource
@@ -54,6 +76,18 @@ public class ConfigurationDataSourceImpl extends BaseManagedDataSource implement
 
     private final static Logger logger = LoggerFactory.getLogger(ConfigurationDataSourceImpl.class);
 
+    /**
+     * Thread-safe and expensive to build so shared by every load and save
+     */
+    private final static Gson GSON = new GsonBuilder().
+            registerTypeAdapter(Configuration.class, new ConfigurationTypeAdapter()).
+            create();
+
+    /**
+     * resignator.json has always been written in the platform charset so existing files are read that way
+     */
+    final static Charset JSON_CHARSET = Charset.defaultCharset();
+
     @Inject @Named("ConfigFile")
     String jsonConfigFile;
 
@@ -69,9 +103,50 @@ public class ConfigurationDataSourceImpl extends BaseManagedDataSource implement
     @Inject
     CryptUtils cryptUtils;
 
+    @Inject @Named("SaveDelayMillis")
+    Long saveDelayMillis = 500L;
+
+    @Inject @Named("DecryptThreads")
+    Integer decryptThreads = Runtime.getRuntime().availableProcessors();
+
     private Optional<Configuration> configuration = Optional.empty();
     private Optional<File> configFile = Optional.empty();
 
+    //
+    // Write-behind state.  Saves mark the Configuration dirty and schedule one write for the end of the delay;
+    // saves arriving before then are picked up by that write.  writeLock orders the file writes and is always
+    // taken before the monitor on this.
+    //
+    private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("resignator-config-writer").setDaemon(true).build()
+    );
+    private final Object writeLock = new Object();
+    private ScheduledFuture<?> pendingWrite;  // guarded by this
+    private boolean dirty;  // guarded by this
+    private volatile IOException lastWriteError;
+
+    //
+    // Profile names are case-insensitive throughout.  The index maps the folded name to the Profile in
+    // Configuration.getProfiles() and is updated along with the list.  Profiles a subclass stores separately are
+    // indexed by a name-only placeholder until lookup() reads them.
+    //
+    private final Map<String, Profile> profileIndex = new HashMap<>();  // guarded by this
+    private final Set<Profile> unreadProfiles = Collections.newSetFromMap(new IdentityHashMap<>());  // guarded by this
+
+    //
+    // Credentials are decrypted when a profile is loaded rather than all at unlock.  passPhrase is the one the
+    // ciphertext in memory was made with; the cache maps ciphertext to cleartext for the most recently used.
+    //
+    private final static int CLEARTEXT_CACHE_SIZE = 32;
+
+    private String passPhrase;  // guarded by this
+    private final Map<String, String> cleartextCache = new LinkedHashMap<String, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > CLEARTEXT_CACHE_SIZE;
+        }
+    };  // guarded by this
+
     @Override
     public void init() throws Exception {
 
@@ -79,7 +154,10 @@ public class ConfigurationDataSourceImpl extends BaseManagedDataSource implement
             logger.debug("[INIT]");
         }
 
-        configuration = Optional.of( new Configuration() );
+        synchronized (this) {
+            configuration = Optional.of( new Configuration() );
+            reindex();
+        }
 
         initFileSystem();
     }
@@ -96,34 +174,42 @@ public class ConfigurationDataSourceImpl extends BaseManagedDataSource implement
             logger.debug("[LOAD PROFILE]");
         }
 
-        Optional<Profile> profile = configuration.
-                    get().
-                    getProfiles().
-                    stream().
-                    filter( p -> StringUtils.equalsIgnoreCase(p.getProfileName(), profileName) ).
-                    findFirst();
+        Optional<Profile> profile;
+        synchronized (this) {
+            profile = Optional.ofNullable(lookup(profileName));
+        }
 
         activeProfile.fromDomain(profile.get());
+
+        //
+        // #1 decrypt the derived fields unless the profile was saved with cleartext this session
+        //
+        if( profile.get().getJarsignerConfig().isPresent() ) {
+            JarsignerConfig jc = profile.get().getJarsignerConfig().get();
+            if( StringUtils.isBlank(jc.getKeypass()) ) {
+                activeProfile.setJarsignerConfigKeypass(cleartext(jc.getEncryptedKeypass()));
+            }
+            if( StringUtils.isBlank(jc.getStorepass()) ) {
+                activeProfile.setJarsignerConfigStorepass(cleartext(jc.getEncryptedStorepass()));
+            }
+        }
     }
 
     @Override
-    public void saveProfile() throws IOException {
+    public synchronized void saveProfile() throws IOException {
 
         //
         // Find Profile in Configuration and remove if exists
         //
-        Iterator<Profile> iterator = configuration.get().getProfiles().iterator();
-        while( iterator.hasNext() ) {
-            Profile p = iterator.next();
-            if( Objects.equal(p.getProfileName(), activeProfile.getProfileName()) ) {
-                iterator.remove();
-            }
-        }
+        Profile previous = lookup(activeProfile.getProfileName());
+        removeProfile(activeProfile.getProfileName());
 
         //
         // Add a new or replacing profile
         //
-        configuration.get().getProfiles().add( activeProfile.toDomain() );
+        Profile saved = activeProfile.toDomain();
+        reuseCiphertext(previous, saved);
+        addProfile(saved);
 
         activeConf.setActiveProfile( activeProfile.getProfileName() );
 
@@ -134,7 +220,7 @@ public class ConfigurationDataSourceImpl extends BaseManagedDataSource implement
         	activeConf.getRecentProfiles().add( activeProfile.getProfileName() );
         }
 
-        saveConfiguration();
+        persistProfile(saved);
     }
 
     @Override
@@ -147,6 +233,16 @@ public class ConfigurationDataSourceImpl extends BaseManagedDataSource implement
         return configuration.get().getProfiles();
     }
 
+    @Override
+    public synchronized List<String> getProfileNames() {
+        return profileIndex.
+                values().
+                stream().
+                map(Profile::getProfileName).
+                sorted(String.CASE_INSENSITIVE_ORDER).
+                collect(Collectors.toList());
+    }
+
     @Override
     public void loadConfiguration() throws IOException {
 
@@ -154,46 +250,32 @@ public class ConfigurationDataSourceImpl extends BaseManagedDataSource implement
             logger.debug("[LOAD CONF]");
         }
 
-        File cf = configFile.get();
+        flush();  // a save just before this load may still be pending
 
-        try (
-                FileReader fr = new FileReader(cf)
-        ) {
-            Gson gson = new GsonBuilder().
-                    registerTypeAdapter(Configuration.class, new ConfigurationJSONAdapter()).
-                    create();
-            Configuration cfg = gson.fromJson(fr, Configuration.class);
+        Configuration cfg = readConfiguration(configFile.get());
 
+        synchronized (this) {
             configuration = Optional.of(cfg);
-            activeConf.fromDomain(configuration.get());
+            configurationLoaded(cfg);
+            reindex();
         }
+        activeConf.fromDomain(cfg);
     }
 
     @Override
     public void decrypt(String passPhrase) {
 
         //
-        // #1 decrypt the derived fields in jarsignerconfig.  There may not be a password at this point,
-        // so just skip the decryption until next call when one has been given.
+        // #1 the derived fields in jarsignerconfig are decrypted with this in loadProfile().  There may not be a
+        // password at this point, so just skip until next call when one has been given.
         //
         if( StringUtils.isNotBlank(activeConf.getUnhashedPassword()) ) {
             if( logger.isDebugEnabled() ) {
-                logger.debug("[DECRYPT] there is a password; decrypting");
+                logger.debug("[DECRYPT] there is a password; decrypting profiles as they're loaded");
             }
-            try {
-                for (Profile p : configuration.get().getProfiles()) {
-                    if (p.getJarsignerConfig().isPresent()) {
-                        JarsignerConfig jc = p.getJarsignerConfig().get();
-                        if( StringUtils.isNotBlank(jc.getEncryptedKeypass() ) ) {
-                            jc.setKeypass(cryptUtils.decrypt(jc.getEncryptedKeypass(), passPhrase));
-                        }
-                        if( StringUtils.isNotBlank(jc.getEncryptedStorepass()) ) {
-                            jc.setStorepass(cryptUtils.decrypt(jc.getEncryptedStorepass(), passPhrase));
-                        }
-                    }
-                }
-            } catch (Exception exc) {
-                logger.error("encryption error", exc);
+            synchronized (this) {
+                this.passPhrase = passPhrase;
+                cleartextCache.clear();
             }
         } else {
             if( logger.isDebugEnabled() ) {
@@ -203,57 +285,522 @@ public class ConfigurationDataSourceImpl extends BaseManagedDataSource implement
     }
 
     @Override
-    public void saveConfiguration() throws IOException {
+    public CompletableFuture<Void> unlock(String passPhrase, DoubleConsumer progress) {
+
+        decrypt(passPhrase);
+
+        List<String> ciphertexts = unlockCiphertexts();
+
+        if( logger.isDebugEnabled() ) {
+            logger.debug("[UNLOCK] decrypting {} credentials with {} threads", ciphertexts.size(), decryptThreads);
+        }
+
+        if( ciphertexts.isEmpty() ) {
+            progress.accept(1.0d);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        long startTimeMillis = System.currentTimeMillis();
+
+        ExecutorService pool = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(decryptThreads, ciphertexts.size())),
+                new ThreadFactoryBuilder().setNameFormat("resignator-decrypt-%d").setDaemon(true).build()
+        );
+
+        AtomicInteger done = new AtomicInteger();
+        CompletableFuture<?>[] decryptions = ciphertexts.
+                stream().
+                map(encrypted -> CompletableFuture.runAsync(() -> {
+                    cleartext(encrypted);  // into cleartextCache
+                    progress.accept(done.incrementAndGet() / (double)ciphertexts.size());
+                }, pool)).
+                toArray(CompletableFuture<?>[]::new);
+
+        return CompletableFuture.allOf(decryptions).whenComplete((v, exc) -> {
+            pool.shutdown();
+            if( logger.isDebugEnabled() ) {
+                logger.debug("[UNLOCK] decryption took {} ms", System.currentTimeMillis() - startTimeMillis);
+            }
+        });
+    }
+
+    /**
+     * Credentials of the last active profile, then recent profiles, then the rest up to what cleartextCache holds
+     */
+    private synchronized List<String> unlockCiphertexts() {
+
+        if( passPhrase == null || !configuration.isPresent() ) {
+            return new ArrayList<>();
+        }
+
+        List<Profile> profiles = new ArrayList<>();
+        List<String> firstNames = new ArrayList<>();
+        firstNames.add(activeConf.getActiveProfile());
+        firstNames.addAll(configuration.get().getRecentProfiles());
+        for( String name : firstNames ) {
+            Profile p = StringUtils.isNotBlank(name) ? lookup(name) : null;
+            if( p != null ) {
+                profiles.add(p);
+            }
+        }
+        profiles.addAll(configuration.get().getProfiles());
+
+        Set<String> ciphertexts = new LinkedHashSet<>();
+        for( Profile p : profiles ) {
+            if( ciphertexts.size() + 2 > CLEARTEXT_CACHE_SIZE ) {
+                break;
+            }
+            if( p.getJarsignerConfig().isPresent() ) {
+                JarsignerConfig jc = p.getJarsignerConfig().get();
+                if( StringUtils.isNotBlank(jc.getEncryptedKeypass()) ) {
+                    ciphertexts.add(jc.getEncryptedKeypass());
+                }
+                if( StringUtils.isNotBlank(jc.getEncryptedStorepass()) ) {
+                    ciphertexts.add(jc.getEncryptedStorepass());
+                }
+            }
+        }
+        return new ArrayList<>(ciphertexts);
+    }
+
+    /**
+     * Merges in ActiveConfiguration and schedules the write
+     *
+     * The file is written by a background thread after saveDelayMillis so that a burst of saves results in one
+     * write.  An error from an earlier background write is thrown here or from flush().
+     */
+    @Override
+    public synchronized void saveConfiguration() throws IOException {
 
     	Preconditions.checkArgument( configuration.isPresent() );
+
+        throwLastWriteError();
     	
     	Configuration c = configuration.get();
-    	
-    	//
-    	// Merges ActiveConfiguration which doesn't include any Profiles with the latest
-    	// Configuration object
-    	//
-    	
+
+        mergeActiveConfiguration(c);
+
+        encryptAll(c);
+
+        dirty = true;
+
+        if( pendingWrite == null ) {
+            pendingWrite = writer.schedule(this::writeBehind, saveDelayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Merges ActiveConfiguration which doesn't include any Profiles with the latest Configuration object
+     */
+    void mergeActiveConfiguration(Configuration c) {
     	c.setActiveProfile(Optional.of(activeConf.getActiveProfile()));
     	c.setJDKHome(Optional.of(activeConf.getJDKHome()));
+    	List<String> recentProfiles = new ArrayList<>(activeConf.getRecentProfiles());  // may wrap the same list
     	c.getRecentProfiles().clear();
-    	c.getRecentProfiles().addAll(activeConf.getRecentProfiles());
+    	c.getRecentProfiles().addAll(recentProfiles);
     	c.setHashedPassword(Optional.of(activeConf.getHashedPassword()));
         c.setLastUpdatedDateTime(Optional.of(activeConf.getLastUpdatedDateTime()));
+    }
 
-        //
-        // #1 set the derived field in jarsignerconfig to include encrypted values
-        //
+    /**
+     * Encrypts the changed credentials of every profile with the password in ActiveConfiguration
+     *
+     * Credentials that haven't changed since they were last encrypted keep their ciphertext.  If the password
+     * changed, every credential is encrypted again; ones that were never decrypted are decrypted with the old
+     * password for that without keeping the cleartext.  Credentials still in the older CryptUtils format are
+     * encrypted again the same way.
+     */
+    synchronized void encryptAll(Configuration c) {
+
+        String newPassPhrase = activeConf.getUnhashedPassword();
+
+        boolean rekey = passPhrase != null && StringUtils.isNotBlank(newPassPhrase) && !passPhrase.equals(newPassPhrase);
+
+        if( logger.isDebugEnabled() && rekey ) {
+            logger.debug("[ENCRYPT] password changed; re-encrypting {} profiles", c.getProfiles().size());
+        }
+
+        for (Profile p : c.getProfiles()) {
+
+            if( !p.getJarsignerConfig().isPresent() ) {
+                continue;
+            }
+
+            JarsignerConfig jc = p.getJarsignerConfig().get();
+            String kp = cleartextToEncrypt(jc.getKeypass(), jc.isKeypassDirty(), jc.getEncryptedKeypass(), rekey);
+            String sp = cleartextToEncrypt(jc.getStorepass(), jc.isStorepassDirty(), jc.getEncryptedStorepass(), rekey);
+            try {
+                if( StringUtils.isNotBlank(kp) ) {
+                    jc.setEncryptedKeypass(cryptUtils.encrypt(kp, newPassPhrase));
+                }
+                if( StringUtils.isNotBlank(sp) ) {
+                    jc.setEncryptedStorepass(cryptUtils.encrypt(sp, newPassPhrase));
+                }
+            } catch(Exception exc) {
+                logger.error( "encryption error", exc );
+            }
+        }
+
+        if( StringUtils.isNotBlank(newPassPhrase) && !newPassPhrase.equals(passPhrase) ) {
+            passPhrase = newPassPhrase;
+            cleartextCache.clear();
+        }
+    }
+
+    /**
+     * @return the cleartext to encrypt for a field or null if its ciphertext can be kept
+     */
+    private String cleartextToEncrypt(String cleartext, boolean dirty, String encrypted, boolean rekey) {
+        if( dirty ) {
+            return cleartext;
+        }
+        boolean legacy = StringUtils.isNotBlank(encrypted) && !cryptUtils.isCurrentFormat(encrypted);
+        if( rekey || legacy ) {
+            return currentCleartext(cleartext, false, encrypted);
+        }
+        return null;
+    }
+
+    private String currentCleartext(String cleartext, boolean dirty, String encrypted) {
+        if( dirty || StringUtils.isNotBlank(cleartext) ) {
+            return cleartext;
+        }
+        return cleartext(encrypted);
+    }
+
+    /**
+     * Decrypts with the cache
+     *
+     * @return cleartext or "" if blank, there's no password yet, or it can't be decrypted
+     */
+    private String cleartext(String encrypted) {
+
+        if( StringUtils.isBlank(encrypted) ) {
+            return "";
+        }
+
+        String pp;
+        synchronized (this) {
+            String cached = cleartextCache.get(encrypted);
+            if( cached != null ) {
+                return cached;
+            }
+            pp = passPhrase;
+        }
+
+        if( pp == null ) {
+            return "";
+        }
+
+        try {
+            String cleartext = cryptUtils.decrypt(encrypted, pp);
+            synchronized (this) {
+                if( pp.equals(passPhrase) ) {
+                    cleartextCache.put(encrypted, cleartext);
+                }
+            }
+            return cleartext;
+        } catch (Exception exc) {
+            logger.error("encryption error", exc);
+            return "";
+        }
+    }
+
+    /**
+     * #1 set the derived field in jarsignerconfig to include encrypted values; only the ones that changed
+     */
+    void encryptCredentials(Profile p) {
         try {
-            for (Profile p : c.getProfiles()) {
-                if (p.getJarsignerConfig().isPresent()) {
-                    JarsignerConfig jc = p.getJarsignerConfig().get();
-                    if( StringUtils.isNotBlank(jc.getKeypass()) ) {
-                        jc.setEncryptedKeypass(cryptUtils.encrypt(jc.getKeypass(), activeConf.getUnhashedPassword()));
-                    }
-                    if( StringUtils.isNotBlank(jc.getStorepass() ) ) {
-                        jc.setEncryptedStorepass(cryptUtils.encrypt(jc.getStorepass(), activeConf.getUnhashedPassword()));
-                    }
+            if (p.getJarsignerConfig().isPresent()) {
+                JarsignerConfig jc = p.getJarsignerConfig().get();
+                if( jc.isKeypassDirty() && StringUtils.isNotBlank(jc.getKeypass()) ) {
+                    jc.setEncryptedKeypass(cryptUtils.encrypt(jc.getKeypass(), activeConf.getUnhashedPassword()));
+                }
+                if( jc.isStorepassDirty() && StringUtils.isNotBlank(jc.getStorepass() ) ) {
+                    jc.setEncryptedStorepass(cryptUtils.encrypt(jc.getStorepass(), activeConf.getUnhashedPassword()));
                 }
             }
         } catch(Exception exc) {
             logger.error( "encryption error", exc );
         }
+    }
 
-        Gson gson = new GsonBuilder().
-                registerTypeAdapter(Configuration.class, new ConfigurationJSONAdapter()).
-                setPrettyPrinting().
-                create();
+    /**
+     * Gives a profile rebuilt from ActiveProfile the ciphertext of the one it replaces where the cleartext is the same
+     */
+    private void reuseCiphertext(Profile previous, Profile saved) {
 
+        if( previous == null || !previous.getJarsignerConfig().isPresent() || !saved.getJarsignerConfig().isPresent() ) {
+            return;
+        }
+
+        JarsignerConfig prev = previous.getJarsignerConfig().get();
+        JarsignerConfig jc = saved.getJarsignerConfig().get();
+
+        if( !prev.isKeypassDirty() && sameCleartext(prev.getKeypass(), prev.getEncryptedKeypass(), jc.getKeypass()) ) {
+            jc.setEncryptedKeypass(prev.getEncryptedKeypass());
+        }
+
+        if( !prev.isStorepassDirty() && sameCleartext(prev.getStorepass(), prev.getEncryptedStorepass(), jc.getStorepass()) ) {
+            jc.setEncryptedStorepass(prev.getEncryptedStorepass());
+        }
+    }
+
+    /**
+     * Compares with the cleartext already in memory for a clean field; doesn't decrypt
+     */
+    private boolean sameCleartext(String cleartext, String encrypted, String newCleartext) {
+        if( StringUtils.isBlank(encrypted) || StringUtils.isBlank(newCleartext) ) {
+            return false;
+        }
+        String known = StringUtils.isNotBlank(cleartext) ? cleartext : cleartextCache.get(encrypted);
+        return newCleartext.equals(known);
+    }
+
+    //
+    // Persistence hooks called holding the monitor after the in-memory Configuration has been changed.  This
+    // class rewrites the whole document for each; JournalConfigurationDataSource records just the change.
+    //
+
+    protected void persistProfile(Profile saved) throws IOException {
+        saveConfiguration();
+    }
+
+    protected void persistDelete(String profileName) throws IOException {
+        saveConfiguration();
+    }
+
+    protected void persistRename(String oldProfileName, Profile renamed) throws IOException {
+        saveConfiguration();
+    }
+
+    /**
+     * Called holding the monitor after the document is read and before ActiveConfiguration is updated from it
+     */
+    protected void configurationLoaded(Configuration cfg) throws IOException {
+    }
+
+    //
+    // Storage hooks.  This class keeps every profile in the config file; ShardedConfigurationDataSource keeps an
+    // index there and reads each profile from its own file when it's first looked up.
+    //
+
+    /**
+     * The file holding the document in the config dir
+     */
+    protected File dataFile(File fullConfigDir) throws IOException {
+        return new File(fullConfigDir, jsonConfigFile);
+    }
+
+    protected Configuration readConfiguration(File cf) throws IOException {
         try (
-                FileWriter fw = new FileWriter(configFile.get())
+                InputStreamReader r = new InputStreamReader(new FileInputStream(cf), JSON_CHARSET)
         ) {
-            try (
-                    JsonWriter jw = new JsonWriter(fw)
-            ) {
-                gson.toJson(configuration.get(), Configuration.class, jw);
+            return GSON.fromJson(r, Configuration.class);
+        }
+    }
+
+    /**
+     * Called holding the monitor to produce what the write-behind puts in the config file
+     */
+    protected byte[] serialize(Configuration c) throws IOException {
+        return toJson(c);
+    }
+
+    /**
+     * Called after the write-behind has replaced the config file; not holding the monitor
+     */
+    protected void configurationWritten() {
+    }
+
+    /**
+     * Names of profiles stored outside of the document that's been read; indexed but not read until looked up
+     */
+    protected List<String> storedProfileNames() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Reads a profile named by storedProfileNames()
+     */
+    protected Profile readProfile(String profileName) throws IOException {
+        throw new IOException("profile " + profileName + " isn't stored separately");
+    }
+
+    @Override
+    public void flush() throws IOException {
+
+        if( logger.isDebugEnabled() ) {
+            logger.debug("[FLUSH]");
+        }
+
+        synchronized (this) {
+            if( pendingWrite != null ) {
+                pendingWrite.cancel(false);  // a write already running finishes before writeIfDirty() gets the lock
             }
         }
+
+        writeIfDirty();
+
+        throwLastWriteError();
+    }
+
+    private void writeBehind() {
+        try {
+            writeIfDirty();
+        } catch(IOException exc) {
+            logger.error("can't write " + configFile.get().getAbsolutePath(), exc);
+            lastWriteError = exc;
+        }
+    }
+
+    /**
+     * Serializes the Configuration holding the monitor and writes it outside of it so that the file I/O doesn't
+     * block the other methods
+     */
+    private void writeIfDirty() throws IOException {
+
+        synchronized (writeLock) {
+
+            byte[] json;
+
+            synchronized (this) {
+
+                pendingWrite = null;
+
+                if( !dirty ) {
+                    return;
+                }
+                dirty = false;
+
+                json = serialize(configuration.get());
+            }
+
+            if( logger.isDebugEnabled() ) {
+                logger.debug("[WRITE] writing {} bytes to {}", json.length, configFile.get().getAbsolutePath());
+            }
+
+            try {
+                AtomicFiles.write(configFile.get().toPath(), json);
+                lastWriteError = null;
+            } catch(IOException exc) {
+                synchronized (this) {
+                    dirty = true;  // retried by the next save or flush
+                }
+                throw exc;
+            }
+
+            configurationWritten();
+        }
+    }
+
+    /**
+     * Serializes the whole document the way it's stored in the config file
+     */
+    static byte[] toJson(Configuration c) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (
+                JsonWriter jw = new JsonWriter(new BufferedWriter(new OutputStreamWriter(baos, JSON_CHARSET)))
+        ) {
+            GSON.toJson(c, Configuration.class, jw);
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * Key for profile names in the index
+     */
+    static String foldName(String profileName) {
+        return StringUtils.lowerCase(profileName, Locale.ROOT);
+    }
+
+    /**
+     * Removes every Profile with the name ignoring case
+     *
+     * @return true if any were removed
+     */
+    private boolean removeProfile(String profileName) {
+        String key = foldName(profileName);
+        Profile removed = profileIndex.remove(key);
+        if( removed == null ) {
+            return false;
+        }
+        unreadProfiles.remove(removed);
+        configuration.get().getProfiles().removeIf(p -> key.equals(foldName(p.getProfileName())));
+        return true;
+    }
+
+    /**
+     * The indexed Profile, reading it if it's stored separately
+     *
+     * A profile that can't be read is dropped from the index.
+     *
+     * @return Profile or null if there isn't one by that name
+     */
+    private Profile lookup(String profileName) {
+
+        String key = foldName(profileName);
+        Profile p = profileIndex.get(key);
+
+        if( p == null || !unreadProfiles.remove(p) ) {
+            return p;
+        }
+
+        try {
+            Profile read = readProfile(p.getProfileName());
+            addProfile(read);
+            return read;
+        } catch(IOException exc) {
+            logger.error("can't read profile " + p.getProfileName(), exc);
+            profileIndex.remove(key);
+            return null;
+        }
+    }
+
+    /**
+     * Reads every profile that's stored separately and not yet looked up
+     */
+    synchronized void readStoredProfiles() {
+        for( Profile p : new ArrayList<>(unreadProfiles) ) {
+            lookup(p.getProfileName());
+        }
+    }
+
+    private void addProfile(Profile p) {
+        configuration.get().getProfiles().add(p);
+        profileIndex.put(foldName(p.getProfileName()), p);
+    }
+
+    /**
+     * A hand-edited or older file may hold names differing only in case; the first one wins like a linear search
+     */
+    private void reindex() {
+        profileIndex.clear();
+        unreadProfiles.clear();
+        if( configuration.isPresent() ) {
+            for( Profile p : configuration.get().getProfiles() ) {
+                profileIndex.putIfAbsent(foldName(p.getProfileName()), p);
+            }
+        }
+        for( String name : storedProfileNames() ) {
+            if( !profileIndex.containsKey(foldName(name)) ) {
+                Profile placeholder = new Profile(name, false, SigningArgumentsType.JAR);
+                profileIndex.put(foldName(name), placeholder);
+                unreadProfiles.add(placeholder);
+            }
+        }
+    }
+
+    File getConfigFile() {
+        return configFile.get();
+    }
+
+    private void throwLastWriteError() throws IOException {
+        IOException exc = lastWriteError;
+        if( exc != null ) {
+            lastWriteError = null;
+            throw new IOException("can't write " + configFile.get().getAbsolutePath(), exc);
+        }
     }
 
     private void initFileSystem() throws IOException {
@@ -287,7 +834,7 @@ public class ConfigurationDataSourceImpl extends BaseManagedDataSource implement
             fullConfigDir.mkdir();
         }
 
-        File cf = new File(fullConfigDir, jsonConfigFile );
+        File cf = dataFile(fullConfigDir);
 
         boolean retval = cf.createNewFile();  // verifies that user can create a file here
 
@@ -303,6 +850,7 @@ public class ConfigurationDataSourceImpl extends BaseManagedDataSource implement
             }
             activeConf.setLastUpdatedDateTime(LocalDateTime.now());
             saveConfiguration();  // empty config
+            flush();
         }
     }
 
@@ -316,12 +864,13 @@ public class ConfigurationDataSourceImpl extends BaseManagedDataSource implement
      *
      * @param configuration
      */
-    void setConfiguration(Optional<Configuration> configuration) {
+    synchronized void setConfiguration(Optional<Configuration> configuration) {
         this.configuration = configuration;
+        reindex();
     }
 
     @Override
-    public void deleteProfile(String profileName) throws IOException {
+    public synchronized void deleteProfile(String profileName) throws IOException {
 
         if( logger.isDebugEnabled() ) {
             logger.debug("[DELETE] deleting profileName={}", profileName);
@@ -336,8 +885,7 @@ public class ConfigurationDataSourceImpl extends BaseManagedDataSource implement
                 );
             }
 
-            Profile key = new Profile(profileName, false, SigningArgumentsType.JAR);  // argsType not important
-            configuration.get().getProfiles().remove(key);
+            removeProfile(profileName);
 
             if( logger.isDebugEnabled() ) {
                 logger.debug("[DELETE] before save # recent={}, # profiles={}",
@@ -346,26 +894,17 @@ public class ConfigurationDataSourceImpl extends BaseManagedDataSource implement
                 );
             }
 
-            saveConfiguration();
+            persistDelete(profileName);
         }
     }
 
     @Override
-    public boolean profileExists(String profileName) {
-        boolean exists = false;
-        if (configuration.isPresent()) {
-            for (Profile p : configuration.get().getProfiles()) {
-                if (StringUtils.equalsIgnoreCase(p.getProfileName(), profileName)) {
-                    exists = true;
-                    break;
-                }
-            }
-        }
-        return exists;
+    public synchronized boolean profileExists(String profileName) {
+        return profileIndex.containsKey(foldName(profileName));
     }
 
     @Override
-    public void renameProfile(String oldProfileName, String newProfileName) throws IOException {
+    public synchronized void renameProfile(String oldProfileName, String newProfileName) throws IOException {
 
         if (logger.isDebugEnabled()) {
             logger.debug("[RENAME] old={}, new={}", oldProfileName, newProfileName);
@@ -393,6 +932,13 @@ public class ConfigurationDataSourceImpl extends BaseManagedDataSource implement
             //
             activeProfile.setProfileName(newProfileName);
 
+            //
+            // drop the old name unless only its case changed; saveProfile() replaces that
+            //
+            if (!foldName(oldProfileName).equals(foldName(newProfileName)) && removeProfile(oldProfileName)) {
+                persistDelete(oldProfileName);
+            }
+
             //
             // save everything to disk
             //
@@ -408,36 +954,38 @@ public class ConfigurationDataSourceImpl extends BaseManagedDataSource implement
             // rename target is not the active record; save directly to dao
             //
 
-            if (configuration.isPresent()) {
-                for (int j = 0; j < configuration.get().getProfiles().size(); j++) {
-                    Profile p = configuration.get().getProfiles().get(j);
-                    if (StringUtils.equalsIgnoreCase(p.getProfileName(), oldProfileName)) {
-                        Profile np = new Profile(newProfileName, p.getReplaceSignatures(), p.getArgsType());
-                        np.setSourceFile(p.getSourceFile());
-                        np.setTargetFile(p.getTargetFile());
-                        np.setJarsignerConfig(p.getJarsignerConfig());
-                        configuration.get().getProfiles().set(j, np);
-                        saveConfiguration();
-                        break;
-                    }
+            Profile p = lookup(oldProfileName);
+
+            if (p != null) {
+
+                if (!foldName(oldProfileName).equals(foldName(newProfileName))) {
+                    removeProfile(newProfileName);  // replaced like a save over it would
                 }
+
+                Profile np = new Profile(newProfileName, p.getReplaceSignatures(), p.getArgsType());
+                np.setSourceFile(p.getSourceFile());
+                np.setTargetFile(p.getTargetFile());
+                np.setJarsignerConfig(p.getJarsignerConfig());
+
+                List<Profile> profiles = configuration.get().getProfiles();
+                profiles.set(profiles.indexOf(p), np);
+                profileIndex.remove(foldName(oldProfileName));
+                profileIndex.put(foldName(newProfileName), np);
+
+                persistRename(oldProfileName, np);
             }
         }
     }
 
     @Override
-    public String suggestUniqueProfileName(String profileName) {
+    public synchronized String suggestUniqueProfileName(String profileName) {
 
         int counter = 2;
 
         do {
             final String pn = profileName + "-" + counter;
 
-            boolean found = configuration.get().getProfiles().
-                    stream().
-                    anyMatch(p -> StringUtils.equalsIgnoreCase(p.getProfileName(), pn));
-
-            if (!found) {
+            if (!profileIndex.containsKey(foldName(pn))) {
                 return pn;
             }
 
@@ -30,6 +30,9 @@ import java.util.Optional;
 /**
  * Converts JSON to and from the Configuration domain object
  *
+ * Builds a JsonObject tree for the whole document.  ConfigurationDataSourceImpl uses the streaming
+ * ConfigurationTypeAdapter which writes the same document.
+ *
  * @author carl_000
  * @since 1.0.0
  */
@@ -161,6 +164,9 @@ public class ConfigurationJSONAdapter implements JsonDeserializer<Configuration>
                 String keypass = "";
                 String keystore = "";
                 Boolean verbose = false;
+                SignerType signerType = SignerType.JARSIGNER;
+                String tsaUrl = JarsignerConfig.DEFAULT_TSA_URL;
+                boolean deferTimestamps = false;
 
                 JsonElement ae = jcObj.get("alias");
                 if( ae != null ) {
@@ -187,9 +193,29 @@ public class ConfigurationJSONAdapter implements JsonDeserializer<Configuration>
                     verbose = ve.getAsBoolean();
                 }
 
+                JsonElement ste = jcObj.get("signerType");
+                if( ste != null ) {
+                    if( StringUtils.equalsIgnoreCase(ste.getAsString(), String.valueOf(SignerType.BUILTIN)) ) {
+                        signerType = SignerType.BUILTIN;
+                    }
+                }
+
+                JsonElement te = jcObj.get("tsaUrl");
+                if( te != null && !te.isJsonNull() ) {
+                    tsaUrl = te.getAsString();
+                }
+
+                JsonElement dte = jcObj.get("deferTimestamps");
+                if( dte != null && !dte.isJsonNull() ) {
+                    deferTimestamps = dte.getAsBoolean();
+                }
+
                 JarsignerConfig jc = new JarsignerConfig(alias, "", "", keystore, verbose );
                 jc.setEncryptedKeypass(keypass);
                 jc.setEncryptedStorepass(storepass);
+                jc.setSignerType(signerType);
+                jc.setTsaUrl(tsaUrl);
+                jc.setDeferTimestamps(deferTimestamps);
 
                 p.setJarsignerConfig( Optional.of(jc) );
             }
@@ -285,6 +311,9 @@ public class ConfigurationJSONAdapter implements JsonDeserializer<Configuration>
 
                 jcObj.addProperty("keystore", jc.getKeystore());
                 jcObj.addProperty("verbose", jc.getVerbose());
+                jcObj.addProperty("signerType", String.valueOf(jc.getSignerType()));
+                jcObj.addProperty("tsaUrl", jc.getTsaUrl());
+                jcObj.addProperty("deferTimestamps", jc.isDeferTimestamps());
                 profileObj.add( "jarsignerConfig", jcObj );
             }
 
@@ -0,0 +1,362 @@
+/*
+ * Copyright 2015 Bekwam, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bekwam.resignator.model;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Optional;
+
+/**
+ * Streams the Configuration domain object to and from JSON
+ *
+ * Reads and writes the same document as ConfigurationJSONAdapter -- same field order, nulls left out -- but goes
+ * straight between the domain objects and the JsonReader / JsonWriter without building a JsonObject tree for the
+ * whole file.  Holds no state so one instance can be registered with a Gson that is shared across loads and saves.
+ *
+ * Unknown fields are skipped.
+ *
+ * @author carl_000
+ */
+public class ConfigurationTypeAdapter extends TypeAdapter<Configuration> {
+
+    private final static Logger logger = LoggerFactory.getLogger(ConfigurationTypeAdapter.class);
+
+    @Override
+    public void write(JsonWriter out, Configuration configuration) throws IOException {
+
+        if( logger.isDebugEnabled() ) {
+            logger.debug("[WRITE] # profiles={}", configuration.getProfiles().size());
+        }
+
+        String lud = "";
+        if( configuration.getLastUpdatedDateTime().isPresent() ) {
+            lud = configuration.getLastUpdatedDateTime().get().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME);
+        }
+
+        out.beginObject();
+        out.name("activeProfile").value(configuration.getActiveProfile().orElse(""));
+        out.name("jdkHome").value(configuration.getJDKHome().orElse(""));
+        out.name("hashedPassword").value(configuration.getHashedPassword().orElse(""));
+        out.name("lastUpdatedDate").value(lud);
+
+        out.name("recentProfiles").beginArray();
+        for( String rp : configuration.getRecentProfiles() ) {
+            out.value(rp);
+        }
+        out.endArray();
+
+        out.name("profiles").beginArray();
+        for( Profile p : configuration.getProfiles() ) {
+            writeProfile(out, p);
+        }
+        out.endArray();
+
+        out.endObject();
+    }
+
+    /**
+     * Also writes the profile records of JournalConfigurationDataSource
+     */
+    void writeProfile(JsonWriter out, Profile p) throws IOException {
+
+        out.beginObject();
+        out.name("profileName").value(p.getProfileName());
+        writeBoolean(out, "replaceSignatures", p.getReplaceSignatures());
+        out.name("argsType").value(String.valueOf(p.getArgsType()));
+
+        if( p.getSourceFile().isPresent() ) {
+            out.name("sourceFile").beginObject();
+            out.name("fileName").value(p.getSourceFile().get().getFileName());
+            out.endObject();
+        }
+
+        if( p.getTargetFile().isPresent() ) {
+            out.name("targetFile").beginObject();
+            out.name("fileName").value(p.getTargetFile().get().getFileName());
+            out.endObject();
+        }
+
+        if( p.getJarsignerConfig().isPresent() ) {
+
+            JarsignerConfig jc = p.getJarsignerConfig().get();
+
+            out.name("jarsignerConfig").beginObject();
+            out.name("alias").value(jc.getAlias());
+
+            //
+            // #1 storepass and keypass become temporary fields while the encrypted fields
+            // are persisted
+            //
+
+            out.name("storepass").value(jc.getEncryptedStorepass());
+            out.name("keypass").value(jc.getEncryptedKeypass());
+
+            out.name("keystore").value(jc.getKeystore());
+            writeBoolean(out, "verbose", jc.getVerbose());
+            out.name("signerType").value(String.valueOf(jc.getSignerType()));
+            out.name("tsaUrl").value(jc.getTsaUrl());
+            out.name("deferTimestamps").value(jc.isDeferTimestamps());
+            out.endObject();
+        }
+
+        out.endObject();
+    }
+
+    /**
+     * JsonWriter has no value(Boolean); a null name/value pair is dropped by the writer like a null String
+     */
+    private void writeBoolean(JsonWriter out, String name, Boolean b) throws IOException {
+        out.name(name);
+        if( b == null ) {
+            out.nullValue();
+        } else {
+            out.value(b.booleanValue());
+        }
+    }
+
+    @Override
+    public Configuration read(JsonReader in) throws IOException {
+
+        if( logger.isDebugEnabled() ) {
+            logger.debug("[READ]");
+        }
+
+        String ap = "";
+        String jdkHome = "";
+        String hp = "";
+        LocalDateTime lastUpdatedDate = null;
+
+        Configuration conf = new Configuration();
+
+        in.beginObject();
+        while( in.hasNext() ) {
+            String name = in.nextName();
+            if( in.peek() == JsonToken.NULL ) {
+                in.nextNull();
+                continue;
+            }
+            switch( name ) {
+                case "activeProfile":
+                    ap = readString(in);
+                    break;
+                case "jdkHome":
+                    jdkHome = readString(in);
+                    break;
+                case "hashedPassword":
+                    hp = readString(in);
+                    break;
+                case "lastUpdatedDate":
+                    String lud = readString(in);
+                    if( StringUtils.isNotEmpty(lud) ) {
+                        lastUpdatedDate = LocalDateTime.parse(lud, DateTimeFormatter.ISO_LOCAL_DATE_TIME);
+                    }
+                    break;
+                case "recentProfiles":
+                    in.beginArray();
+                    while( in.hasNext() ) {
+                        conf.getRecentProfiles().add(readString(in));
+                    }
+                    in.endArray();
+                    break;
+                case "profiles":
+                    in.beginArray();
+                    while( in.hasNext() ) {
+                        conf.getProfiles().add(readProfile(in));
+                    }
+                    in.endArray();
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+
+        if( logger.isDebugEnabled() ) {
+            logger.debug("[READ] ap={}, jdkHome={}, # recent={}, # profiles={}",
+                    ap, jdkHome, conf.getRecentProfiles().size(), conf.getProfiles().size());
+        }
+
+        conf.setActiveProfile(Optional.of(ap));
+        conf.setJDKHome(Optional.of(jdkHome));
+        conf.setHashedPassword(Optional.of(hp));
+        conf.setLastUpdatedDateTime(Optional.ofNullable(lastUpdatedDate));
+        return conf;
+    }
+
+    Profile readProfile(JsonReader in) throws IOException {
+
+        String profileName = null;
+        Boolean rs = Boolean.FALSE;
+        SigningArgumentsType argsType = SigningArgumentsType.JAR;
+        Optional<SourceFile> sourceFile = Optional.empty();
+        Optional<TargetFile> targetFile = Optional.empty();
+        Optional<JarsignerConfig> jarsignerConfig = Optional.empty();
+
+        in.beginObject();
+        while( in.hasNext() ) {
+            String name = in.nextName();
+            if( in.peek() == JsonToken.NULL ) {
+                in.nextNull();
+                continue;
+            }
+            switch( name ) {
+                case "profileName":
+                    profileName = readString(in);
+                    break;
+                case "replaceSignatures":
+                    rs = readBoolean(in);
+                    break;
+                case "argsType":
+                    if( StringUtils.equalsIgnoreCase(readString(in), String.valueOf(SigningArgumentsType.FOLDER)) ) {
+                        argsType = SigningArgumentsType.FOLDER;
+                    }
+                    break;
+                case "sourceFile":
+                    String sfn = readFileName(in);
+                    if( sfn != null ) {
+                        sourceFile = Optional.of(new SourceFile(sfn));
+                    }
+                    break;
+                case "targetFile":
+                    String tfn = readFileName(in);
+                    if( tfn != null ) {
+                        targetFile = Optional.of(new TargetFile(tfn));
+                    }
+                    break;
+                case "jarsignerConfig":
+                    jarsignerConfig = Optional.of(readJarsignerConfig(in));
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+
+        if( profileName == null ) {
+            throw new IOException("profile without a profileName at " + in.getPath());
+        }
+
+        Profile p = new Profile(profileName, rs, argsType);
+        p.setSourceFile(sourceFile);
+        p.setTargetFile(targetFile);
+        p.setJarsignerConfig(jarsignerConfig);
+        return p;
+    }
+
+    private String readFileName(JsonReader in) throws IOException {
+
+        String fileName = null;
+
+        in.beginObject();
+        while( in.hasNext() ) {
+            String name = in.nextName();
+            if( "fileName".equals(name) && in.peek() != JsonToken.NULL ) {
+                fileName = readString(in);
+            } else {
+                in.skipValue();
+            }
+        }
+        in.endObject();
+
+        return fileName;
+    }
+
+    private JarsignerConfig readJarsignerConfig(JsonReader in) throws IOException {
+
+        String alias = "";
+        String storepass = "";
+        String keypass = "";
+        String keystore = "";
+        Boolean verbose = false;
+        SignerType signerType = SignerType.JARSIGNER;
+        String tsaUrl = JarsignerConfig.DEFAULT_TSA_URL;
+        Boolean deferTimestamps = false;
+
+        in.beginObject();
+        while( in.hasNext() ) {
+            String name = in.nextName();
+            if( in.peek() == JsonToken.NULL ) {
+                in.nextNull();
+                continue;
+            }
+            switch( name ) {
+                case "alias":
+                    alias = readString(in);
+                    break;
+                case "storepass":
+                    storepass = readString(in);
+                    break;
+                case "keypass":
+                    keypass = readString(in);
+                    break;
+                case "keystore":
+                    keystore = readString(in);
+                    break;
+                case "verbose":
+                    verbose = readBoolean(in);
+                    break;
+                case "signerType":
+                    if( StringUtils.equalsIgnoreCase(readString(in), String.valueOf(SignerType.BUILTIN)) ) {
+                        signerType = SignerType.BUILTIN;
+                    }
+                    break;
+                case "tsaUrl":
+                    tsaUrl = readString(in);
+                    break;
+                case "deferTimestamps":
+                    deferTimestamps = readBoolean(in);
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+
+        JarsignerConfig jc = new JarsignerConfig(alias, "", "", keystore, verbose);
+        jc.setEncryptedKeypass(keypass);
+        jc.setEncryptedStorepass(storepass);
+        jc.setSignerType(signerType);
+        jc.setTsaUrl(tsaUrl);
+        jc.setDeferTimestamps(Boolean.TRUE.equals(deferTimestamps));
+        return jc;
+    }
+
+    /**
+     * Accepts a boolean written as a string or a string written as a boolean like JsonPrimitive does
+     */
+    private String readString(JsonReader in) throws IOException {
+        if( in.peek() == JsonToken.BOOLEAN ) {
+            return String.valueOf(in.nextBoolean());
+        }
+        return in.nextString();
+    }
+
+    private Boolean readBoolean(JsonReader in) throws IOException {
+        if( in.peek() == JsonToken.STRING ) {
+            return Boolean.parseBoolean(in.nextString());
+        }
+        return in.nextBoolean();
+    }
+}
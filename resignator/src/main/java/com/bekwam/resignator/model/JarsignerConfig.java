@@ -22,6 +22,8 @@ import org.apache.commons.lang3.StringUtils;
  */
 public class JarsignerConfig {
 
+    public final static String DEFAULT_TSA_URL = "http://timestamp.digicert.com";
+
     private final String alias;
     private final Boolean verbose;
     private final String keystore;
@@ -30,6 +32,15 @@ public class JarsignerConfig {
     private String storepass;
     private String encryptedStorepass;
     private String encryptedKeypass;
+    private SignerType signerType = SignerType.JARSIGNER;
+    private String tsaUrl = DEFAULT_TSA_URL;  // blank for no timestamp
+    private boolean deferTimestamps;  // folder batches are timestamped after every JAR is signed (builtin signer)
+
+    //
+    // true when the cleartext was set after the encrypted field and so needs encrypting on the next save
+    //
+    private boolean keypassDirty;
+    private boolean storepassDirty;
 
     public JarsignerConfig(String alias, String storepass, String keypass, String keystore, Boolean verbose) {
         this.alias = alias;
@@ -37,6 +48,8 @@ public class JarsignerConfig {
         this.keypass = keypass;
         this.keystore = keystore;
         this.verbose = verbose;
+        this.storepassDirty = StringUtils.isNotEmpty(storepass);
+        this.keypassDirty = StringUtils.isNotEmpty(keypass);
     }
 
     public String getAlias() {
@@ -47,13 +60,19 @@ public class JarsignerConfig {
         return storepass;
     }
 
-    public void setStorepass(String storepass) { this.storepass = storepass; }
+    public void setStorepass(String storepass) {
+        this.storepass = storepass;
+        this.storepassDirty = true;
+    }
 
     public String getKeypass() {
         return keypass;
     }
 
-    public void setKeypass(String keypass) { this.keypass = keypass; }
+    public void setKeypass(String keypass) {
+        this.keypass = keypass;
+        this.keypassDirty = true;
+    }
 
     public String getKeystore() {
         return keystore;
@@ -67,16 +86,56 @@ public class JarsignerConfig {
         return encryptedStorepass;
     }
 
+    /**
+     * Also marks storepass as matching the encrypted value
+     */
     public void setEncryptedStorepass(String encryptedStorepass) {
         this.encryptedStorepass = encryptedStorepass;
+        this.storepassDirty = false;
     }
 
     public String getEncryptedKeypass() {
         return encryptedKeypass;
     }
 
+    /**
+     * Also marks keypass as matching the encrypted value
+     */
     public void setEncryptedKeypass(String encryptedKeypass) {
         this.encryptedKeypass = encryptedKeypass;
+        this.keypassDirty = false;
+    }
+
+    public boolean isStorepassDirty() {
+        return storepassDirty;
+    }
+
+    public boolean isKeypassDirty() {
+        return keypassDirty;
+    }
+
+    public SignerType getSignerType() {
+        return signerType;
+    }
+
+    public void setSignerType(SignerType signerType) {
+        this.signerType = signerType;
+    }
+
+    public String getTsaUrl() {
+        return tsaUrl;
+    }
+
+    public void setTsaUrl(String tsaUrl) {
+        this.tsaUrl = tsaUrl;
+    }
+
+    public boolean isDeferTimestamps() {
+        return deferTimestamps;
+    }
+
+    public void setDeferTimestamps(boolean deferTimestamps) {
+        this.deferTimestamps = deferTimestamps;
     }
 
     @Override
@@ -88,7 +147,10 @@ public class JarsignerConfig {
                 ", keystore='" + keystore + '\'' +
                 ", verbose=" + verbose + '\'' +
                 ", encStorepass not empty?='" + StringUtils.isNotEmpty(encryptedStorepass) + '\'' +
-                ", encKeypass not empty?='" + StringUtils.isNotEmpty(encryptedKeypass) +
+                ", encKeypass not empty?='" + StringUtils.isNotEmpty(encryptedKeypass) + '\'' +
+                ", signerType=" + signerType +
+                ", tsaUrl='" + tsaUrl + '\'' +
+                ", deferTimestamps=" + deferTimestamps +
                 '}';
     }
 }
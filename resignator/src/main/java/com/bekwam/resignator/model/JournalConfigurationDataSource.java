@@ -0,0 +1,312 @@
+/*
+ * Copyright 2015 Bekwam, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bekwam.resignator.model;
+
+import com.bekwam.resignator.util.AtomicFiles;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * ConfigurationDataSource that appends each profile change to a journal next to the config file
+ *
+ * The config file is the snapshot.  Saving, deleting, or renaming a profile appends one line of JSON per record
+ * and fsyncs the journal rather than re-encrypting and rewriting every profile.  Loading replays the journal over
+ * the snapshot.  After COMPACT_AFTER_RECORDS records, and whenever saveConfiguration() is called for a settings or
+ * password change, the whole document is written as a new snapshot and the journal is removed.
+ *
+ * Every record replaces or removes by profile name (RENAME is a remove of the old name plus an upsert of the new)
+ * so replaying records that a snapshot already holds -- a crash between the snapshot and the journal removal --
+ * gives the same result.  A torn last line is dropped.
+ *
+ * Selected with -Dresignator.configStore=journal.
+ *
+ * @author carl_000
+ */
+@Singleton
+public class JournalConfigurationDataSource extends ConfigurationDataSourceImpl {
+
+    private final static Logger logger = LoggerFactory.getLogger(JournalConfigurationDataSource.class);
+
+    private final static String JOURNAL_SUFFIX = ".journal";
+    private final static int COMPACT_AFTER_RECORDS = 500;
+
+    private final static String OP_SETTINGS = "SETTINGS";
+    private final static String OP_UPSERT = "UPSERT";
+    private final static String OP_DELETE = "DELETE";
+    private final static String OP_RENAME = "RENAME";
+
+    private final ConfigurationTypeAdapter adapter = new ConfigurationTypeAdapter();
+
+    private int journalRecords;  // guarded by this
+
+    /**
+     * Settings and password changes re-encrypt every profile so they're written as a new snapshot
+     */
+    @Override
+    public synchronized void saveConfiguration() throws IOException {
+
+        Configuration c = getConfiguration();
+
+        mergeActiveConfiguration(c);
+
+        encryptAll(c);
+
+        compact();
+    }
+
+    @Override
+    protected void persistProfile(Profile saved) throws IOException {
+        encryptCredentials(saved);
+        append(settingsRecord(), record(OP_UPSERT, null, saved));
+    }
+
+    @Override
+    protected void persistDelete(String profileName) throws IOException {
+        append(settingsRecord(), record(OP_DELETE, profileName, null));
+    }
+
+    @Override
+    protected void persistRename(String oldProfileName, Profile renamed) throws IOException {
+        append(settingsRecord(), record(OP_RENAME, oldProfileName, renamed));
+    }
+
+    @Override
+    protected void configurationLoaded(Configuration cfg) throws IOException {
+
+        Path journal = getJournalFile();
+
+        journalRecords = 0;
+
+        if( !Files.exists(journal) ) {
+            return;
+        }
+
+        byte[] bytes = Files.readAllBytes(journal);
+
+        int start = 0;
+        int end;
+        while( (end = indexOf(bytes, (byte)'\n', start)) != -1 ) {
+            String line = new String(bytes, start, end - start, StandardCharsets.UTF_8);
+            try {
+                replay(cfg, line);
+            } catch(IOException | RuntimeException exc) {
+                logger.warn("ignoring journal " + journal + " from record " + (journalRecords + 1), exc);
+                break;
+            }
+            journalRecords++;
+            start = end + 1;
+        }
+
+        if( start < bytes.length ) {
+            logger.warn("dropping {} bytes of a partial record from journal {}", bytes.length - start, journal);
+            try (
+                    FileChannel ch = FileChannel.open(journal, StandardOpenOption.WRITE)
+            ) {
+                ch.truncate(start);
+                ch.force(true);
+            }
+        }
+
+        if( logger.isDebugEnabled() ) {
+            logger.debug("[LOAD] replayed {} journal records", journalRecords);
+        }
+
+        if( journalRecords >= COMPACT_AFTER_RECORDS ) {
+            compact();
+        }
+    }
+
+    @Override
+    public void deleteDataFile() {
+        super.deleteDataFile();
+        getJournalFile().toFile().deleteOnExit();
+    }
+
+    Path getJournalFile() {
+        return getConfigFile().toPath().resolveSibling(getConfigFile().getName() + JOURNAL_SUFFIX);
+    }
+
+    /**
+     * Writes the whole document as the new snapshot and then removes the journal it includes
+     */
+    private void compact() throws IOException {
+
+        if( logger.isDebugEnabled() ) {
+            logger.debug("[COMPACT] # journal records={}", journalRecords);
+        }
+
+        AtomicFiles.write(getConfigFile().toPath(), toJson(getConfiguration()));
+        Files.deleteIfExists(getJournalFile());
+        journalRecords = 0;
+    }
+
+    private void append(String... records) throws IOException {
+
+        StringBuilder sb = new StringBuilder();
+        for( String r : records ) {
+            sb.append(r).append('\n');  // JsonWriter escapes newlines in values so a record is one line
+        }
+
+        try (
+                FileChannel ch = FileChannel.open(getJournalFile(),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)
+        ) {
+            ByteBuffer buf = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+            while( buf.hasRemaining() ) {
+                ch.write(buf);
+            }
+            ch.force(false);
+        }
+
+        journalRecords += records.length;
+
+        if( journalRecords >= COMPACT_AFTER_RECORDS ) {
+            compact();
+        }
+    }
+
+    /**
+     * The top-level fields of the Configuration after merging in ActiveConfiguration
+     */
+    private String settingsRecord() throws IOException {
+
+        Configuration c = getConfiguration();
+        mergeActiveConfiguration(c);
+
+        Configuration settings = new Configuration();
+        settings.setActiveProfile(c.getActiveProfile());
+        settings.setJDKHome(c.getJDKHome());
+        settings.getRecentProfiles().addAll(c.getRecentProfiles());
+        settings.setHashedPassword(c.getHashedPassword());
+        settings.setLastUpdatedDateTime(c.getLastUpdatedDateTime());
+
+        StringWriter sw = new StringWriter();
+        try (
+                JsonWriter out = new JsonWriter(sw)
+        ) {
+            out.beginObject();
+            out.name("op").value(OP_SETTINGS);
+            out.name("configuration");
+            adapter.write(out, settings);
+            out.endObject();
+        }
+        return sw.toString();
+    }
+
+    private String record(String op, String profileName, Profile profile) throws IOException {
+
+        StringWriter sw = new StringWriter();
+        try (
+                JsonWriter out = new JsonWriter(sw)
+        ) {
+            out.beginObject();
+            out.name("op").value(op);
+            if( profileName != null ) {
+                out.name("profileName").value(profileName);
+            }
+            if( profile != null ) {
+                out.name("profile");
+                adapter.writeProfile(out, profile);
+            }
+            out.endObject();
+        }
+        return sw.toString();
+    }
+
+    private void replay(Configuration cfg, String line) throws IOException {
+
+        String op = null;
+        String profileName = null;
+        Profile profile = null;
+        Configuration settings = null;
+
+        try (
+                JsonReader in = new JsonReader(new StringReader(line))
+        ) {
+            in.beginObject();
+            while( in.hasNext() ) {
+                switch( in.nextName() ) {
+                    case "op":
+                        op = in.nextString();
+                        break;
+                    case "profileName":
+                        profileName = in.nextString();
+                        break;
+                    case "profile":
+                        profile = adapter.readProfile(in);
+                        break;
+                    case "configuration":
+                        settings = adapter.read(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+        }
+
+        if( OP_SETTINGS.equals(op) && settings != null ) {
+            cfg.setActiveProfile(settings.getActiveProfile());
+            cfg.setJDKHome(settings.getJDKHome());
+            cfg.getRecentProfiles().clear();
+            cfg.getRecentProfiles().addAll(settings.getRecentProfiles());
+            cfg.setHashedPassword(settings.getHashedPassword());
+            cfg.setLastUpdatedDateTime(settings.getLastUpdatedDateTime());
+        } else if( OP_UPSERT.equals(op) && profile != null ) {
+            remove(cfg, profile.getProfileName());
+            cfg.getProfiles().add(profile);
+        } else if( OP_DELETE.equals(op) && profileName != null ) {
+            remove(cfg, profileName);
+        } else if( OP_RENAME.equals(op) && profileName != null && profile != null ) {
+            remove(cfg, profileName);
+            remove(cfg, profile.getProfileName());
+            cfg.getProfiles().add(profile);
+        } else {
+            throw new IOException("unrecognized journal record " + StringUtils.abbreviate(line, 80));
+        }
+    }
+
+    /**
+     * Same case-insensitive match as the profile index
+     */
+    private void remove(Configuration cfg, String profileName) {
+        String key = foldName(profileName);
+        cfg.getProfiles().removeIf(p -> key.equals(foldName(p.getProfileName())));
+    }
+
+    private static int indexOf(byte[] bytes, byte b, int from) {
+        for( int i = from; i < bytes.length; i++ ) {
+            if( bytes[i] == b ) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
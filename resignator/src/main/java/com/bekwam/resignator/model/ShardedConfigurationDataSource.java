@@ -0,0 +1,402 @@
+/*
+ * Copyright 2015 Bekwam, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bekwam.resignator.model;
+
+import com.bekwam.resignator.util.AtomicFiles;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Singleton;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * ConfigurationDataSource that stores each profile in its own file under the profiles dir
+ *
+ * profiles/index.json holds the settings (active profile, recent profiles, JDK home, password hash) and the
+ * profile names.  Loading reads only the index; a profile's file is read the first time the profile is looked up
+ * so startup doesn't parse every profile.  Saving a profile writes its file and schedules the index write.  A
+ * password change reads and re-encrypts every profile.
+ *
+ * The file for a profile is named from the SHA-256 of its case-folded name.  A file holding another profile is never
+ * overwritten.  A deleted or renamed profile's file is removed once an index without that name has been written so
+ * that the index never names a missing file.
+ *
+ * The first time this is used, the profiles in resignator.json are copied into the profiles dir.
+ * resignator.json is left as it was.
+ *
+ * Selected with -Dresignator.configStore=sharded.
+ *
+ * @author carl_000
+ */
+@Singleton
+public class ShardedConfigurationDataSource extends ConfigurationDataSourceImpl {
+
+    private final static Logger logger = LoggerFactory.getLogger(ShardedConfigurationDataSource.class);
+
+    private final static String PROFILES_DIR = "profiles";
+    private final static String INDEX_FILE = "index.json";
+
+    private final ConfigurationTypeAdapter adapter = new ConfigurationTypeAdapter();
+
+    private List<String> indexedNames = new ArrayList<>();  // from the last index read; guarded by this
+
+    private final Set<String> pendingDeletes = new HashSet<>();  // folded names; guarded by this
+    private final Set<String> deletableAfterWrite = new HashSet<>();  // guarded by this
+
+    @Override
+    public void init() throws Exception {
+        importConfigFile();
+        super.init();
+    }
+
+    @Override
+    public synchronized void saveConfiguration() throws IOException {
+        save(null);
+    }
+
+    @Override
+    protected void persistProfile(Profile saved) throws IOException {
+        pendingDeletes.remove(foldName(saved.getProfileName()));
+        save(saved);
+    }
+
+    @Override
+    protected void persistDelete(String profileName) throws IOException {
+        pendingDeletes.add(foldName(profileName));
+        save(null);
+    }
+
+    @Override
+    protected void persistRename(String oldProfileName, Profile renamed) throws IOException {
+        if( !foldName(oldProfileName).equals(foldName(renamed.getProfileName())) ) {
+            pendingDeletes.add(foldName(oldProfileName));
+        }
+        pendingDeletes.remove(foldName(renamed.getProfileName()));
+        save(renamed);
+    }
+
+    @Override
+    protected File dataFile(File fullConfigDir) throws IOException {
+        return new File(profilesDir(fullConfigDir), INDEX_FILE);
+    }
+
+    @Override
+    protected Configuration readConfiguration(File cf) throws IOException {
+
+        Configuration settings = null;
+        List<String> names = new ArrayList<>();
+
+        try (
+                JsonReader in = new JsonReader(Files.newBufferedReader(cf.toPath()))
+        ) {
+            in.beginObject();
+            while( in.hasNext() ) {
+                switch( in.nextName() ) {
+                    case "configuration":
+                        settings = adapter.read(in);
+                        break;
+                    case "profileNames":
+                        in.beginArray();
+                        while( in.hasNext() ) {
+                            names.add(in.nextString());
+                        }
+                        in.endArray();
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+        }
+
+        if( settings == null ) {
+            throw new IOException("no configuration in " + cf.getAbsolutePath());
+        }
+
+        if( logger.isDebugEnabled() ) {
+            logger.debug("[READ INDEX] # profiles={}", names.size());
+        }
+
+        synchronized (this) {
+            indexedNames = names;
+        }
+
+        return settings;
+    }
+
+    @Override
+    protected synchronized List<String> storedProfileNames() {
+        return indexedNames;
+    }
+
+    @Override
+    protected Profile readProfile(String profileName) throws IOException {
+
+        Path shard = shardFile(profileName);
+
+        Profile p;
+        try (
+                JsonReader in = new JsonReader(Files.newBufferedReader(shard))
+        ) {
+            p = adapter.readProfile(in);
+        }
+
+        if( p == null || !foldName(profileName).equals(foldName(p.getProfileName())) ) {
+            throw new IOException(shard + " doesn't hold profile " + profileName);
+        }
+
+        return p;
+    }
+
+    /**
+     * The index; profiles are written to their own files
+     */
+    @Override
+    protected byte[] serialize(Configuration c) throws IOException {
+        deletableAfterWrite.addAll(pendingDeletes);
+        pendingDeletes.clear();
+        return indexJson(c, getProfileNames());
+    }
+
+    @Override
+    protected void configurationWritten() {
+        synchronized (this) {
+            for( String folded : deletableAfterWrite ) {
+                if( profileExists(folded) ) {
+                    continue;  // saved again since
+                }
+                try {
+                    Files.deleteIfExists(shardFile(folded));
+                } catch(IOException exc) {
+                    logger.warn("can't delete profile file for " + folded, exc);
+                }
+            }
+            deletableAfterWrite.clear();
+        }
+    }
+
+    @Override
+    public void deleteDataFile() {
+        super.deleteDataFile();
+        File[] shards = getConfigFile().getParentFile().listFiles();
+        if( shards != null ) {
+            for( File f : shards ) {
+                f.deleteOnExit();
+            }
+        }
+    }
+
+    Path shardFile(String profileName) {
+        return getConfigFile().toPath().resolveSibling(shardFileName(profileName));
+    }
+
+    /**
+     * A file name that's the same for every case of the profile name
+     */
+    static String shardFileName(String profileName) {
+
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256").digest(foldName(profileName).getBytes(StandardCharsets.UTF_8));
+        } catch(NoSuchAlgorithmException exc) {
+            throw new IllegalStateException("SHA-256 not available", exc);  // required of every JRE
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for( byte b : digest ) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.append(".json").toString();
+    }
+
+    /**
+     * Throws if the file for the profile already holds another profile
+     *
+     * A file that can't be read is overwritten.
+     */
+    private void checkShard(Path shard, String profileName) throws IOException {
+
+        if( !Files.exists(shard) ) {
+            return;
+        }
+
+        Profile existing;
+        try (
+                JsonReader in = new JsonReader(Files.newBufferedReader(shard))
+        ) {
+            existing = adapter.readProfile(in);
+        } catch(IOException | RuntimeException exc) {
+            logger.warn("can't read " + shard + "; overwriting it with profile " + profileName, exc);
+            return;
+        }
+
+        if( existing != null && !foldName(profileName).equals(foldName(existing.getProfileName())) ) {
+            throw new IOException(shard + " holds profile " + existing.getProfileName() + "; not writing profile " +
+                    profileName);
+        }
+    }
+
+    /**
+     * Merges ActiveConfiguration, encrypts, and writes the file of every profile whose credentials were encrypted
+     * plus alsoWrite
+     */
+    private void save(Profile alsoWrite) throws IOException {
+
+        Configuration c = getConfiguration();
+
+        String storedHash = c.getHashedPassword().orElse("");
+        if( StringUtils.isNotBlank(storedHash) && !storedHash.equals(activeConf.getHashedPassword()) ) {
+            if( logger.isDebugEnabled() ) {
+                logger.debug("[SAVE] password changed; reading every profile to re-encrypt");
+            }
+            readStoredProfiles();
+        }
+
+        Map<Profile, String> before = new IdentityHashMap<>();
+        for( Profile p : c.getProfiles() ) {
+            before.put(p, ciphertexts(p));
+        }
+
+        super.saveConfiguration();  // merges, encrypts, and schedules the index
+
+        for( Profile p : c.getProfiles() ) {
+            if( p == alsoWrite || !Objects.equals(before.get(p), ciphertexts(p)) ) {
+                writeShard(p);
+            }
+        }
+    }
+
+    private void writeShard(Profile p) throws IOException {
+
+        if( logger.isDebugEnabled() ) {
+            logger.debug("[WRITE PROFILE] {} to {}", p.getProfileName(), shardFileName(p.getProfileName()));
+        }
+
+        Path shard = shardFile(p.getProfileName());
+        checkShard(shard, p.getProfileName());
+        AtomicFiles.write(shard, profileJson(p));
+    }
+
+    private byte[] profileJson(Profile p) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (
+                JsonWriter out = new JsonWriter(new OutputStreamWriter(baos, StandardCharsets.UTF_8))
+        ) {
+            adapter.writeProfile(out, p);
+        }
+        return baos.toByteArray();
+    }
+
+    private String ciphertexts(Profile p) {
+        if( !p.getJarsignerConfig().isPresent() ) {
+            return "";
+        }
+        JarsignerConfig jc = p.getJarsignerConfig().get();
+        return jc.getEncryptedKeypass() + "\n" + jc.getEncryptedStorepass();
+    }
+
+    private byte[] indexJson(Configuration c, Collection<String> names) throws IOException {
+
+        Configuration settings = new Configuration();
+        settings.setActiveProfile(c.getActiveProfile());
+        settings.setJDKHome(c.getJDKHome());
+        settings.getRecentProfiles().addAll(c.getRecentProfiles());
+        settings.setHashedPassword(c.getHashedPassword());
+        settings.setLastUpdatedDateTime(c.getLastUpdatedDateTime());
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (
+                JsonWriter out = new JsonWriter(new OutputStreamWriter(baos, StandardCharsets.UTF_8))
+        ) {
+            out.beginObject();
+            out.name("configuration");
+            adapter.write(out, settings);
+            out.name("profileNames");
+            out.beginArray();
+            for( String name : names ) {
+                out.value(name);
+            }
+            out.endArray();
+            out.endObject();
+        }
+        return baos.toByteArray();
+    }
+
+    private File profilesDir(File fullConfigDir) throws IOException {
+        File dir = new File(fullConfigDir, PROFILES_DIR);
+        if( !dir.isDirectory() && !dir.mkdirs() ) {
+            throw new IOException("can't create " + dir.getAbsolutePath());
+        }
+        return dir;
+    }
+
+    /**
+     * Splits resignator.json into profile files and an index if there's no index yet
+     */
+    private void importConfigFile() throws IOException {
+
+        File fullConfigDir = new File(System.getProperty("user.home"), configDir);
+        File configFile = new File(fullConfigDir, jsonConfigFile);
+
+        if( !configFile.isFile() || configFile.length() == 0 ) {
+            return;
+        }
+
+        File index = dataFile(fullConfigDir);
+        if( index.exists() ) {
+            return;
+        }
+
+        Configuration c = super.readConfiguration(configFile);
+
+        if( logger.isInfoEnabled() ) {
+            logger.info("[IMPORT] copying {} profiles from {}", c.getProfiles().size(), configFile.getAbsolutePath());
+        }
+
+        Set<String> folded = new HashSet<>();
+        List<String> names = new ArrayList<>();
+        for( Profile p : c.getProfiles() ) {
+            if( !folded.add(foldName(p.getProfileName())) ) {
+                continue;  // same name in another case; the first one wins like the index
+            }
+            Path shard = index.toPath().resolveSibling(shardFileName(p.getProfileName()));
+            checkShard(shard, p.getProfileName());
+            AtomicFiles.write(shard, profileJson(p));
+            names.add(p.getProfileName());
+        }
+
+        AtomicFiles.write(index.toPath(), indexJson(c, names));  // last so an interrupted import is redone
+    }
+}
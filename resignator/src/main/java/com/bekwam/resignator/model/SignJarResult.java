@@ -0,0 +1,76 @@
+/*
+ * Copyright 2015 Bekwam, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bekwam.resignator.model;
+
+import com.google.common.base.Preconditions;
+
+import java.nio.file.Path;
+import java.util.Optional;
+
+/**
+ * Outcome of signing one JAR in a batch
+ *
+ * @author carl_000
+ */
+public class SignJarResult {
+
+    private final Path sourceJar;
+    private final Path targetJar;
+    private final Optional<String> errorMessage;
+    private final long elapsedMillis;
+
+    public SignJarResult(Path sourceJar, Path targetJar, Optional<String> errorMessage, long elapsedMillis) {
+
+        Preconditions.checkNotNull(sourceJar);
+        Preconditions.checkNotNull(targetJar);
+        Preconditions.checkNotNull(errorMessage);
+
+        this.sourceJar = sourceJar;
+        this.targetJar = targetJar;
+        this.errorMessage = errorMessage;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    public Path getSourceJar() {
+        return sourceJar;
+    }
+
+    public Path getTargetJar() {
+        return targetJar;
+    }
+
+    public Optional<String> getErrorMessage() {
+        return errorMessage;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    public boolean isSucceeded() {
+        return !errorMessage.isPresent();
+    }
+
+    @Override
+    public String toString() {
+        return "SignJarResult{" +
+                "sourceJar=" + sourceJar +
+                ", targetJar=" + targetJar +
+                ", errorMessage=" + errorMessage +
+                ", elapsedMillis=" + elapsedMillis +
+                '}';
+    }
+}
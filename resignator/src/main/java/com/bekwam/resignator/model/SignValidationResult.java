@@ -0,0 +1,94 @@
+/*
+ * Copyright 2015 Bekwam, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bekwam.resignator.model;
+
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of checking a profile before signing
+ *
+ * @author carl_000
+ */
+public class SignValidationResult {
+
+    public enum Field { SOURCE, TARGET, KEYSTORE, STOREPASS, ALIAS, KEYPASS }
+
+    public final static SignValidationResult VALID = new SignValidationResult(Collections.emptyList());
+
+    /**
+     * One reason the profile can't be signed with
+     */
+    public static class Problem {
+
+        private final Field field;
+        private final String message;
+
+        public Problem(Field field, String message) {
+
+            Preconditions.checkNotNull(field);
+            Preconditions.checkNotNull(message);
+
+            this.field = field;
+            this.message = message;
+        }
+
+        public Field getField() {
+            return field;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        @Override
+        public String toString() {
+            return "Problem{" +
+                    "field=" + field +
+                    ", message='" + message + '\'' +
+                    '}';
+        }
+    }
+
+    private final List<Problem> problems;
+
+    public SignValidationResult(List<Problem> problems) {
+        Preconditions.checkNotNull(problems);
+        this.problems = Collections.unmodifiableList(new ArrayList<>(problems));
+    }
+
+    public static SignValidationResult of(Field field, String message) {
+        return new SignValidationResult(Collections.singletonList(new Problem(field, message)));
+    }
+
+    public boolean isValid() {
+        return problems.isEmpty();
+    }
+
+    public List<Problem> getProblems() {
+        return problems;
+    }
+
+    @Override
+    public String toString() {
+        return "SignValidationResult{" +
+                "problems=" + problems +
+                '}';
+    }
+}
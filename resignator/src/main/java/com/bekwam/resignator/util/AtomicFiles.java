@@ -0,0 +1,88 @@
+/*
+ * Copyright 2015 Bekwam, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bekwam.resignator.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Replaces a file so that readers and a crash mid-write see either the old or the new contents, never a mix
+ *
+ * @author carl_000
+ */
+public class AtomicFiles {
+
+    private final static Logger logger = LoggerFactory.getLogger(AtomicFiles.class);
+
+    /**
+     * Writes bytes to a temp file next to target, fsyncs it, and moves it over target
+     *
+     * @param target file to create or replace
+     * @param bytes full new contents
+     * @throws IOException writing or moving; target is unchanged
+     */
+    public static void write(Path target, byte[] bytes) throws IOException {
+
+        Path tempFile = JarUtils.createSiblingTempFile(target);
+
+        try {
+            try (
+                    FileChannel ch = FileChannel.open(tempFile, StandardOpenOption.WRITE)
+            ) {
+                ByteBuffer buf = ByteBuffer.wrap(bytes);
+                while( buf.hasRemaining() ) {
+                    ch.write(buf);
+                }
+                ch.force(true);
+            }
+
+            try {
+                Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch(AtomicMoveNotSupportedException exc) {
+                Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch(IOException exc) {
+            Files.deleteIfExists(tempFile);
+            throw exc;
+        }
+
+        syncDir(target.toAbsolutePath().getParent());
+    }
+
+    /**
+     * Makes the rename itself durable where the platform allows opening a directory (not Windows)
+     */
+    private static void syncDir(Path dir) {
+        try (
+                FileChannel ch = FileChannel.open(dir, StandardOpenOption.READ)
+        ) {
+            ch.force(true);
+        } catch(IOException exc) {
+            if( logger.isDebugEnabled() ) {
+                logger.debug("[SYNC DIR] can't sync {}: {}", dir, exc.getMessage());
+            }
+        }
+    }
+}
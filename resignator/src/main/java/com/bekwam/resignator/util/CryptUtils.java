@@ -28,25 +28,96 @@ import org.bouncycastle.util.io.Streams;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import javax.inject.Singleton;
 import java.io.*;
 import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.SecureRandom;
 import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 /**
  * Wraps up encryption and decryption
  *
- * The String encrypt and decrypt functions use Base64 to produce a format usable by JSON (no line breaks).
+ * The String encrypt and decrypt functions produce a format usable by JSON (no line breaks).  Fields are written as
+ *
+ *   RSG2:salt:iv:ciphertext   (each part Base64)
+ *
+ * with AES-GCM under a key derived from the passphrase and salt with PBKDF2.  The derivation is the slow part so
+ * the key is derived once for each passphrase and salt and cached; a run of encrypt() calls shares one salt.
+ * Callers needing a key that's being derived wait for it.  The cache is keyed on a digest so the passphrase itself
+ * isn't kept.
+ * Fields without the prefix are the older OpenPGP password-based format which is still decrypted.
  *
  * This is intended for small amounts of data (there is no compression applied).
  *
  * @author carl_000
  */
+@Singleton
 public class CryptUtils {
 
     private final static Logger logger = LoggerFactory.getLogger(CryptUtils.class);
 
+    private final static String FIELD_PREFIX = "RSG2:";
+    private final static String KDF = "PBKDF2WithHmacSHA256";
+    private final static int KDF_ITERATIONS = 100_000;
+    private final static int KEY_BITS = 128;
+    private final static int SALT_BYTES = 16;
+    private final static int IV_BYTES = 12;
+    private final static int TAG_BITS = 128;
+    private final static int MAX_CACHED_KEYS = 16;
+
+    private final SecureRandom random = new SecureRandom();
+
+    //
+    // digest of passphrase + salt -> derived key; salts in a file come from the sessions that wrote it so there are
+    // few.  A future not yet completed is being derived by another thread.
+    //
+    private final Map<String, CompletableFuture<SecretKey>> keys =
+            new LinkedHashMap<String, CompletableFuture<SecretKey>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CompletableFuture<SecretKey>> eldest) {
+            return size() > MAX_CACHED_KEYS;
+        }
+    };  // guarded by keys
+
+    private volatile EncryptionKey encryptionKey;
+
+    /**
+     * Salt and key used for new fields under one passphrase
+     */
+    private static class EncryptionKey {
+
+        final byte[] passPhraseDigest;
+        final byte[] salt;
+        final SecretKey key;
+
+        EncryptionKey(byte[] passPhraseDigest, byte[] salt, SecretKey key) {
+            this.passPhraseDigest = passPhraseDigest;
+            this.salt = salt;
+            this.key = key;
+        }
+    }
+
+    /**
+     * True if the field is in the current format; anything else is re-encrypted on save
+     */
+    public boolean isCurrentFormat(String encrypted) {
+        return StringUtils.startsWith(encrypted, FIELD_PREFIX);
+    }
+
     public String decrypt(
             String encrypted,
             String passPhrase)
@@ -60,6 +131,10 @@ public class CryptUtils {
             throw new IllegalArgumentException("passPhrase is required");
         }
 
+        if( isCurrentFormat(encrypted) ) {
+            return decryptField(encrypted, passPhrase);
+        }
+
         byte[] ciphertext;
         try {
             ciphertext = Base64.getDecoder().decode(encrypted.getBytes(StandardCharsets.ISO_8859_1));
@@ -144,11 +219,151 @@ public class CryptUtils {
             throw new IllegalArgumentException("passPhrase is required");
         }
 
+        return encryptField(encrypted, passPhrase);
+    }
+
+    /**
+     * The OpenPGP format written before RSG2; kept for tests of reading older files
+     */
+    protected String encryptLegacy(
+            String encrypted,
+            String passPhrase)
+            throws IOException, PGPException, NoSuchProviderException {
+
         byte[] ciphertext = encrypt( encrypted.getBytes(StandardCharsets.ISO_8859_1), passPhrase.toCharArray() );
         String ciphertext64 = Base64.getEncoder().encodeToString( ciphertext );  // uses ISO_8859_1
         return ciphertext64;
     }
 
+    private String encryptField(String cleartext, String passPhrase) throws IOException {
+
+        byte[] passPhraseDigest = digest(passPhrase, new byte[0]);
+
+        EncryptionKey ek = encryptionKey;
+        if( ek == null || !MessageDigest.isEqual(ek.passPhraseDigest, passPhraseDigest) ) {
+            byte[] salt = new byte[SALT_BYTES];
+            random.nextBytes(salt);
+            ek = new EncryptionKey(passPhraseDigest, salt, deriveKey(passPhrase, salt));
+            encryptionKey = ek;
+        }
+
+        byte[] iv = new byte[IV_BYTES];
+        random.nextBytes(iv);
+
+        try {
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.ENCRYPT_MODE, ek.key, new GCMParameterSpec(TAG_BITS, iv));
+            byte[] ciphertext = cipher.doFinal(cleartext.getBytes(StandardCharsets.UTF_8));
+
+            Base64.Encoder b64 = Base64.getEncoder();
+            return FIELD_PREFIX + b64.encodeToString(ek.salt) + ":" + b64.encodeToString(iv) + ":" +
+                    b64.encodeToString(ciphertext);
+
+        } catch(GeneralSecurityException exc) {
+            throw new IOException("can't encrypt field", exc);
+        }
+    }
+
+    private String decryptField(String encrypted, String passPhrase) throws IOException {
+
+        String[] parts = StringUtils.split(encrypted.substring(FIELD_PREFIX.length()), ':');
+        if( parts.length != 3 ) {
+            throw new IOException("malformed encrypted field");
+        }
+
+        try {
+            Base64.Decoder b64 = Base64.getDecoder();
+            byte[] salt = b64.decode(parts[0]);
+            byte[] iv = b64.decode(parts[1]);
+            byte[] ciphertext = b64.decode(parts[2]);
+
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.DECRYPT_MODE, deriveKey(passPhrase, salt), new GCMParameterSpec(TAG_BITS, iv));
+            return new String(cipher.doFinal(ciphertext), StandardCharsets.UTF_8);
+
+        } catch(IllegalArgumentException exc) {
+            throw new IOException("malformed encrypted field", exc);
+        } catch(GeneralSecurityException exc) {
+            throw new IOException("can't decrypt field (wrong password?)", exc);
+        }
+    }
+
+    private SecretKey deriveKey(String passPhrase, byte[] salt) throws IOException {
+
+        String cacheKey = Base64.getEncoder().encodeToString(digest(passPhrase, salt));
+
+        CompletableFuture<SecretKey> future;
+        boolean deriving = false;
+
+        synchronized (keys) {
+            future = keys.get(cacheKey);
+            if( future == null ) {
+                future = new CompletableFuture<>();
+                keys.put(cacheKey, future);
+                deriving = true;
+            }
+        }
+
+        if( !deriving ) {
+            try {
+                return future.get();
+            } catch(InterruptedException exc) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted waiting for key", exc);
+            } catch(ExecutionException exc) {
+                throw new IOException("can't derive key", exc.getCause());
+            }
+        }
+
+        long startTimeMillis = System.currentTimeMillis();
+
+        try {
+            SecretKey key = generateKey(passPhrase, salt);
+            future.complete(key);
+
+            if( logger.isDebugEnabled() ) {
+                logger.debug("[DERIVE KEY] derived key in {} ms", System.currentTimeMillis() - startTimeMillis);
+            }
+
+            return key;
+
+        } catch(IOException | RuntimeException exc) {
+            synchronized (keys) {
+                keys.remove(cacheKey, future);  // so a later call tries again
+            }
+            future.completeExceptionally(exc);
+            throw exc;
+        }
+    }
+
+    /**
+     * Runs PBKDF2; called once for each passphrase and salt in the cache
+     */
+    SecretKey generateKey(String passPhrase, byte[] salt) throws IOException {
+
+        PBEKeySpec spec = new PBEKeySpec(passPhrase.toCharArray(), salt, KDF_ITERATIONS, KEY_BITS);
+        try {
+            byte[] keyBytes = SecretKeyFactory.getInstance(KDF).generateSecret(spec).getEncoded();
+            return new SecretKeySpec(keyBytes, "AES");
+        } catch(GeneralSecurityException exc) {
+            throw new IOException("can't derive key", exc);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    private byte[] digest(String passPhrase, byte[] salt) throws IOException {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            md.update(passPhrase.getBytes(StandardCharsets.UTF_8));
+            md.update((byte)0);
+            md.update(salt);
+            return md.digest();
+        } catch(NoSuchAlgorithmException exc) {
+            throw new IOException("can't digest passphrase", exc);
+        }
+    }
+
     private byte[] encrypt(
             byte[]  clearData,
             char[]  passPhrase)
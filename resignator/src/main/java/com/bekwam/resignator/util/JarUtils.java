@@ -0,0 +1,360 @@
+/*
+ * Copyright 2015 Bekwam, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bekwam.resignator.util;
+
+import org.apache.commons.lang3.RandomStringUtils;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Helpers for the META-INF signature files and the MANIFEST.MF format
+ *
+ * Manifest sections are written by hand rather than through Manifest.write() so that the exact bytes of each
+ * section are known; the .SF file holds digests of those bytes.
+ *
+ * @author carl_000
+ */
+public class JarUtils {
+
+    public final static String META_INF = "META-INF/";
+    public final static String MANIFEST_NAME = "META-INF/MANIFEST.MF";
+
+    private final static byte[] CRLF = { '\r', '\n' };
+    private final static int MAX_LINE_BYTES = 72;
+
+    /**
+     * True if the entry is a signature file, signature block, or SIG-* file directly under META-INF
+     *
+     * These are never digested in the manifest
+     *
+     * @param entryName zip entry name
+     * @return true if signature related
+     */
+    public static boolean isSignatureRelated(String entryName) {
+
+        String name = StringUtils.upperCase(entryName, Locale.ENGLISH);
+
+        if( !StringUtils.startsWith(name, META_INF) ) {
+            return false;
+        }
+
+        String fileName = name.substring(META_INF.length());
+        if( fileName.isEmpty() || fileName.contains("/") ) {
+            return false;
+        }
+
+        return fileName.endsWith(".SF") ||
+                fileName.endsWith(".RSA") ||
+                fileName.endsWith(".DSA") ||
+                fileName.endsWith(".EC") ||
+                fileName.startsWith("SIG-");
+    }
+
+    /**
+     * Forms the base name of the .SF and signature block files the same way jarsigner does
+     *
+     * @param alias key alias
+     * @return up to 8 uppercase chars; chars outside [A-Z0-9_-] become '_'
+     */
+    public static String signatureFileBaseName(String alias) {
+
+        String base = StringUtils.upperCase(StringUtils.left(alias, 8), Locale.ENGLISH);
+
+        StringBuilder sb = new StringBuilder();
+        for( char c : base.toCharArray() ) {
+            if( (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_' || c == '-' ) {
+                sb.append(c);
+            } else {
+                sb.append('_');
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Creates an empty file next to target for writing a JAR that will then be moved over target
+     *
+     * Unlike Files.createTempFile(), the file gets the usual permissions for new files rather than owner-only.
+     *
+     * @param target file that will be replaced
+     * @return new empty file in the same dir as target
+     * @throws IOException if the file can't be created
+     */
+    public static Path createSiblingTempFile(Path target) throws IOException {
+
+        Path dir = target.toAbsolutePath().getParent();
+
+        for( int attempt = 0; ; attempt++ ) {
+            Path tempFile = dir.resolve(".resignator-" + RandomStringUtils.randomAlphanumeric(12) + ".tmp");
+            try {
+                return Files.createFile(tempFile);
+            } catch(FileAlreadyExistsException exc) {
+                if( attempt >= 10 ) {
+                    throw exc;
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the *-Digest attributes that signing adds to the per-entry sections
+     *
+     * Sections left without any attributes are removed.  The main section is not changed.
+     *
+     * @param mf manifest edited in place
+     */
+    public static void stripDigests(Manifest mf) {
+
+        Iterator<Map.Entry<String, Attributes>> sections = mf.getEntries().entrySet().iterator();
+        while( sections.hasNext() ) {
+
+            Attributes attrs = sections.next().getValue();
+            attrs.keySet().removeIf(k -> StringUtils.endsWithIgnoreCase(k.toString(), "-Digest"));
+
+            if( attrs.isEmpty() ) {
+                sections.remove();
+            }
+        }
+    }
+
+    /**
+     * Copies an entry of an open zip to a zip being written keeping its name, time, comment, extra, and method
+     *
+     * @param zf source
+     * @param e entry of zf
+     * @param zos target
+     * @param buf copy buffer
+     * @throws IOException reading or writing
+     */
+    public static void copyEntry(ZipFile zf, ZipEntry e, ZipOutputStream zos, byte[] buf) throws IOException {
+
+        ZipEntry copy = new ZipEntry(e.getName());
+        copy.setTime(e.getTime());
+        copy.setComment(e.getComment());
+        copy.setExtra(e.getExtra());
+        copy.setMethod(e.getMethod());
+        if( e.getMethod() == ZipEntry.STORED ) {
+            copy.setSize(e.getSize());
+            copy.setCompressedSize(e.getSize());
+            copy.setCrc(e.getCrc());
+        }
+
+        zos.putNextEntry(copy);
+        try (
+                InputStream is = zf.getInputStream(e)
+        ) {
+            int n;
+            while( (n = is.read(buf)) != -1 ) {
+                zos.write(buf, 0, n);
+            }
+        }
+        zos.closeEntry();
+    }
+
+    /**
+     * Writes the main section of a manifest including the blank line that terminates it
+     *
+     * @param attrs main attributes
+     * @param versionName Manifest-Version or Signature-Version; written first if present
+     * @return section bytes
+     */
+    public static byte[] mainSection(Attributes attrs, Attributes.Name versionName) {
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        Object version = attrs.get(versionName);
+        if( version != null ) {
+            writeHeader(out, versionName.toString(), version.toString());
+        }
+
+        for( Map.Entry<Object, Object> e : attrs.entrySet() ) {
+            if( !versionName.equals(e.getKey()) ) {
+                writeHeader(out, e.getKey().toString(), e.getValue().toString());
+            }
+        }
+
+        out.write(CRLF, 0, CRLF.length);
+
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes a per-entry section of a manifest including the blank line that terminates it
+     *
+     * @param entryName value of the Name: header
+     * @param attrs attributes of the entry
+     * @return section bytes
+     */
+    public static byte[] entrySection(String entryName, Attributes attrs) {
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        writeHeader(out, "Name", entryName);
+
+        for( Map.Entry<Object, Object> e : attrs.entrySet() ) {
+            writeHeader(out, e.getKey().toString(), e.getValue().toString());
+        }
+
+        out.write(CRLF, 0, CRLF.length);
+
+        return out.toByteArray();
+    }
+
+    /**
+     * Splits manifest bytes into sections keeping the bytes of each as they are
+     *
+     * Each section includes the blank line that terminates it.  A last section that's missing its blank line gets
+     * one.  Blank lines between sections are dropped.
+     *
+     * @param manifest contents of MANIFEST.MF
+     * @return main section followed by the per-entry sections in file order
+     */
+    public static List<byte[]> splitSections(byte[] manifest) {
+
+        List<byte[]> sections = new ArrayList<>();
+
+        int start = 0;
+        int pos = 0;
+
+        while( pos < manifest.length ) {
+
+            int end = pos;
+            while( end < manifest.length && manifest[end] != '\r' && manifest[end] != '\n' ) {
+                end++;
+            }
+
+            int next = end;
+            if( next < manifest.length && manifest[next] == '\r' ) {
+                next++;
+            }
+            if( next < manifest.length && manifest[next] == '\n' ) {
+                next++;
+            }
+
+            if( end == pos ) {  // blank line
+                if( pos > start ) {
+                    sections.add(Arrays.copyOfRange(manifest, start, next));
+                }
+                start = next;
+            }
+
+            pos = next;
+        }
+
+        if( start < manifest.length ) {
+            ByteArrayOutputStream last = new ByteArrayOutputStream();
+            last.write(manifest, start, manifest.length - start);
+            byte end = manifest[manifest.length - 1];
+            if( end != '\r' && end != '\n' ) {
+                last.write(CRLF, 0, CRLF.length);
+            }
+            last.write(CRLF, 0, CRLF.length);
+            sections.add(last.toByteArray());
+        }
+
+        return sections;
+    }
+
+    /**
+     * Value of the Name: header of a per-entry section joining any continuation lines
+     *
+     * Lines are joined before decoding since other tools may wrap in the middle of a multi-byte UTF-8 char.
+     *
+     * @param section bytes of one section from splitSections()
+     * @return entry name or null if the section doesn't start with Name:
+     */
+    public static String sectionName(byte[] section) {
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+
+        int pos = 0;
+        while( pos < section.length ) {
+
+            int end = pos;
+            while( end < section.length && section[end] != '\r' && section[end] != '\n' ) {
+                end++;
+            }
+
+            if( pos == 0 ) {
+                header.write(section, 0, end);
+            } else if( end > pos && section[pos] == ' ' ) {
+                header.write(section, pos + 1, end - pos - 1);
+            } else {
+                break;
+            }
+
+            if( end < section.length && section[end] == '\r' ) {
+                end++;
+            }
+            if( end < section.length && section[end] == '\n' ) {
+                end++;
+            }
+            pos = end;
+        }
+
+        String line = new String(header.toByteArray(), StandardCharsets.UTF_8);
+        return StringUtils.startsWithIgnoreCase(line, "Name: ") ? line.substring("Name: ".length()) : null;
+    }
+
+    /**
+     * Writes "name: value" wrapping at 72 bytes with continuation lines
+     *
+     * Never splits a multi-byte UTF-8 char across lines
+     */
+    private static void writeHeader(ByteArrayOutputStream out, String name, String value) {
+
+        byte[] line = (name + ": " + value).getBytes(StandardCharsets.UTF_8);
+
+        int pos = 0;
+        int max = MAX_LINE_BYTES;
+
+        while( line.length - pos > max ) {
+
+            int end = pos + max;
+            while( (line[end] & 0xC0) == 0x80 ) {  // continuation byte
+                end--;
+            }
+
+            out.write(line, pos, end - pos);
+            out.write(CRLF, 0, CRLF.length);
+            out.write(' ');
+
+            pos = end;
+            max = MAX_LINE_BYTES - 1;  // leading space counts
+        }
+
+        out.write(line, pos, line.length - pos);
+        out.write(CRLF, 0, CRLF.length);
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2015 Bekwam, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bekwam.resignator.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.UnrecoverableKeyException;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+
+/**
+ * Opens keystores with the java.security.KeyStore API
+ *
+ * @author carl_000
+ */
+public class KeyStoreUtils {
+
+    /**
+     * Loads a keystore trying the default, JKS, and PKCS12 types in turn
+     *
+     * The file extension isn't a reliable guide to the type.  The file is read once for all attempts.
+     *
+     * @param keystore file
+     * @param storepass password of the store
+     * @return loaded keystore
+     * @throws IOException if the file can't be read, the password is wrong, or none of the types can load it
+     */
+    public static KeyStore load(Path keystore, char[] storepass) throws IOException {
+
+        byte[] contents = Files.readAllBytes(keystore);
+
+        Exception lastExc = null;
+
+        for( String type : new LinkedHashSet<>(Arrays.asList(KeyStore.getDefaultType(), "JKS", "PKCS12")) ) {
+            try {
+                KeyStore ks = KeyStore.getInstance(type);
+                ks.load(new ByteArrayInputStream(contents), storepass);
+                return ks;
+            } catch(Exception exc) {
+                if( isWrongPassword(exc) ) {  // the type was right
+                    throw (IOException)exc;
+                }
+                lastExc = exc;
+            }
+        }
+
+        throw new IOException("can't open keystore " + keystore +
+                (lastExc != null ? "; " + lastExc.getMessage() : ""), lastExc);
+    }
+
+    /**
+     * True if exc is the KeyStore.load() failure for an incorrect store password
+     */
+    public static boolean isWrongPassword(Throwable exc) {
+        return exc instanceof IOException && exc.getCause() instanceof UnrecoverableKeyException;
+    }
+
+    /**
+     * Colon-separated uppercase hex SHA-256 digest of the encoded certificate, as keytool shows it
+     */
+    public static String fingerprint(Certificate cert) throws CertificateEncodingException {
+
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256").digest(cert.getEncoded());
+        } catch(NoSuchAlgorithmException exc) {
+            throw new IllegalStateException(exc);  // required of every JRE
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for( byte b : digest ) {
+            if( sb.length() > 0 ) {
+                sb.append(':');
+            }
+            sb.append(String.format("%02X", b));
+        }
+        return sb.toString();
+    }
+}
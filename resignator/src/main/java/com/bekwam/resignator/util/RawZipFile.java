@@ -0,0 +1,280 @@
+/*
+ * Copyright 2015 Bekwam, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bekwam.resignator.util;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipException;
+
+/**
+ * Reads the central directory of a zip so that entries can be copied byte-for-byte, still compressed
+ *
+ * Only the classic zip format is supported.  Archives needing zip64 (more than 65535 entries or offsets past 4GB)
+ * raise a ZipException when opened; callers fall back to java.util.zip.
+ *
+ * @author carl_000
+ */
+public class RawZipFile implements Closeable {
+
+    final static int LOC_SIG = 0x04034b50;
+    final static int CEN_SIG = 0x02014b50;
+    final static int END_SIG = 0x06054b50;
+    final static int EXT_SIG = 0x08074b50;
+
+    final static int LOC_HEADER_LEN = 30;
+    final static int CEN_HEADER_LEN = 46;
+    final static int END_HEADER_LEN = 22;
+
+    final static int CEN_OFFSET_FIELD = 42;  // offset of the local header offset within a central directory record
+
+    final static int FLAG_DATA_DESCRIPTOR = 0x08;
+
+    private final static int MAX_COMMENT_LEN = 0xFFFF;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final List<Entry> entries;
+
+    /**
+     * An entry as recorded in the central directory
+     */
+    public static class Entry {
+
+        private final String name;
+        private final int flags;
+        private final int dosTime;
+        private final long compressedSize;
+        private final long localHeaderOffset;
+        private final byte[] centralRecord;
+
+        Entry(String name, int flags, int dosTime, long compressedSize, long localHeaderOffset, byte[] centralRecord) {
+            this.name = name;
+            this.flags = flags;
+            this.dosTime = dosTime;
+            this.compressedSize = compressedSize;
+            this.localHeaderOffset = localHeaderOffset;
+            this.centralRecord = centralRecord;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Last modified time in millis
+         */
+        public long getTime() {
+
+            int year = ((dosTime >> 25) & 0x7F) + 1980;
+            int month = (dosTime >> 21) & 0x0F;
+            int day = (dosTime >> 16) & 0x1F;
+            int hour = (dosTime >> 11) & 0x1F;
+            int minute = (dosTime >> 5) & 0x3F;
+            int second = (dosTime << 1) & 0x3E;
+
+            try {
+                return LocalDateTime.of(year, month, day, hour, minute, second)
+                        .atZone(ZoneId.systemDefault())
+                        .toInstant()
+                        .toEpochMilli();
+            } catch(DateTimeException exc) {  // garbage in the header
+                return System.currentTimeMillis();
+            }
+        }
+
+        int getFlags() { return flags; }
+
+        long getCompressedSize() { return compressedSize; }
+
+        long getLocalHeaderOffset() { return localHeaderOffset; }
+
+        byte[] getCentralRecord() { return centralRecord; }
+    }
+
+    public RawZipFile(Path path) throws IOException {
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            this.entries = Collections.unmodifiableList(readCentralDirectory());
+        } catch(IOException exc) {
+            channel.close();
+            throw exc;
+        }
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Length of the local header, compressed data, and data descriptor (if any) of an entry
+     */
+    long getSpan(Entry e) throws IOException {
+
+        ByteBuffer loc = read(e.getLocalHeaderOffset(), LOC_HEADER_LEN);
+        if( loc.getInt(0) != LOC_SIG ) {
+            throw new ZipException("bad local header for " + e.getName() + " in " + path);
+        }
+
+        long span = LOC_HEADER_LEN + u16(loc, 26) + u16(loc, 28) + e.getCompressedSize();
+
+        if( (e.getFlags() & FLAG_DATA_DESCRIPTOR) != 0 ) {
+            ByteBuffer ext = read(e.getLocalHeaderOffset() + span, 4);
+            span += (ext.getInt(0) == EXT_SIG) ? 16 : 12;
+        }
+
+        return span;
+    }
+
+    /**
+     * Copies the still-compressed bytes of an entry starting at its local header
+     */
+    long transferTo(Entry e, OutputStream os) throws IOException {
+
+        long span = getSpan(e);
+
+        ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+        long pos = e.getLocalHeaderOffset();
+        long remaining = span;
+
+        while( remaining > 0 ) {
+            buf.clear();
+            if( remaining < buf.capacity() ) {
+                buf.limit((int)remaining);
+            }
+            int n = channel.read(buf, pos);
+            if( n < 0 ) {
+                throw new EOFException("unexpected end of " + path);
+            }
+            os.write(buf.array(), 0, n);
+            pos += n;
+            remaining -= n;
+        }
+
+        return span;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private List<Entry> readCentralDirectory() throws IOException {
+
+        long fileSize = channel.size();
+        if( fileSize < END_HEADER_LEN ) {
+            throw new ZipException("not a zip file " + path);
+        }
+
+        //
+        // The end record is at the end of the file followed by a comment of up to 64k
+        //
+        int tailLen = (int)Math.min(fileSize, END_HEADER_LEN + MAX_COMMENT_LEN);
+        ByteBuffer tail = read(fileSize - tailLen, tailLen);
+
+        int endPos = -1;
+        for( int i = tailLen - END_HEADER_LEN; i >= 0; i-- ) {
+            if( tail.getInt(i) == END_SIG ) {
+                endPos = i;
+                break;
+            }
+        }
+
+        if( endPos < 0 ) {
+            throw new ZipException("zip END header not found in " + path);
+        }
+
+        int numEntries = u16(tail, endPos + 10);
+        long cenSize = u32(tail, endPos + 12);
+        long cenOffset = u32(tail, endPos + 16);
+
+        if( numEntries == 0xFFFF || cenSize == 0xFFFFFFFFL || cenOffset == 0xFFFFFFFFL ) {
+            throw new ZipException("zip64 archives are not supported " + path);
+        }
+
+        ByteBuffer cen = read(cenOffset, (int)cenSize);
+
+        List<Entry> list = new ArrayList<>(numEntries);
+
+        int pos = 0;
+        for( int i = 0; i < numEntries; i++ ) {
+
+            if( pos + CEN_HEADER_LEN > cen.limit() || cen.getInt(pos) != CEN_SIG ) {
+                throw new ZipException("bad central directory in " + path);
+            }
+
+            int flags = u16(cen, pos + 8);
+            int dosTime = cen.getInt(pos + 12);
+            long compressedSize = u32(cen, pos + 20);
+            int nameLen = u16(cen, pos + 28);
+            int extraLen = u16(cen, pos + 30);
+            int commentLen = u16(cen, pos + 32);
+            long localHeaderOffset = u32(cen, pos + CEN_OFFSET_FIELD);
+
+            if( compressedSize == 0xFFFFFFFFL || localHeaderOffset == 0xFFFFFFFFL ) {
+                throw new ZipException("zip64 entries are not supported " + path);
+            }
+
+            int recordLen = CEN_HEADER_LEN + nameLen + extraLen + commentLen;
+
+            byte[] record = new byte[recordLen];
+            cen.position(pos);
+            cen.get(record);
+
+            String name = new String(record, CEN_HEADER_LEN, nameLen, StandardCharsets.UTF_8);
+
+            list.add(new Entry(name, flags, dosTime, compressedSize, localHeaderOffset, record));
+
+            pos += recordLen;
+        }
+
+        return list;
+    }
+
+    private ByteBuffer read(long position, int len) throws IOException {
+
+        ByteBuffer buf = ByteBuffer.allocate(len).order(ByteOrder.LITTLE_ENDIAN);
+        while( buf.hasRemaining() ) {
+            if( channel.read(buf, position + buf.position()) < 0 ) {
+                throw new EOFException("unexpected end of " + path);
+            }
+        }
+        buf.flip();
+        return buf;
+    }
+
+    static int u16(ByteBuffer buf, int index) {
+        return buf.getShort(index) & 0xFFFF;
+    }
+
+    static long u32(ByteBuffer buf, int index) {
+        return buf.getInt(index) & 0xFFFFFFFFL;
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2015 Bekwam, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bekwam.resignator.util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+import static com.bekwam.resignator.util.RawZipFile.*;
+
+/**
+ * Writes a zip made of new entries, which are deflated, and entries copied still-compressed from a RawZipFile
+ *
+ * Copied entries keep their local header, data, and data descriptor as-is.  Only the local header offset in their
+ * central directory record is changed.
+ *
+ * @author carl_000
+ */
+public class RawZipWriter implements Closeable {
+
+    private final static int VERSION = 20;
+    private final static int FLAG_UTF8 = 0x800;
+    private final static int METHOD_DEFLATED = 8;
+    private final static long MAX_OFFSET = 0xFFFFFFFFL;
+    private final static int MAX_ENTRIES = 0xFFFF;
+
+    private final OutputStream os;
+    private final List<byte[]> centralRecords = new ArrayList<>();
+    private long written = 0L;
+    private boolean closed = false;
+
+    public RawZipWriter(Path target) throws IOException {
+        this.os = new BufferedOutputStream(Files.newOutputStream(target), 64 * 1024);
+    }
+
+    /**
+     * Deflates and writes a new entry
+     *
+     * @param name entry name
+     * @param contents uncompressed contents
+     * @param time last modified time in millis
+     * @throws IOException writing
+     */
+    public void writeEntry(String name, byte[] contents, long time) throws IOException {
+
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+
+        CRC32 crc = new CRC32();
+        crc.update(contents);
+
+        byte[] compressed = deflate(contents);
+        int dosTime = javaToDosTime(time);
+        long offset = checkOffset(written);
+
+        ByteBuffer loc = newBuffer(LOC_HEADER_LEN + nameBytes.length);
+        loc.putInt(LOC_SIG);
+        loc.putShort((short)VERSION);
+        loc.putShort((short)FLAG_UTF8);
+        loc.putShort((short)METHOD_DEFLATED);
+        loc.putInt(dosTime);
+        loc.putInt((int)crc.getValue());
+        loc.putInt(compressed.length);
+        loc.putInt(contents.length);
+        loc.putShort((short)nameBytes.length);
+        loc.putShort((short)0);  // extra
+        loc.put(nameBytes);
+
+        write(loc.array());
+        write(compressed);
+
+        ByteBuffer cen = newBuffer(CEN_HEADER_LEN + nameBytes.length);
+        cen.putInt(CEN_SIG);
+        cen.putShort((short)VERSION);  // made by
+        cen.putShort((short)VERSION);  // needed
+        cen.putShort((short)FLAG_UTF8);
+        cen.putShort((short)METHOD_DEFLATED);
+        cen.putInt(dosTime);
+        cen.putInt((int)crc.getValue());
+        cen.putInt(compressed.length);
+        cen.putInt(contents.length);
+        cen.putShort((short)nameBytes.length);
+        cen.putShort((short)0);  // extra
+        cen.putShort((short)0);  // comment
+        cen.putShort((short)0);  // disk
+        cen.putShort((short)0);  // internal attrs
+        cen.putInt(0);  // external attrs
+        cen.putInt((int)offset);
+        cen.put(nameBytes);
+
+        centralRecords.add(cen.array());
+    }
+
+    /**
+     * Copies an entry without inflating or re-deflating it
+     *
+     * @param zf source
+     * @param e entry of zf
+     * @throws IOException reading or writing
+     */
+    public void copyEntry(RawZipFile zf, RawZipFile.Entry e) throws IOException {
+
+        long offset = checkOffset(written);
+
+        written += zf.transferTo(e, os);
+
+        byte[] record = e.getCentralRecord().clone();
+        ByteBuffer.wrap(record).order(ByteOrder.LITTLE_ENDIAN).putInt(CEN_OFFSET_FIELD, (int)offset);
+
+        centralRecords.add(record);
+    }
+
+    /**
+     * Writes the central directory and end record and closes the file
+     */
+    @Override
+    public void close() throws IOException {
+
+        if( closed ) {
+            return;
+        }
+        closed = true;
+
+        try {
+
+            if( centralRecords.size() > MAX_ENTRIES ) {
+                throw new ZipException("too many entries for a zip without zip64: " + centralRecords.size());
+            }
+
+            long cenOffset = checkOffset(written);
+
+            for( byte[] record : centralRecords ) {
+                write(record);
+            }
+
+            long cenSize = checkOffset(written - cenOffset);
+
+            ByteBuffer end = newBuffer(END_HEADER_LEN);
+            end.putInt(END_SIG);
+            end.putShort((short)0);  // disk
+            end.putShort((short)0);  // disk with central directory
+            end.putShort((short)centralRecords.size());
+            end.putShort((short)centralRecords.size());
+            end.putInt((int)cenSize);
+            end.putInt((int)cenOffset);
+            end.putShort((short)0);  // comment
+
+            write(end.array());
+
+        } finally {
+            os.close();
+        }
+    }
+
+    private void write(byte[] b) throws IOException {
+        os.write(b);
+        written += b.length;
+    }
+
+    private long checkOffset(long offset) throws ZipException {
+        if( offset > MAX_OFFSET ) {
+            throw new ZipException("zip is too large without zip64");
+        }
+        return offset;
+    }
+
+    private ByteBuffer newBuffer(int len) {
+        return ByteBuffer.allocate(len).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private byte[] deflate(byte[] contents) {
+
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setInput(contents);
+            deflater.finish();
+
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(contents.length / 2 + 64);
+            byte[] buf = new byte[8192];
+            while( !deflater.finished() ) {
+                int n = deflater.deflate(buf);
+                baos.write(buf, 0, n);
+            }
+            return baos.toByteArray();
+
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static int javaToDosTime(long time) {
+
+        LocalDateTime ldt = LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault());
+
+        if( ldt.getYear() < 1980 ) {
+            return (1 << 21) | (1 << 16);  // 1980-01-01
+        }
+
+        return (ldt.getYear() - 1980) << 25 |
+                ldt.getMonthValue() << 21 |
+                ldt.getDayOfMonth() << 16 |
+                ldt.getHour() << 11 |
+                ldt.getMinute() << 5 |
+                ldt.getSecond() >> 1;
+    }
+}
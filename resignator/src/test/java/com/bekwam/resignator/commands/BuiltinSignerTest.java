@@ -0,0 +1,237 @@
+/*
+ * Copyright 2015 Bekwam, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bekwam.resignator.commands;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.KeyPair;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.X509Certificate;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Unit test for BuiltinSigner
+ *
+ * Signed JARs are checked by reading every entry from a verifying JarFile.
+ *
+ * @author carl_000
+ */
+public class BuiltinSignerTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private BuiltinSigner signer;
+
+    private TestKeys keys;
+
+    private Path keystore;
+
+    private X509Certificate cert;
+
+    private X509Certificate otherCert;
+
+    @Before
+    public void init() throws Exception {
+
+        signer = new BuiltinSigner();
+
+        keys = new TestKeys();
+        cert = keys.addKey("mykey", "keypass", TestKeys.keyPair("RSA"));
+        otherCert = keys.addKey("other", "keypass", TestKeys.keyPair("RSA"));
+
+        keystore = keys.store(tempFolder.getRoot().toPath().resolve("test.jks"), "storepass");
+    }
+
+    @Test
+    public void signJARWithoutManifest() throws Exception {
+
+        Path jar = TestJars.create(tempFolder.getRoot().toPath().resolve("a.jar"), null,
+                "a.txt", "dir/", "dir/b.txt", "META-INF/services/x");
+
+        sign(jar, "mykey", false);
+
+        TestJars.assertSignedBy(jar, cert);
+
+        Set<String> metaInf = TestJars.metaInfNames(jar);
+        assertTrue(metaInf.contains("META-INF/MYKEY.SF"));
+        assertTrue(metaInf.contains("META-INF/MYKEY.RSA"));
+        assertTrue(TestJars.manifest(jar).startsWith("Manifest-Version: 1.0\r\n"));
+    }
+
+    @Test
+    public void keepsManifestAttributes() throws Exception {
+
+        Path jar = TestJars.create(tempFolder.getRoot().toPath().resolve("a.jar"),
+                "Manifest-Version: 1.0\r\nMain-Class: a.Main\r\n\r\nName: a.txt\r\nX-Custom: 1\r\n\r\n",
+                "a.txt", "b.txt");
+
+        sign(jar, "mykey", false);
+
+        TestJars.assertSignedBy(jar, cert);
+
+        String mf = TestJars.manifest(jar);
+        assertTrue(mf.startsWith("Manifest-Version: 1.0\r\nMain-Class: a.Main\r\n\r\n"));
+        assertTrue(mf.contains("Name: a.txt\r\nX-Custom: 1\r\nSHA-256-Digest: "));
+        assertTrue(mf.contains("Name: b.txt\r\nSHA-256-Digest: "));
+    }
+
+    @Test
+    public void resignSameAlias() throws Exception {
+
+        Path jar = TestJars.create(tempFolder.getRoot().toPath().resolve("a.jar"), null, "a.txt", "b.txt");
+
+        sign(jar, "mykey", false);
+        sign(jar, "mykey", false);
+
+        TestJars.assertSignedBy(jar, cert);
+        assertEquals(3, TestJars.metaInfNames(jar).size());  // MANIFEST.MF, .SF, .RSA
+    }
+
+    @Test
+    public void keepOtherSigner() throws Exception {
+
+        Path jar = TestJars.create(tempFolder.getRoot().toPath().resolve("a.jar"), null, "a.txt", "b.txt");
+
+        sign(jar, "other", false);
+        sign(jar, "mykey", false);
+
+        TestJars.assertSignedBy(jar, cert, otherCert);
+    }
+
+    /**
+     * jarsigner's .SF digests are over the manifest bytes it wrote; they have to be kept exactly
+     */
+    @Test
+    public void keepJarsignerSignature() throws Exception {
+
+        Path jarsigner = jdkTool("jarsigner");
+        assumeTrue(jarsigner != null);
+
+        Path jar = TestJars.create(tempFolder.getRoot().toPath().resolve("a.jar"),
+                "Manifest-Version: 1.0\r\nMain-Class: a.Main\r\n\r\n", "a.txt", "b.txt");
+
+        Process p = new ProcessBuilder(jarsigner.toString(),
+                "-digestalg", "SHA-384",  // sections without a SHA-256-Digest
+                "-keystore", keystore.toString(), "-storepass", "storepass", "-keypass", "keypass",
+                jar.toString(), "other")
+                .redirectErrorStream(true)
+                .start();
+        try (
+                InputStream is = p.getInputStream()
+        ) {
+            while( is.read() != -1 ) {
+                // drain
+            }
+        }
+        assertTrue(p.waitFor(60, TimeUnit.SECONDS));
+        assertEquals(0, p.exitValue());
+
+        TestJars.assertSignedBy(jar, otherCert);
+
+        sign(jar, "mykey", false);
+
+        TestJars.assertSignedBy(jar, cert, otherCert);
+    }
+
+    @Test
+    public void replaceSignatures() throws Exception {
+
+        Path jar = TestJars.create(tempFolder.getRoot().toPath().resolve("a.jar"), null, "a.txt", "b.txt");
+        Path signed = tempFolder.getRoot().toPath().resolve("signed.jar");
+
+        sign(jar, "other", false);
+        signer.signJAR(jar, signed, keystore, "storepass", "mykey", "keypass", null, true, s -> {});
+
+        TestJars.assertSignedBy(signed, cert);
+        assertFalse(TestJars.metaInfNames(signed).contains("META-INF/OTHER.SF"));
+        assertFalse(TestJars.metaInfNames(signed).contains("META-INF/OTHER.RSA"));
+        TestJars.assertSignedBy(jar, otherCert);  // source not changed
+    }
+
+    @Test
+    public void signWithECKey() throws Exception {
+
+        TestKeys ecKeys = new TestKeys();
+        X509Certificate ecCert = ecKeys.addKey("eckey", "keypass", TestKeys.keyPair("EC"));
+        Path ecKeystore = ecKeys.store(tempFolder.getRoot().toPath().resolve("ec.jks"), "storepass");
+
+        Path jar = TestJars.create(tempFolder.getRoot().toPath().resolve("a.jar"), null, "a.txt");
+
+        signer.signJAR(jar, jar, ecKeystore, "storepass", "eckey", "keypass", null, false, s -> {});
+
+        TestJars.assertSignedBy(jar, ecCert);
+        assertTrue(TestJars.metaInfNames(jar).contains("META-INF/ECKEY.EC"));
+    }
+
+    @Test
+    public void unsupportedKeyType() throws Exception {
+
+        KeyPair ed25519;
+        try {
+            ed25519 = TestKeys.keyPair("Ed25519");
+        } catch(NoSuchAlgorithmException exc) {
+            assumeTrue(false);  // before JDK 15
+            return;
+        }
+
+        TestKeys edKeys = new TestKeys();
+        edKeys.addKey("edkey", "keypass", ed25519, TestKeys.keyPair("RSA"));
+        Path edKeystore = edKeys.store(tempFolder.getRoot().toPath().resolve("ed.jks"), "storepass");
+
+        Path jar = TestJars.create(tempFolder.getRoot().toPath().resolve("a.jar"), null, "a.txt");
+        byte[] before = Files.readAllBytes(jar);
+
+        try {
+            signer.signJAR(jar, jar, edKeystore, "storepass", "edkey", "keypass", null, false, s -> {});
+            fail("signed with an Ed25519 key");
+        } catch(CommandExecutionException exc) {
+            assertTrue(exc.getMessage(), exc.getMessage().contains("isn't supported by the builtin signer"));
+        }
+
+        assertArrayEquals(before, Files.readAllBytes(jar));
+    }
+
+    private void sign(Path jar, String alias, boolean replaceSignatures) throws CommandExecutionException {
+        signer.signJAR(jar, jar, keystore, "storepass", alias, "keypass", null, replaceSignatures, s -> {});
+    }
+
+    /**
+     * A tool from the JDK running the tests; null if it's only a JRE
+     */
+    static Path jdkTool(String name) {
+        String exe = File.separatorChar == '\\' ? name + ".exe" : name;
+        Path home = Paths.get(System.getProperty("java.home"));
+        for( Path bin : new Path[] { home.resolve("bin"), home.resolveSibling("bin") } ) {
+            if( Files.isExecutable(bin.resolve(exe)) ) {
+                return bin.resolve(exe);
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2015 Bekwam, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bekwam.resignator.commands;
+
+import org.apache.commons.lang3.SystemUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeFalse;
+
+/**
+ * Unit test for CommandExecutor running commands as processes
+ *
+ * @author carl_000
+ */
+public class CommandExecutorTest {
+
+    private final static int NUM_LINES = 20000;  // ~200k per stream; well over a pipe buffer
+
+    @Before
+    public void init() {
+        assumeFalse(SystemUtils.IS_OS_WINDOWS);  // uses sh
+    }
+
+    @Test(timeout = 60000)
+    public void largeOutputOnBothStreams() throws Exception {
+
+        List<String> lines = Collections.synchronizedList(new ArrayList<>());
+
+        new CommandExecutor(60).exec(new String[] {
+                "sh", "-c",
+                "i=0; while [ $i -lt " + NUM_LINES + " ]; do echo \"out $i\"; echo \"err $i\" >&2; i=$((i+1)); done"
+        }, lines::add);
+
+        assertEquals(NUM_LINES * 2, lines.size());
+    }
+
+    @Test(timeout = 60000)
+    public void everyLineObserved() throws Exception {
+
+        List<String> lines = Collections.synchronizedList(new ArrayList<>());
+
+        new CommandExecutor(60).exec(new String[] {
+                "sh", "-c",
+                "i=0; while [ $i -lt 1000 ]; do echo \"out $i\"; echo \"err $i\" >&2; i=$((i+1)); done"
+        }, lines::add);
+
+        List<String> out = new ArrayList<>();
+        List<String> err = new ArrayList<>();
+        for( String line : lines ) {
+            (line.startsWith("out ") ? out : err).add(line);
+        }
+
+        assertEquals(1000, out.size());
+        assertEquals(1000, err.size());
+        for( int i = 0; i < 1000; i++ ) {  // in order within a stream
+            assertEquals("out " + i, out.get(i));
+            assertEquals("err " + i, err.get(i));
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void stdoutObserved() throws Exception {
+
+        List<String> lines = Collections.synchronizedList(new ArrayList<>());
+        List<String> stdout = Collections.synchronizedList(new ArrayList<>());
+
+        new CommandExecutor(60).exec(
+                new String[] { "sh", "-c", "echo out 1; echo err 1 >&2; echo out 2" },
+                lines::add,
+                stdout::add
+        );
+
+        assertEquals(3, lines.size());
+        assertEquals(Arrays.asList("out 1", "out 2"), stdout);
+    }
+
+    @Test(timeout = 60000)
+    public void timeout() throws Exception {
+
+        long start = System.nanoTime();
+
+        try {
+            new CommandExecutor(1).exec(new String[] { "sh", "-c", "echo started; sleep 30" });
+            fail("expected a timeout");
+        } catch(CommandExecutionException exc) {
+            assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 20);
+        }
+    }
+
+    @Test(expected = CommandExecutionException.class)
+    public void nonZeroExit() throws Exception {
+        new CommandExecutor(60).exec(new String[] { "sh", "-c", "exit 3" });
+    }
+
+    @Test(expected = CommandExecutionException.class)
+    public void noCommand() throws Exception {
+        new CommandExecutor(60).exec(new String[0]);
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright 2015 Bekwam, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bekwam.resignator.commands;
+
+import com.bekwam.resignator.model.JarsignerConfig;
+import com.bekwam.resignator.model.SignJarResult;
+import com.bekwam.resignator.model.SignerType;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for FolderSignCommand using the builtin signer
+ *
+ * @author carl_000
+ */
+public class FolderSignCommandTest {
+
+    private final static int NUM_JARS = 6;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private FolderSignCommand cmd;
+
+    private JarsignerConfig jc;
+
+    private X509Certificate cert;
+
+    private List<Path> sourceJars;
+
+    private Path targetDir;
+
+    private final Set<String> workerThreads = ConcurrentHashMap.newKeySet();
+
+    private final ConcurrentLinkedQueue<Double> progress = new ConcurrentLinkedQueue<>();
+
+    @Before
+    public void init() throws Exception {
+
+        TestKeys keys = new TestKeys();
+        cert = keys.addKey("mykey", "keypass", TestKeys.keyPair("RSA"));
+        Path keystore = keys.store(tempFolder.getRoot().toPath().resolve("test.jks"), "storepass");
+
+        jc = new JarsignerConfig("mykey", "storepass", "keypass", keystore.toString(), false);
+        jc.setSignerType(SignerType.BUILTIN);
+        jc.setTsaUrl("");
+
+        BuiltinSigner signer = new BuiltinSigner();
+        signer.timestampClient.backoffMillis = 10L;
+
+        SignCache signCache = new SignCache();
+        signCache.enabled = false;
+
+        cmd = new FolderSignCommand();
+        cmd.builtinSigner = signer;
+        cmd.signCache = signCache;
+        cmd.signingThreads = 2;
+        cmd.unsignCommandProvider = UnsignCommand::new;
+        cmd.signCommandProvider = () -> {
+            SignCommand sc = new SignCommand();
+            sc.builtinSigner = signer;
+            return sc;
+        };
+
+        Path sourceDir = tempFolder.newFolder("source").toPath();
+        targetDir = tempFolder.newFolder("target").toPath();
+
+        sourceJars = new ArrayList<>();
+        for( int i = 0; i < NUM_JARS; i++ ) {
+            Path jar = sourceDir.resolve("jar" + i + ".jar");
+            if( i == 2 ) {
+                TestJars.createCorrupt(jar);
+            } else {
+                TestJars.create(jar, null, "a" + i + ".txt", "b" + i + ".txt");
+            }
+            sourceJars.add(jar);
+        }
+    }
+
+    @Test
+    public void unsignAndSignFolder() throws Exception {
+
+        List<SignJarResult> results = signJARs(true, () -> false);
+
+        assertEquals(NUM_JARS, results.size());
+
+        for( int i = 0; i < NUM_JARS; i++ ) {
+            SignJarResult r = results.get(i);
+            assertEquals(sourceJars.get(i), r.getSourceJar());
+            if( i == 2 ) {
+                assertFalse(r.isSucceeded());
+                assertTrue(r.getErrorMessage().isPresent());
+            } else {
+                assertTrue(r.getErrorMessage().toString(), r.isSucceeded());
+                TestJars.assertSignedBy(r.getTargetJar(), cert);
+            }
+        }
+
+        assertProgress();
+        assertTrue(workerThreads.size() <= 2);
+        workerThreads.forEach(name -> assertTrue(name, name.startsWith("resignator-sign-")));
+    }
+
+    @Test
+    public void copyAndSignFolder() throws Exception {
+
+        List<SignJarResult> results = signJARs(false, () -> false);
+
+        assertEquals(NUM_JARS - 1, results.stream().filter(SignJarResult::isSucceeded).count());
+        assertFalse(results.get(2).isSucceeded());
+        assertTrue(Files.exists(targetDir.resolve("jar0.jar")));
+        TestJars.assertSignedBy(targetDir.resolve("jar0.jar"), cert);
+
+        assertProgress();
+    }
+
+    @Test
+    public void cancelled() throws Exception {
+
+        AtomicInteger polls = new AtomicInteger();
+
+        List<SignJarResult> results = signJARs(true, () -> polls.incrementAndGet() > 1);
+
+        assertEquals(NUM_JARS, results.size());
+        long cancelled = results.stream()
+                .filter(r -> r.getErrorMessage().map("Cancelled"::equals).orElse(false))
+                .count();
+        assertTrue(cancelled >= NUM_JARS - 2);  // one JAR per worker may have started
+
+        assertProgress();
+    }
+
+    /**
+     * The workers sign without timestamps; the blocks are then stamped together and the JARs cached once stamped
+     */
+    @Test
+    public void deferTimestamps() throws Exception {
+
+        TestTsa tsa = new TestTsa();
+        String userHome = System.getProperty("user.home");
+        System.setProperty("user.home", tempFolder.newFolder("home").getAbsolutePath());
+        try {
+
+            tsa.delayMillis = 200L;
+            jc.setTsaUrl(tsa.getUrl());
+            jc.setDeferTimestamps(true);
+
+            cmd.signCache.enabled = true;
+            cmd.signCache.configDir = ".resignator";
+            cmd.tsaMaxConcurrent = 4;
+
+            List<String> messages = new ArrayList<>();
+            List<SignJarResult> results = cmd.signJARs(sourceJars, targetDir, true, jc,
+                    s -> {
+                        synchronized (messages) {
+                            messages.add(s);
+                        }
+                    },
+                    progress::add, () -> false);
+
+            assertEquals(NUM_JARS - 1, results.stream().filter(SignJarResult::isSucceeded).count());
+            assertFalse(results.get(2).isSucceeded());
+            for( SignJarResult r : results ) {
+                if( r.isSucceeded() ) {
+                    TestJars.assertSignedBy(r.getTargetJar(), cert);
+                    TestJars.assertTimestamped(r.getTargetJar());
+                }
+            }
+
+            //
+            // One request per signed JAR, all made after the last JAR was signed and several at once
+            //
+            assertEquals(NUM_JARS - 1, tsa.requests.get());
+            assertTrue(tsa.maxInFlight.get() > 1);
+            int stampStage = messages.indexOf("Timestamping " + (NUM_JARS - 1) + " signed JARs");
+            assertTrue(stampStage > 0);
+            for( String m : messages.subList(stampStage, messages.size()) ) {
+                assertFalse(m, m.contains("Running builtin signer"));
+            }
+
+            assertEquals(NUM_JARS * 3, progress.size());
+            assertEquals(1.0, progress.stream().mapToDouble(Double::doubleValue).max().getAsDouble(), 0.0);
+
+            //
+            // Stamped JARs were cached; a second run doesn't sign or go to the TSA
+            //
+            for( SignJarResult r : results ) {
+                Files.deleteIfExists(r.getTargetJar());
+            }
+            messages.clear();
+
+            results = cmd.signJARs(sourceJars, targetDir, true, jc, messages::add, p -> {}, () -> false);
+
+            assertEquals(NUM_JARS - 1, tsa.requests.get());
+            assertEquals(NUM_JARS - 1, messages.stream().filter(m -> m.contains("using signed JAR from cache")).count());
+            TestJars.assertTimestamped(results.get(0).getTargetJar());
+
+        } finally {
+            System.setProperty("user.home", userHome);
+            tsa.stop();
+        }
+    }
+
+    @Test(expected = CommandExecutionException.class)
+    public void wrongKeypass() throws Exception {
+        jc.setKeypass("wrong");
+        signJARs(true, () -> false);
+    }
+
+    private List<SignJarResult> signJARs(boolean doUnsign, BooleanSupplier cancelled) throws Exception {
+        return cmd.signJARs(
+                sourceJars,
+                targetDir,
+                doUnsign,
+                jc,
+                s -> {
+                    if( s.startsWith("[jar") ) {  // per-JAR messages come from the workers
+                        workerThreads.add(Thread.currentThread().getName());
+                    }
+                },
+                progress::add,
+                cancelled
+        );
+    }
+
+    /**
+     * Every step of every JAR was counted once whatever happened to the JAR
+     */
+    private void assertProgress() {
+        assertEquals(NUM_JARS * 2, progress.size());
+        assertEquals(1.0, progress.stream().mapToDouble(Double::doubleValue).max().getAsDouble(), 0.0);
+    }
+}
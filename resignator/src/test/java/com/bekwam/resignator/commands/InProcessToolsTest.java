@@ -0,0 +1,118 @@
+/*
+ * Copyright 2015 Bekwam, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bekwam.resignator.commands;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Unit test for running JDK tools in process through CommandExecutor
+ *
+ * The command is a path that doesn't exist so a test passes only if the tool ran in process.
+ *
+ * @author carl_000
+ */
+public class InProcessToolsTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private final String missingJar = Paths.get("no-such-jdk", "bin", "jar").toString();
+
+    @Before
+    public void init() {
+        assumeTrue(InProcessTools.find("jar").isPresent());  // Java 9+
+    }
+
+    @Test
+    public void find() {
+        assertTrue(InProcessTools.find(missingJar).isPresent());
+        assertTrue(InProcessTools.find("JAR.EXE").isPresent());
+        assertFalse(InProcessTools.find("java").isPresent());
+        assertFalse(InProcessTools.find("").isPresent());
+    }
+
+    @Test
+    public void runInProcess() throws Exception {
+
+        Path jar = TestJars.create(tempFolder.getRoot().toPath().resolve("test.jar"), null, "a.txt", "b.txt");
+
+        List<String> lines = Collections.synchronizedList(new ArrayList<>());
+        List<String> stdout = Collections.synchronizedList(new ArrayList<>());
+
+        new CommandExecutor().exec(new String[] { missingJar, "tf", jar.toString() }, lines::add, stdout::add);
+
+        assertTrue(lines.contains("a.txt"));
+        assertTrue(lines.contains("b.txt"));
+        assertEquals(lines, stdout);
+    }
+
+    @Test(expected = CommandExecutionException.class)
+    public void nonZeroExit() throws Exception {
+        new CommandExecutor().exec(new String[] {
+                missingJar, "tf", tempFolder.getRoot().toPath().resolve("missing.jar").toString()
+        });
+    }
+
+    @Test
+    public void errorsObserved() throws Exception {
+
+        List<String> lines = Collections.synchronizedList(new ArrayList<>());
+        List<String> stdout = Collections.synchronizedList(new ArrayList<>());
+
+        try {
+            new CommandExecutor().exec(new String[] { missingJar, "--no-such-option" }, lines::add, stdout::add);
+            fail("expected a non-zero exit");
+        } catch(CommandExecutionException exc) {
+            assertFalse(lines.isEmpty());
+            assertTrue(stdout.isEmpty());
+        }
+    }
+
+    /**
+     * Another working dir starts a process so the missing command can't be found
+     */
+    @Test(expected = CommandExecutionException.class)
+    public void otherWorkingDirForks() throws Exception {
+        new CommandExecutor(60, tempFolder.getRoot().toPath()).exec(new String[] { missingJar, "--version" });
+    }
+
+    @Test
+    public void otherWorkingDirUsed() throws Exception {
+
+        Path jarExec = Paths.get(System.getProperty("java.home"), "bin", "jar");
+        assumeTrue(Files.isExecutable(jarExec));
+
+        Path dir = tempFolder.newFolder("work").toPath();
+        Files.write(dir.resolve("a.txt"), "a".getBytes("UTF-8"));
+
+        new CommandExecutor(60, dir).exec(new String[] { jarExec.toString(), "cf", "out.jar", "a.txt" });
+
+        assertTrue(Files.isRegularFile(dir.resolve("out.jar")));
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2015 Bekwam, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bekwam.resignator.commands;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for JDKHomeValidator
+ *
+ * @author carl_000
+ */
+public class JDKHomeValidatorTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private final JDKHomeValidator validator = new JDKHomeValidator();
+
+    @Test
+    public void notAJDK() throws Exception {
+        assertFalse(validator.validate(tempFolder.getRoot().toString()).get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void missingCommand() throws Exception {
+
+        Path bin = tempFolder.newFolder("jdk", "bin").toPath();
+        Files.createFile(bin.resolve("keytool"));
+        Files.createFile(bin.resolve("jar"));
+
+        assertFalse(validator.validate(bin.getParent().toString()).get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void discoveredJDKsHaveCommands() throws Exception {
+        for( Path jdk : validator.discover().get(10, TimeUnit.SECONDS) ) {
+            assertTrue(jdk.toString(), Files.isDirectory(jdk.resolve("bin")));
+        }
+    }
+}
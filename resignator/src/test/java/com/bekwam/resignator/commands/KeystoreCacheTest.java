@@ -0,0 +1,98 @@
+/*
+ * Copyright 2015 Bekwam, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bekwam.resignator.commands;
+
+import com.bekwam.resignator.model.KeystoreEntry;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for KeystoreCache
+ *
+ * @author carl_000
+ */
+public class KeystoreCacheTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private final AtomicInteger reads = new AtomicInteger();
+
+    private KeystoreCache cache;
+
+    private Path keystore;
+
+    @Before
+    public void init() throws Exception {
+
+        keystore = tempFolder.newFile("test.jks").toPath();
+        Files.write(keystore, new byte[] { 1, 2, 3 });
+
+        KeytoolCommand countingCommand = new KeytoolCommand() {
+            @Override
+            public List<KeystoreEntry> findKeystoreEntries(String keytoolExec, String keystore, String storepass) {
+                reads.incrementAndGet();
+                return Collections.singletonList(new KeystoreEntry("mykey", "", "PrivateKeyEntry"));
+            }
+        };
+
+        cache = new KeystoreCache();
+        cache.keytoolCommandProvider = () -> countingCommand;
+    }
+
+    @Test
+    public void readOnce() throws Exception {
+
+        assertEquals(Collections.singletonList("mykey"), cache.getAliases("keytool", keystore.toString(), "storepass"));
+        assertEquals(Collections.singletonList("mykey"), cache.getAliases("keytool", keystore.toString(), "storepass"));
+        cache.getEntries("keytool", keystore.toString(), "storepass");
+
+        assertEquals(1, reads.get());
+    }
+
+    @Test
+    public void differentStorepass() throws Exception {
+
+        cache.getAliases("keytool", keystore.toString(), "storepass");
+        cache.getAliases("keytool", keystore.toString(), "other");
+
+        assertEquals(2, reads.get());
+    }
+
+    @Test
+    public void fileChanged() throws Exception {
+
+        cache.getAliases("keytool", keystore.toString(), "storepass");
+
+        Files.write(keystore, new byte[] { 1, 2, 3, 4 });
+        Files.setLastModifiedTime(keystore, FileTime.fromMillis(System.currentTimeMillis() + 5000));
+
+        cache.getAliases("keytool", keystore.toString(), "storepass");
+
+        assertEquals(2, reads.get());
+    }
+}
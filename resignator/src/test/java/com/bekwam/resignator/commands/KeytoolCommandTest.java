@@ -0,0 +1,133 @@
+/*
+ * Copyright 2015 Bekwam, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bekwam.resignator.commands;
+
+import com.bekwam.resignator.model.KeystoreEntry;
+import org.apache.commons.lang3.SystemUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.cert.X509Certificate;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeFalse;
+
+/**
+ * Unit test for the KeyStore-based listing of KeytoolCommand
+ *
+ * @author carl_000
+ */
+public class KeytoolCommandTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private KeytoolCommand cmd;
+
+    private Path keystore;
+
+    private X509Certificate cert;
+
+    @Before
+    public void init() throws Exception {
+
+        cmd = new KeytoolCommand();
+
+        TestKeys keys = new TestKeys();
+        cert = keys.addKey("mykey", "keypass", TestKeys.keyPair("RSA"));
+        keys.addCertificate("trusted", cert);
+
+        keystore = keys.store(tempFolder.newFile("test.jks").toPath(), "storepass");
+    }
+
+    @Test
+    public void findKeystoreEntries() throws Exception {
+
+        List<KeystoreEntry> entries = cmd.findKeystoreEntries("keytool", keystore.toString(), "storepass");
+
+        assertEquals(2, entries.size());
+
+        KeystoreEntry key = entries.stream().filter(e -> e.getAlias().equals("mykey")).findFirst().get();
+        KeystoreEntry trusted = entries.stream().filter(e -> e.getAlias().equals("trusted")).findFirst().get();
+
+        assertEquals("PrivateKeyEntry", key.getEntryType());
+        assertEquals("trustedCertEntry", trusted.getEntryType());
+        assertFalse(key.getCreationDate().isEmpty());
+
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest(cert.getEncoded());
+        String fingerprint = key.getFingerprint();
+        assertEquals(digest.length * 3 - 1, fingerprint.length());
+        assertTrue(fingerprint.startsWith(String.format("%02X:%02X:", digest[0], digest[1])));
+        assertEquals(fingerprint, trusted.getFingerprint());
+    }
+
+    @Test
+    public void findAliases() throws Exception {
+        List<String> aliases = cmd.findAliases("keytool", keystore.toString(), "storepass");
+        assertTrue(aliases.contains("mykey"));
+        assertTrue(aliases.contains("trusted"));
+    }
+
+    @Test(expected = CommandExecutionException.class)
+    public void wrongStorepass() throws Exception {
+        cmd.findKeystoreEntries("keytool", keystore.toString(), "wrong");
+    }
+
+    @Test(expected = CommandExecutionException.class)
+    public void missingKeystore() throws Exception {
+        cmd.findKeystoreEntries("keytool", tempFolder.getRoot().toPath().resolve("missing.jks").toString(), "storepass");
+    }
+
+    /**
+     * A store the app can't open is listed by keytool; a warning keytool writes to stderr mid-listing is ignored
+     */
+    @Test
+    public void keytoolStderrNotParsed() throws Exception {
+
+        assumeFalse(SystemUtils.IS_OS_WINDOWS);  // fake keytool is a shell script
+
+        Path unreadable = tempFolder.newFile("other.ks").toPath();
+        Files.write(unreadable, new byte[] { 1, 2, 3, 4 });
+
+        Path keytool = tempFolder.newFile("keytool.sh").toPath();
+        Files.write(keytool, (
+                "#!/bin/sh\n" +
+                "echo 'Keystore type: OTHER'\n" +
+                "echo ''\n" +
+                "echo 'Your keystore contains 1 entry'\n" +
+                "echo ''\n" +
+                "sleep 0.5\n" +
+                "echo 'Warning:' >&2\n" +
+                "sleep 0.5\n" +
+                "echo 'mykey, Jan 1, 2024, PrivateKeyEntry,'\n" +
+                "echo 'Certificate fingerprint (SHA-256): AB:CD'\n"
+        ).getBytes("UTF-8"));
+        assertTrue(keytool.toFile().setExecutable(true));
+
+        List<KeystoreEntry> entries = cmd.findKeystoreEntries(keytool.toString(), unreadable.toString(), "storepass");
+
+        assertEquals(1, entries.size());
+        assertEquals("mykey", entries.get(0).getAlias());
+        assertEquals("PrivateKeyEntry", entries.get(0).getEntryType());
+        assertEquals("AB:CD", entries.get(0).getFingerprint());
+    }
+}
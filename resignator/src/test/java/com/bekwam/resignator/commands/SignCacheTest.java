@@ -0,0 +1,188 @@
+/*
+ * Copyright 2015 Bekwam, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bekwam.resignator.commands;
+
+import com.bekwam.resignator.model.JarsignerConfig;
+import com.bekwam.resignator.model.SignerType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for SignCache
+ *
+ * @author carl_000
+ */
+public class SignCacheTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private String userHome;
+
+    private SignCache cache;
+
+    private Path keystore;
+
+    private JarsignerConfig jc;
+
+    @Before
+    public void init() throws Exception {
+
+        userHome = System.getProperty("user.home");
+        System.setProperty("user.home", temp.getRoot().getAbsolutePath());
+
+        cache = new SignCache();
+        cache.configDir = ".resignator";
+        cache.enabled = true;
+
+        keystore = write("test.jks", "keystore");
+
+        jc = new JarsignerConfig("mykey", "storepass", "keypass", keystore.toString(), false);
+        jc.setSignerType(SignerType.BUILTIN);
+        jc.setTsaUrl("");
+    }
+
+    @After
+    public void restoreUserHome() {
+        System.setProperty("user.home", userHome);
+    }
+
+    @Test
+    public void offByDefault() {
+        SignCache defaultCache = new SignCache();
+        assertFalse(defaultCache.isEnabled());
+        assertFalse(defaultCache.key(keystore, jc, false).isPresent());
+    }
+
+    @Test
+    public void hit() throws Exception {
+
+        Path source = write("a.jar", "unsigned a");
+        String key = cache.key(source, jc, false).get();
+        cache.store(key, write("signed-a.jar", "signed a"));
+
+        assertEquals(Optional.of(key), cache.key(source, jc, false));
+
+        Path target = temp.getRoot().toPath().resolve("target.jar");
+        assertTrue(cache.restore(key, target));
+        assertEquals("signed a", read(target));
+
+        assertTrue(cache.restore(key, target));  // already up to date
+        assertEquals("signed a", read(target));
+    }
+
+    /**
+     * The stored JAR is overwritten after the first hit; later hits leave the up-to-date target alone so they
+     * didn't read it
+     */
+    @Test
+    public void hitDoesNotReadCachedJar() throws Exception {
+
+        Path source = write("a.jar", "unsigned a");
+        String key = cache.key(source, jc, false).get();
+        Path target = write("target.jar", "signed a");
+        cache.store(key, target);
+
+        assertTrue(cache.restore(key, target));
+
+        Path cached = temp.getRoot().toPath().resolve(".resignator").resolve("signcache").resolve(key + ".jar");
+        Files.write(cached, "xxxxxxxx".getBytes(StandardCharsets.UTF_8));
+
+        assertTrue(cache.restore(key, target));
+        assertTrue(cache.restore(key, target));
+        assertEquals("signed a", read(target));
+    }
+
+    @Test
+    public void missAfterSourceChange() throws Exception {
+
+        Path source = write("a.jar", "unsigned a");
+        String key = cache.key(source, jc, false).get();
+        cache.store(key, write("signed-a.jar", "signed a"));
+
+        write("a.jar", "unsigned a, changed");
+
+        String changedKey = cache.key(source, jc, false).get();
+        assertNotEquals(key, changedKey);
+        assertFalse(cache.restore(changedKey, temp.getRoot().toPath().resolve("target.jar")));
+    }
+
+    @Test
+    public void missAfterKeystoreChange() throws Exception {
+
+        Path source = write("a.jar", "unsigned a");
+        String key = cache.key(source, jc, false).get();
+        cache.store(key, write("signed-a.jar", "signed a"));
+
+        write("test.jks", "keystore with a new key");
+
+        String changedKey = cache.key(source, jc, false).get();
+        assertNotEquals(key, changedKey);
+        assertFalse(cache.restore(changedKey, temp.getRoot().toPath().resolve("target.jar")));
+    }
+
+    @Test
+    public void evictLeastRecentlyUsed() throws Exception {
+
+        Path signed = write("signed.jar", "0123456789");
+        cache.maxBytes = 25L;  // room for two
+
+        String a = cache.key(write("a.jar", "a"), jc, false).get();
+        String b = cache.key(write("b.jar", "b"), jc, false).get();
+        String c = cache.key(write("c.jar", "c"), jc, false).get();
+
+        cache.store(a, signed);
+        Thread.sleep(50);
+        cache.store(b, signed);
+        Thread.sleep(50);
+        assertTrue(cache.restore(a, temp.getRoot().toPath().resolve("target-a.jar")));  // a is now the most recent
+        Thread.sleep(50);
+        cache.store(c, signed);
+
+        assertTrue(cache.restore(a, temp.getRoot().toPath().resolve("target-a.jar")));
+        assertTrue(cache.restore(c, temp.getRoot().toPath().resolve("target-c.jar")));
+        assertFalse(cache.restore(b, temp.getRoot().toPath().resolve("target-b.jar")));
+    }
+
+    @Test
+    public void largerThanCacheNotStored() throws Exception {
+
+        cache.maxBytes = 5L;
+
+        String key = cache.key(write("a.jar", "a"), jc, false).get();
+        cache.store(key, write("signed-a.jar", "signed a"));
+
+        assertFalse(cache.restore(key, temp.getRoot().toPath().resolve("target.jar")));
+    }
+
+    private Path write(String name, String contents) throws Exception {
+        return Files.write(temp.getRoot().toPath().resolve(name), contents.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String read(Path file) throws Exception {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+}
@@ -18,10 +18,19 @@ package com.bekwam.resignator.commands;
 import com.bekwam.resignator.commands.CommandExecutionException;
 import com.bekwam.resignator.commands.SignCommand;
 
+import com.bekwam.resignator.model.SignerType;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.junit.Assert.*;
 
 /**
  * Unit test for SignCommand
@@ -30,6 +39,9 @@ import java.nio.file.Paths;
  */
 public class SignCommandTest {
 
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
     private SignCommand cmd;
 
     @Before
@@ -61,4 +73,44 @@ public class SignCommandTest {
         cmd.signJAR(null, null, "alias", "storepass", "keypass",  s -> System.out.println(s) );
     }
 
+    /**
+     * The builtin signer unsigns and signs in one pass; nothing of the old signature may be left
+     */
+    @Test
+    public void unsignAndSignBuiltin() throws Exception {
+
+        TestKeys keys = new TestKeys();
+        X509Certificate cert = keys.addKey("mykey", "keypass", TestKeys.keyPair("RSA"));
+        keys.addKey("other", "keypass", TestKeys.keyPair("RSA"));
+        Path keystore = keys.store(tempFolder.getRoot().toPath().resolve("test.jks"), "storepass");
+
+        cmd.builtinSigner = new BuiltinSigner();
+
+        //
+        // A stale digest for an entry that's gone, then a signature by another alias
+        //
+        Path source = TestJars.create(tempFolder.getRoot().toPath().resolve("source.jar"),
+                "Manifest-Version: 1.0\r\nMain-Class: a.Main\r\n\r\n" +
+                        "Name: removed.txt\r\nSHA-256-Digest: c3RhbGU=\r\n\r\n" +
+                        "Name: a.txt\r\nX-Custom: 1\r\n\r\n",
+                "a.txt", "b.txt");
+        cmd.signJAR(source, keystore, "storepass", "other", "keypass", SignerType.BUILTIN, "", s -> {});
+        assertTrue(TestJars.metaInfNames(source).contains("META-INF/OTHER.SF"));
+
+        Path target = tempFolder.getRoot().toPath().resolve("target.jar");
+        cmd.unsignAndSignJAR(source, target, keystore, "storepass", "mykey", "keypass", SignerType.BUILTIN, "", s -> {});
+
+        assertEquals(
+                new HashSet<>(Arrays.asList("META-INF/MANIFEST.MF", "META-INF/MYKEY.SF", "META-INF/MYKEY.RSA")),
+                TestJars.metaInfNames(target)
+        );
+
+        String mf = TestJars.manifest(target);
+        assertFalse(mf.contains("removed.txt"));
+        assertTrue(mf.contains("Main-Class: a.Main"));
+        assertTrue(mf.contains("X-Custom: 1"));
+        assertEquals(2, mf.split("SHA-256-Digest: ", -1).length - 1);  // a.txt and b.txt
+
+        TestJars.assertSignedBy(target, cert);
+    }
 }
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2015 Bekwam, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bekwam.resignator.commands;
+
+import com.bekwam.resignator.model.KeystoreEntry;
+import com.bekwam.resignator.model.SignValidationResult;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for SignValidator
+ *
+ * @author carl_000
+ */
+public class SignValidatorTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private final AtomicInteger reads = new AtomicInteger();
+
+    private SignValidator validator;
+
+    private Path keystore;
+
+    @Before
+    public void init() throws Exception {
+
+        keystore = tempFolder.newFile("test.jks").toPath();
+        Files.write(keystore, new byte[] { 1, 2, 3 });
+
+        KeytoolCommand countingCommand = new KeytoolCommand() {
+            @Override
+            public List<KeystoreEntry> findKeystoreEntries(String keytoolExec, String keystore, String storepass)
+                    throws CommandExecutionException {
+                reads.incrementAndGet();
+                if( !"storepass".equals(storepass) ) {
+                    throw new CommandExecutionException("keystore password was incorrect");
+                }
+                return Collections.singletonList(new KeystoreEntry("mykey", "", "PrivateKeyEntry"));
+            }
+        };
+
+        KeystoreCache keystoreCache = new KeystoreCache();
+        keystoreCache.keytoolCommandProvider = () -> countingCommand;
+
+        validator = new SignValidator();
+        validator.keystoreCache = keystoreCache;
+    }
+
+    private SignValidationResult validate(String storepass, String alias) throws Exception {
+        return validator.validateKeystore("keytool", keystore.toString(), storepass, alias).get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void valid() throws Exception {
+        assertTrue(validate("storepass", "mykey").isValid());
+        assertTrue(validate("storepass", "MyKey").isValid());  // aliases aren't case-sensitive
+    }
+
+    @Test
+    public void aliasNotFound() throws Exception {
+
+        SignValidationResult result = validate("storepass", "otherkey");
+
+        assertFalse(result.isValid());
+        assertEquals(SignValidationResult.Field.ALIAS, result.getProblems().get(0).getField());
+    }
+
+    @Test
+    public void wrongStorepass() throws Exception {
+
+        SignValidationResult result = validate("wrong", "mykey");
+
+        assertFalse(result.isValid());
+        assertEquals(SignValidationResult.Field.KEYSTORE, result.getProblems().get(0).getField());
+        assertTrue(result.getProblems().get(0).getMessage().contains("incorrect"));
+    }
+
+    @Test
+    public void rememberPassed() throws Exception {
+
+        validate("storepass", "mykey");
+        validate("storepass", "mykey");
+
+        validate("wrong", "mykey");
+        validate("wrong", "mykey");
+
+        assertEquals(3, reads.get());  // failures aren't remembered
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2015 Bekwam, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bekwam.resignator.commands;
+
+import com.bekwam.resignator.model.JarsignerConfig;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for SigningSession
+ *
+ * @author carl_000
+ */
+public class SigningSessionTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private Path keystore;
+
+    private KeyPair kp;
+
+    private X509Certificate cert;
+
+    @Before
+    public void init() throws Exception {
+        TestKeys keys = new TestKeys();
+        kp = TestKeys.keyPair("RSA");
+        cert = keys.addKey("mykey", "keypass", kp);
+        keystore = keys.store(tempFolder.getRoot().toPath().resolve("test.jks"), "storepass");
+    }
+
+    @Test
+    public void openLoadsKeyOnce() throws Exception {
+
+        SigningSession session = SigningSession.open(config("storepass", "mykey", "keypass"));
+
+        assertEquals("mykey", session.getAlias());
+        assertEquals(kp.getPrivate(), session.getPrivateKey());
+        assertEquals(cert, session.getCertificate());
+        assertEquals(1, session.getCertificateChain().size());
+
+        //
+        // Signing doesn't go back to the keystore
+        //
+        Files.delete(keystore);
+
+        Path jar = TestJars.create(tempFolder.getRoot().toPath().resolve("a.jar"), null, "a.txt");
+        new BuiltinSigner().signJAR(jar, jar, session, "", false, s -> {});
+        TestJars.assertSignedBy(jar, cert);
+    }
+
+    @Test
+    public void wrongKeypass() throws Exception {
+        assertOpenFails(config("storepass", "mykey", "wrong"), "keypass for alias mykey");
+    }
+
+    @Test
+    public void wrongStorepass() throws Exception {
+        assertOpenFails(config("wrong", "mykey", "keypass"), "storepass for keystore");
+    }
+
+    @Test
+    public void missingAlias() throws Exception {
+        assertOpenFails(config("storepass", "nokey", "keypass"), "alias nokey not found");
+    }
+
+    @Test
+    public void signConcurrently() throws Exception {
+
+        SigningSession session = SigningSession.open(config("storepass", "mykey", "keypass"));
+        BuiltinSigner signer = new BuiltinSigner();
+
+        List<Path> jars = new ArrayList<>();
+        for( int i = 0; i < 8; i++ ) {
+            jars.add(TestJars.create(tempFolder.getRoot().toPath().resolve("jar" + i + ".jar"), null,
+                    "a" + i + ".txt", "b" + i + ".txt"));
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for( Path jar : jars ) {
+                futures.add(pool.submit(() -> {
+                    signer.signJAR(jar, jar, session, "", false, s -> {});
+                    return null;
+                }));
+            }
+            for( Future<?> f : futures ) {
+                f.get();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        for( Path jar : jars ) {
+            TestJars.assertSignedBy(jar, cert);
+        }
+    }
+
+    private JarsignerConfig config(String storepass, String alias, String keypass) {
+        return new JarsignerConfig(alias, storepass, keypass, keystore.toString(), false);
+    }
+
+    private void assertOpenFails(JarsignerConfig jc, String expectedMessage) {
+        try {
+            SigningSession.open(jc);
+            fail("opened the session");
+        } catch(CommandExecutionException exc) {
+            assertTrue(exc.getMessage(), exc.getMessage().contains(expectedMessage));
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2015 Bekwam, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bekwam.resignator.commands;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.CodeSigner;
+import java.security.cert.Certificate;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Writes small JARs and checks their signatures for the signing tests
+ *
+ * @author carl_000
+ */
+class TestJars {
+
+    /**
+     * Writes a JAR holding each name with its name as contents
+     *
+     * @param manifest MANIFEST.MF as it should appear, written first; null for no manifest
+     */
+    static Path create(Path jar, String manifest, String... names) throws IOException {
+        try (
+                ZipOutputStream zos = new ZipOutputStream(Files.newOutputStream(jar))
+        ) {
+            if( manifest != null ) {
+                zos.putNextEntry(new ZipEntry("META-INF/MANIFEST.MF"));
+                zos.write(manifest.getBytes(StandardCharsets.UTF_8));
+                zos.closeEntry();
+            }
+            for( String name : names ) {
+                zos.putNextEntry(new ZipEntry(name));
+                if( !name.endsWith("/") ) {
+                    zos.write(name.getBytes(StandardCharsets.UTF_8));
+                }
+                zos.closeEntry();
+            }
+        }
+        return jar;
+    }
+
+    /**
+     * Writes bytes that aren't a zip
+     */
+    static Path createCorrupt(Path jar) throws IOException {
+        try (
+                OutputStream os = Files.newOutputStream(jar)
+        ) {
+            os.write("not a jar".getBytes(StandardCharsets.UTF_8));
+        }
+        return jar;
+    }
+
+    /**
+     * Reads every entry with verification on and checks that each entry outside META-INF is signed by exactly the
+     * given certificates
+     */
+    static void assertSignedBy(Path jar, Certificate... certs) throws IOException {
+
+        Set<Certificate> expected = new HashSet<>(Arrays.asList(certs));
+        byte[] buf = new byte[4096];
+        int checked = 0;
+
+        try (
+                JarFile jf = new JarFile(jar.toFile(), true)
+        ) {
+            Enumeration<JarEntry> entries = jf.entries();
+            while( entries.hasMoreElements() ) {
+
+                JarEntry e = entries.nextElement();
+
+                try (
+                        InputStream is = jf.getInputStream(e)
+                ) {
+                    while( is.read(buf) != -1 ) {
+                        // read to the end so the entry is verified
+                    }
+                }
+
+                if( e.isDirectory() || e.getName().startsWith("META-INF/") ) {
+                    continue;
+                }
+
+                CodeSigner[] signers = e.getCodeSigners();
+                assertNotNull(e.getName() + " isn't signed", signers);
+
+                Set<Certificate> actual = new HashSet<>();
+                for( CodeSigner cs : signers ) {
+                    actual.add(cs.getSignerCertPath().getCertificates().get(0));
+                }
+                assertEquals(e.getName() + " signers", expected, actual);
+
+                checked++;
+            }
+        }
+
+        assertTrue("no entries to check in " + jar, checked > 0);
+    }
+
+    /**
+     * Reads every entry with verification on and checks that each signature on an entry outside META-INF has a
+     * timestamp
+     */
+    static void assertTimestamped(Path jar) throws IOException {
+
+        byte[] buf = new byte[4096];
+
+        try (
+                JarFile jf = new JarFile(jar.toFile(), true)
+        ) {
+            Enumeration<JarEntry> entries = jf.entries();
+            while( entries.hasMoreElements() ) {
+
+                JarEntry e = entries.nextElement();
+
+                try (
+                        InputStream is = jf.getInputStream(e)
+                ) {
+                    while( is.read(buf) != -1 ) {
+                        // read to the end so the entry is verified
+                    }
+                }
+
+                if( e.isDirectory() || e.getName().startsWith("META-INF/") ) {
+                    continue;
+                }
+
+                assertNotNull(e.getName() + " isn't signed", e.getCodeSigners());
+                for( CodeSigner cs : e.getCodeSigners() ) {
+                    assertNotNull(e.getName() + " has no timestamp", cs.getTimestamp());
+                }
+            }
+        }
+    }
+
+    /**
+     * Names of the entries directly under META-INF
+     */
+    static Set<String> metaInfNames(Path jar) throws IOException {
+        Set<String> names = new HashSet<>();
+        try (
+                JarFile jf = new JarFile(jar.toFile(), false)
+        ) {
+            Enumeration<JarEntry> entries = jf.entries();
+            while( entries.hasMoreElements() ) {
+                String name = entries.nextElement().getName();
+                if( name.startsWith("META-INF/") && name.indexOf('/', "META-INF/".length()) == -1 ) {
+                    names.add(name);
+                }
+            }
+        }
+        return names;
+    }
+
+    static String manifest(Path jar) throws IOException {
+        try (
+                JarFile jf = new JarFile(jar.toFile(), false)
+        ) {
+            try (
+                    InputStream is = jf.getInputStream(jf.getEntry("META-INF/MANIFEST.MF"))
+            ) {
+                ByteArrayOutputStream contents = new ByteArrayOutputStream();
+                byte[] buf = new byte[4096];
+                int n;
+                while( (n = is.read(buf)) != -1 ) {
+                    contents.write(buf, 0, n);
+                }
+                return new String(contents.toByteArray(), StandardCharsets.UTF_8);
+            }
+        }
+    }
+}
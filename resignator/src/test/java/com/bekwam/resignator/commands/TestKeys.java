@@ -0,0 +1,108 @@
+/*
+ * Copyright 2015 Bekwam, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bekwam.resignator.commands;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keys and a JKS keystore for the signing and keystore tests
+ *
+ * Certificates are made with BouncyCastle so no keytool process is needed.
+ *
+ * @author carl_000
+ */
+class TestKeys {
+
+    private final static AtomicLong serial = new AtomicLong();
+
+    private final KeyStore ks;
+
+    TestKeys() throws Exception {
+        ks = KeyStore.getInstance("JKS");
+        ks.load(null, null);
+    }
+
+    static KeyPair keyPair(String algorithm) throws Exception {
+        KeyPairGenerator kpg = KeyPairGenerator.getInstance(algorithm);
+        if( "RSA".equals(algorithm) ) {
+            kpg.initialize(2048);
+        } else if( "EC".equals(algorithm) ) {
+            kpg.initialize(256);
+        }
+        return kpg.generateKeyPair();
+    }
+
+    /**
+     * Certificate for subject's public key signed with issuer's private key
+     *
+     * @param issuer an RSA or EC key pair
+     */
+    static X509Certificate certificate(String cn, KeyPair subject, KeyPair issuer) throws Exception {
+        X500Name name = new X500Name("CN=" + cn);
+        String sigAlg = "EC".equals(issuer.getPrivate().getAlgorithm()) ? "SHA256withECDSA" : "SHA256withRSA";
+        return new JcaX509CertificateConverter().getCertificate(
+                new JcaX509v3CertificateBuilder(
+                        name,
+                        BigInteger.valueOf(serial.incrementAndGet()),
+                        new Date(System.currentTimeMillis() - 60 * 60 * 1000),
+                        new Date(System.currentTimeMillis() + 60 * 60 * 1000),
+                        name,
+                        subject.getPublic()
+                ).build(new JcaContentSignerBuilder(sigAlg).build(issuer.getPrivate()))
+        );
+    }
+
+    /**
+     * Adds a private key entry with a self-signed certificate
+     */
+    X509Certificate addKey(String alias, String keypass, KeyPair kp) throws Exception {
+        return addKey(alias, keypass, kp, kp);
+    }
+
+    X509Certificate addKey(String alias, String keypass, KeyPair kp, KeyPair issuer) throws Exception {
+        X509Certificate cert = certificate("Test Signer " + alias, kp, issuer);
+        ks.setKeyEntry(alias, kp.getPrivate(), keypass.toCharArray(), new Certificate[] { cert });
+        return cert;
+    }
+
+    void addCertificate(String alias, X509Certificate cert) throws Exception {
+        ks.setCertificateEntry(alias, cert);
+    }
+
+    Path store(Path keystore, String storepass) throws Exception {
+        try (
+                OutputStream os = Files.newOutputStream(keystore)
+        ) {
+            ks.store(os, storepass.toCharArray());
+        }
+        return keystore;
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2015 Bekwam, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bekwam.resignator.commands;
+
+import com.sun.net.httpserver.HttpServer;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.oiw.OIWObjectIdentifiers;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.ExtendedKeyUsage;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.KeyPurposeId;
+import org.bouncycastle.cert.jcajce.JcaCertStore;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.cms.jcajce.JcaSimpleSignerInfoGeneratorBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+import org.bouncycastle.tsp.TSPAlgorithms;
+import org.bouncycastle.tsp.TimeStampRequest;
+import org.bouncycastle.tsp.TimeStampResponseGenerator;
+import org.bouncycastle.tsp.TimeStampTokenGenerator;
+
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.security.KeyPair;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.Date;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * RFC 3161 timestamp authority running in the test JVM
+ *
+ * Requests are handled concurrently.  failuresLeft makes the next requests fail with failureCode and delayMillis
+ * holds each response back so that tests can see how many requests are in flight at once.
+ *
+ * @author carl_000
+ */
+class TestTsa {
+
+    final AtomicInteger requests = new AtomicInteger();
+
+    final AtomicInteger failuresLeft = new AtomicInteger();
+
+    final AtomicInteger maxInFlight = new AtomicInteger();
+
+    volatile int failureCode = 503;
+
+    volatile long delayMillis = 0L;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final HttpServer server;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    private final String url;
+
+    TestTsa() throws Exception {
+
+        KeyPair kp = TestKeys.keyPair("RSA");
+
+        X500Name name = new X500Name("CN=Test TSA");
+        JcaX509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(
+                name,
+                BigInteger.ONE,
+                new Date(System.currentTimeMillis() - 60 * 60 * 1000),
+                new Date(System.currentTimeMillis() + 60 * 60 * 1000),
+                name,
+                kp.getPublic()
+        );
+        builder.addExtension(Extension.extendedKeyUsage, true, new ExtendedKeyUsage(KeyPurposeId.id_kp_timeStamping));
+        X509Certificate cert = new JcaX509CertificateConverter().getCertificate(
+                builder.build(new JcaContentSignerBuilder("SHA256withRSA").build(kp.getPrivate()))
+        );
+
+        TimeStampTokenGenerator tokenGen = new TimeStampTokenGenerator(
+                new JcaSimpleSignerInfoGeneratorBuilder().build("SHA256withRSA", kp.getPrivate(), cert),
+                new JcaDigestCalculatorProviderBuilder().build().get(new AlgorithmIdentifier(OIWObjectIdentifiers.idSHA1)),
+                new ASN1ObjectIdentifier("1.2.3.4")
+        );
+        tokenGen.addCertificates(new JcaCertStore(Collections.singletonList(cert)));
+        TimeStampResponseGenerator responseGen = new TimeStampResponseGenerator(tokenGen, TSPAlgorithms.ALLOWED);
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                int serial = requests.incrementAndGet();
+                if( delayMillis > 0 ) {
+                    Thread.sleep(delayMillis);
+                }
+                if( failuresLeft.getAndDecrement() > 0 ) {
+                    exchange.sendResponseHeaders(failureCode, -1);
+                    return;
+                }
+                TimeStampRequest request = new TimeStampRequest(exchange.getRequestBody());
+                byte[] response;
+                synchronized (responseGen) {
+                    response = responseGen.generate(request, BigInteger.valueOf(serial), new Date()).getEncoded();
+                }
+                exchange.getResponseHeaders().add("Content-Type", "application/timestamp-reply");
+                exchange.sendResponseHeaders(200, response.length);
+                exchange.getResponseBody().write(response);
+            } catch(Exception exc) {
+                exchange.sendResponseHeaders(500, -1);
+            } finally {
+                inFlight.decrementAndGet();
+                exchange.close();
+            }
+        });
+        server.setExecutor(executor);
+        server.start();
+
+        url = "http://localhost:" + server.getAddress().getPort() + "/";
+    }
+
+    String getUrl() {
+        return url;
+    }
+
+    void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
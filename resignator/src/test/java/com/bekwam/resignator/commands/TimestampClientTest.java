@@ -0,0 +1,112 @@
+/*
+ * Copyright 2015 Bekwam, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bekwam.resignator.commands;
+
+import org.bouncycastle.tsp.TimeStampToken;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for TimestampClient against a TSA running in the test JVM
+ *
+ * @author carl_000
+ */
+public class TimestampClientTest {
+
+    private TestTsa tsa;
+
+    private String tsaUrl;
+
+    private TimestampClient client;
+
+    @Before
+    public void init() throws Exception {
+
+        tsa = new TestTsa();
+        tsaUrl = tsa.getUrl();
+
+        client = new TimestampClient();
+        client.backoffMillis = 10L;
+    }
+
+    @After
+    public void fin() {
+        tsa.stop();
+    }
+
+    @Test
+    public void requestToken() throws Exception {
+
+        byte[] signature = "signature".getBytes(StandardCharsets.UTF_8);
+
+        TimeStampToken token = client.requestToken(tsaUrl, signature);
+
+        assertArrayEquals(
+                MessageDigest.getInstance("SHA-256").digest(signature),
+                token.getTimeStampInfo().getMessageImprintDigest()
+        );
+        assertEquals(1, tsa.requests.get());
+    }
+
+    @Test
+    public void retryAfterServerError() throws Exception {
+
+        tsa.failuresLeft.set(2);
+
+        TimeStampToken token = client.requestToken(tsaUrl, new byte[] { 1, 2, 3 });
+
+        assertNotNull(token);
+        assertEquals(3, tsa.requests.get());
+    }
+
+    @Test
+    public void giveUpAfterMaxAttempts() throws Exception {
+
+        tsa.failuresLeft.set(10);
+
+        try {
+            client.requestToken(tsaUrl, new byte[] { 1, 2, 3 });
+            fail("expected IOException");
+        } catch(IOException exc) {
+            assertTrue(exc.getMessage().contains("HTTP 503"));
+        }
+
+        assertEquals(3, tsa.requests.get());
+    }
+
+    @Test
+    public void noRetryAfterClientError() throws Exception {
+
+        tsa.failuresLeft.set(10);
+        tsa.failureCode = 400;
+
+        try {
+            client.requestToken(tsaUrl, new byte[] { 1, 2, 3 });
+            fail("expected IOException");
+        } catch(IOException exc) {
+            assertTrue(exc.getMessage().contains("HTTP 400"));
+        }
+
+        assertEquals(1, tsa.requests.get());
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2015 Bekwam, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bekwam.resignator.commands;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for the streaming mode of UnsignCommand
+ *
+ * @author carl_000
+ */
+public class UnsignCommandTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private UnsignCommand cmd;
+
+    private Path signedJar;
+
+    @Before
+    public void init() throws IOException {
+
+        cmd = new UnsignCommand();
+
+        String manifest =
+                "Manifest-Version: 1.0\r\n" +
+                "Main-Class: com.example.Main\r\n" +
+                "\r\n" +
+                "Name: com/example/Main.class\r\n" +
+                "SHA-256-Digest: AAAA\r\n" +
+                "\r\n" +
+                "Name: com/example/data.txt\r\n" +
+                "Content-Type: text/plain\r\n" +
+                "SHA-256-Digest: BBBB\r\n" +
+                "\r\n";
+
+        signedJar = tempFolder.newFile("signed.jar").toPath();
+
+        try (
+                ZipOutputStream zos = new ZipOutputStream(Files.newOutputStream(signedJar))
+        ) {
+            zos.setLevel(Deflater.BEST_SPEED);  // differs from the default level used when recompressing
+            writeEntry(zos, JarFile.MANIFEST_NAME, manifest.getBytes(StandardCharsets.UTF_8), ZipEntry.DEFLATED);
+            writeEntry(zos, "META-INF/MYKEY.SF", "sf".getBytes(StandardCharsets.UTF_8), ZipEntry.DEFLATED);
+            writeEntry(zos, "META-INF/MYKEY.RSA", "block".getBytes(StandardCharsets.UTF_8), ZipEntry.DEFLATED);
+            writeEntry(zos, "META-INF/maven/pom.properties", "version=1".getBytes(StandardCharsets.UTF_8), ZipEntry.DEFLATED);
+            writeEntry(zos, "com/example/Main.class", new byte[] { (byte)0xCA, (byte)0xFE }, ZipEntry.DEFLATED);
+            writeEntry(zos, "com/example/data.txt", "stored".getBytes(StandardCharsets.UTF_8), ZipEntry.STORED);
+            writeEntry(zos, "com/example/big.txt", bigText().getBytes(StandardCharsets.UTF_8), ZipEntry.DEFLATED);
+        }
+    }
+
+    @Test
+    public void streamUnsignDropsSignatureFiles() throws Exception {
+
+        Path target = tempFolder.getRoot().toPath().resolve("unsigned.jar");
+
+        cmd.unsignJAR(signedJar, target, s -> {});
+
+        assertEquals(
+                "META-INF/MANIFEST.MF,META-INF/maven/pom.properties,com/example/Main.class,com/example/data.txt," +
+                        "com/example/big.txt",
+                String.join(",", entryNames(target))
+        );
+    }
+
+    @Test
+    public void streamUnsignStripsDigests() throws Exception {
+
+        Path target = tempFolder.getRoot().toPath().resolve("unsigned.jar");
+
+        cmd.unsignJAR(signedJar, target, s -> {});
+
+        Manifest mf;
+        try (
+                ZipFile zf = new ZipFile(target.toFile())
+        ) {
+            try (
+                    InputStream is = zf.getInputStream(zf.getEntry(JarFile.MANIFEST_NAME))
+            ) {
+                mf = new Manifest(is);
+            }
+            assertEquals("stored", new String(readAll(zf, "com/example/data.txt"), StandardCharsets.UTF_8));
+            assertEquals(ZipEntry.STORED, zf.getEntry("com/example/data.txt").getMethod());
+        }
+
+        assertEquals("com.example.Main", mf.getMainAttributes().getValue(Attributes.Name.MAIN_CLASS));
+        assertNull(mf.getAttributes("com/example/Main.class"));  // only held a digest
+        assertEquals("text/plain", mf.getAttributes("com/example/data.txt").getValue("Content-Type"));
+        assertNull(mf.getAttributes("com/example/data.txt").getValue("SHA-256-Digest"));
+    }
+
+    @Test
+    public void streamUnsignInPlace() throws Exception {
+
+        cmd.unsignJAR(signedJar, signedJar, s -> {});
+
+        assertFalse(entryNames(signedJar).contains("META-INF/MYKEY.SF"));
+        assertEquals(5, entryNames(signedJar).size());
+    }
+
+    @Test
+    public void streamUnsignCopiesCompressedBytes() throws Exception {
+
+        Path target = tempFolder.getRoot().toPath().resolve("unsigned.jar");
+
+        cmd.unsignJAR(signedJar, target, s -> {});
+
+        try (
+                ZipFile source = new ZipFile(signedJar.toFile());
+                ZipFile zf = new ZipFile(target.toFile())
+        ) {
+            ZipEntry before = source.getEntry("com/example/big.txt");
+            ZipEntry after = zf.getEntry("com/example/big.txt");
+
+            assertEquals(before.getCompressedSize(), after.getCompressedSize());
+            assertEquals(before.getCrc(), after.getCrc());
+            assertEquals(bigText(), new String(readAll(zf, "com/example/big.txt"), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test(expected=CommandExecutionException.class)
+    public void noSource() throws Exception {
+        cmd.unsignJAR(tempFolder.getRoot().toPath().resolve("missing.jar"), signedJar, s -> {});
+    }
+
+    private String bigText() {
+        StringBuilder sb = new StringBuilder();
+        for( int i = 0; i < 2000; i++ ) {
+            sb.append("line ").append(i % 37).append(" of some repetitive text\n");
+        }
+        return sb.toString();
+    }
+
+    private List<String> entryNames(Path jar) throws IOException {
+        try (
+                ZipFile zf = new ZipFile(jar.toFile())
+        ) {
+            return zf.stream().map(ZipEntry::getName).collect(Collectors.toList());
+        }
+    }
+
+    private byte[] readAll(ZipFile zf, String name) throws IOException {
+        byte[] contents = new byte[(int)zf.getEntry(name).getSize()];
+        try (
+                InputStream is = zf.getInputStream(zf.getEntry(name))
+        ) {
+            new DataInputStream(is).readFully(contents);
+        }
+        return contents;
+    }
+
+    private void writeEntry(ZipOutputStream zos, String name, byte[] contents, int method) throws IOException {
+        ZipEntry e = new ZipEntry(name);
+        e.setMethod(method);
+        if( method == ZipEntry.STORED ) {
+            CRC32 crc = new CRC32();
+            crc.update(contents);
+            e.setSize(contents.length);
+            e.setCompressedSize(contents.length);
+            e.setCrc(crc.getValue());
+        }
+        zos.putNextEntry(e);
+        zos.write(contents);
+        zos.closeEntry();
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2015 Bekwam, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bekwam.resignator.model;
+
+import com.bekwam.resignator.ActiveConfiguration;
+import com.bekwam.resignator.ActiveProfile;
+import com.bekwam.resignator.util.CryptUtils;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.function.Supplier;
+
+/**
+ * Temporary folder used as user.home for the duration of a test
+ *
+ * newDataSource() sets up every store the same way; the save delay is long so that only flush() and the stores'
+ * own writes reach the disk during a test.
+ *
+ * @author carl_000
+ */
+class ConfigDirRule extends TemporaryFolder {
+
+    private String userHome;
+
+    @Override
+    protected void before() throws Throwable {
+        super.before();
+        userHome = System.getProperty("user.home");
+        System.setProperty("user.home", getRoot().getAbsolutePath());
+    }
+
+    @Override
+    protected void after() {
+        System.setProperty("user.home", userHome);
+        super.after();
+    }
+
+    /**
+     * Configures and initializes a data source for .resignator/resignator.json under user.home
+     */
+    static <T extends ConfigurationDataSourceImpl> T newDataSource(Supplier<T> supplier) throws Exception {
+        T ds = supplier.get();
+        ds.configDir = ".resignator";
+        ds.jsonConfigFile = "resignator.json";
+        ds.activeConf = new ActiveConfiguration();
+        ds.activeProfile = new ActiveProfile();
+        ds.cryptUtils = new CryptUtils();
+        ds.saveDelayMillis = 60_000L;
+        ds.init();
+        return ds;
+    }
+}
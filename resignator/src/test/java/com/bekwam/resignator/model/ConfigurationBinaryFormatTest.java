@@ -0,0 +1,240 @@
+/*
+ * Copyright 2015 Bekwam, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bekwam.resignator.model;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests ConfigurationBinaryFormat and BinaryConfigurationDataSource
+ *
+ * @author carl_000
+ */
+public class ConfigurationBinaryFormatTest {
+
+    @Rule
+    public ConfigDirRule temp = new ConfigDirRule();
+
+    private final ConfigurationBinaryFormat format = new ConfigurationBinaryFormat();
+
+    @Test
+    public void readsLikeJson() throws Exception {
+
+        Configuration conf = configWithProfiles(3);
+        conf.getProfiles().get(1).getJarsignerConfig().get().setTsaUrl(null);
+        conf.getProfiles().get(2).getJarsignerConfig().get().setDeferTimestamps(true);
+        conf.getProfiles().get(2).setTargetFile(Optional.empty());
+        conf.getProfiles().add(new Profile("no-config", null, SigningArgumentsType.JAR));
+
+        Configuration fromBinary = format.read(ByteBuffer.wrap(format.write(conf)));
+        Configuration fromJson = new ConfigurationTypeAdapter().fromJson(
+                new String(ConfigurationDataSourceImpl.toJson(conf), ConfigurationDataSourceImpl.JSON_CHARSET));
+
+        assertEquals( json(fromJson), json(fromBinary) );
+    }
+
+    @Test
+    public void sharedStringsStoredOnce() throws Exception {
+
+        Configuration conf = configWithProfiles(1000);
+
+        byte[] binary = format.write(conf);
+        byte[] json = ConfigurationDataSourceImpl.toJson(conf);
+
+        String s = new String(binary, StandardCharsets.UTF_8);
+        assertEquals( s.indexOf("/keystores/shared.jks"), s.lastIndexOf("/keystores/shared.jks") );
+        assertTrue( binary.length * 3 < json.length );
+    }
+
+    @Test
+    public void readsMappedFile() throws Exception {
+
+        Configuration conf = configWithProfiles(2000);  // over the mapping threshold
+
+        Path file = temp.newFile("resignator.bin").toPath();
+        Files.write(file, format.write(conf));
+
+        assertEquals( json(conf), json(format.read(file)) );
+    }
+
+    @Test(expected=IOException.class)
+    public void corruptionDetected() throws Exception {
+        byte[] binary = format.write(configWithProfiles(5));
+        binary[binary.length / 2] ^= 0x10;
+        format.read(ByteBuffer.wrap(binary));
+    }
+
+    @Test(expected=IOException.class)
+    public void otherVersionsRejected() throws Exception {
+        byte[] binary = format.write(configWithProfiles(1));
+        binary[5] = 2;
+        format.read(ByteBuffer.wrap(binary));
+    }
+
+    @Test
+    public void exportAndImportJson() throws Exception {
+
+        Configuration conf = configWithProfiles(10);
+        Path bin = temp.newFile("a.bin").toPath();
+        Path json = temp.newFile("a.json").toPath();
+        Path bin2 = temp.newFile("b.bin").toPath();
+
+        Files.write(bin, format.write(conf));
+        format.exportJson(bin, json);
+        format.importJson(json, bin2);
+
+        assertArrayEquals( ConfigurationDataSourceImpl.toJson(conf), Files.readAllBytes(json) );
+        assertArrayEquals( Files.readAllBytes(bin), Files.readAllBytes(bin2) );
+    }
+
+    @Test
+    public void dataSourceImportsConfigFile() throws Exception {
+
+        Configuration conf = configWithProfiles(3);
+        conf.getRecentProfiles().add("profile-1");
+
+        File configDir = temp.newFolder(".resignator");
+        Files.write(new File(configDir, "resignator.json").toPath(), ConfigurationDataSourceImpl.toJson(conf));
+
+        BinaryConfigurationDataSource ds = newDataSource();
+        ds.loadConfiguration();
+
+        assertEquals( "[profile-0, profile-1, profile-2]", ds.getProfileNames().toString() );
+
+        ds.activeProfile.setProfileName("added");
+        ds.saveProfile();
+        ds.flush();
+
+        BinaryConfigurationDataSource reopened = newDataSource();
+        reopened.loadConfiguration();
+
+        assertEquals( "[added, profile-0, profile-1, profile-2]", reopened.getProfileNames().toString() );
+        assertEquals( "[profile-1, added]", reopened.getRecentProfileNames().toString() );
+        assertTrue( reopened.getConfigFile().getName().endsWith(".bin") );
+    }
+
+    /**
+     * resignator.json is in the platform charset; runs the import in a JVM whose charset isn't UTF-8
+     */
+    @Test
+    public void importsPlatformCharsetJson() throws Exception {
+
+        Path javaExec = Paths.get(System.getProperty("java.home"), "bin", "java");
+        File home = temp.newFolder("home");
+
+        Process p = new ProcessBuilder(
+                javaExec.toString(),
+                "-Dfile.encoding=windows-1252",
+                "-cp", System.getProperty("java.class.path"),
+                ImportInPlatformCharset.class.getName(),
+                home.getAbsolutePath()
+        ).redirectErrorStream(true).start();
+
+        byte[] output = IOUtils.toByteArray(p.getInputStream());
+        assertTrue( p.waitFor(60, TimeUnit.SECONDS) );
+        assertEquals( new String(output), 0, p.exitValue() );
+    }
+
+    /**
+     * Imports a resignator.json holding non-ASCII names and exports it again
+     */
+    public static class ImportInPlatformCharset {
+
+        public static void main(String[] args) throws Exception {
+
+            if( StandardCharsets.UTF_8.equals(ConfigurationDataSourceImpl.JSON_CHARSET) ) {
+                throw new IllegalStateException("platform charset is UTF-8; can't test another");
+            }
+
+            System.setProperty("user.home", args[0]);
+
+            Configuration conf = new Configuration();
+            Profile p = new Profile("Caf\u00e9 R\u00e9sum\u00e9", false, SigningArgumentsType.JAR);
+            p.setSourceFile(Optional.of(new SourceFile("C:\\Users\\J\u00fcrgen\\app.jar")));
+            conf.getProfiles().add(p);
+
+            File configDir = new File(args[0], ".resignator");
+            if( !configDir.mkdirs() ) {
+                throw new IOException("can't create " + configDir);
+            }
+            byte[] json = ConfigurationDataSourceImpl.toJson(conf);
+            Files.write(new File(configDir, "resignator.json").toPath(), json);
+
+            BinaryConfigurationDataSource ds = ConfigDirRule.newDataSource(BinaryConfigurationDataSource::new);
+            ds.loadConfiguration();
+
+            if( !ds.getProfileNames().equals(Collections.singletonList(p.getProfileName())) ) {
+                throw new AssertionError("imported " + ds.getProfileNames());
+            }
+
+            Path exported = new File(configDir, "exported.json").toPath();
+            new ConfigurationBinaryFormat().exportJson(ds.getConfigFile().toPath(), exported);
+
+            if( !Arrays.equals(json, Files.readAllBytes(exported)) ) {
+                throw new AssertionError("exported " + new String(Files.readAllBytes(exported), StandardCharsets.ISO_8859_1));
+            }
+        }
+    }
+
+    private Configuration configWithProfiles(int n) {
+
+        Configuration conf = new Configuration();
+        conf.setActiveProfile(Optional.of("profile-0"));
+        conf.setJDKHome(Optional.of("/opt/jdk1.8.0"));
+        conf.setHashedPassword(Optional.of("hash"));
+        conf.setLastUpdatedDateTime(Optional.of(LocalDateTime.of(2015, 10, 1, 12, 30)));
+
+        for( int i = 0; i < n; i++ ) {
+            Profile p = new Profile("profile-" + i, i % 2 == 0, i % 3 == 0 ? SigningArgumentsType.FOLDER : SigningArgumentsType.JAR);
+            p.setSourceFile(Optional.of(new SourceFile("/home/user/jars/app-" + i + ".jar")));
+            p.setTargetFile(Optional.of(new TargetFile("/home/user/jars/signed/app-" + i + ".jar")));
+            JarsignerConfig jc = new JarsignerConfig("release", "", "", "/home/user/keystores/shared.jks", i % 5 == 0);
+            jc.setEncryptedKeypass("RSG2:c2FsdA==:aXY=:a2V5cGFzcw==");
+            jc.setEncryptedStorepass("RSG2:c2FsdA==:aXY=:c3RvcmVwYXNz");
+            jc.setSignerType(i % 2 == 0 ? SignerType.BUILTIN : SignerType.JARSIGNER);
+            p.setJarsignerConfig(Optional.of(jc));
+            conf.getProfiles().add(p);
+        }
+
+        return conf;
+    }
+
+    private String json(Configuration c) throws IOException {
+        return new String(ConfigurationDataSourceImpl.toJson(c), ConfigurationDataSourceImpl.JSON_CHARSET);
+    }
+
+    private BinaryConfigurationDataSource newDataSource() throws Exception {
+        return ConfigDirRule.newDataSource(BinaryConfigurationDataSource::new);
+    }
+}
@@ -15,12 +15,36 @@
  */
 package com.bekwam.resignator.model;
 
+import com.bekwam.resignator.ActiveConfiguration;
+import com.bekwam.resignator.ActiveProfile;
+import com.bekwam.resignator.util.CryptUtils;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.openpgp.PGPException;
+import org.junit.After;
 import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.security.NoSuchProviderException;
+import java.security.Security;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static junit.framework.TestCase.assertFalse;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -30,11 +54,27 @@ import static org.junit.Assert.assertTrue;
  */
 public class ConfigurationDataSourceImplTest {
 
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
     private ConfigurationDataSourceImpl ds;
 
+    private String userHome;
+
+    @BeforeClass
+    public static void addProvider() {
+        Security.addProvider(new BouncyCastleProvider());
+    }
+
     @Before
     public void init() {
         ds = new ConfigurationDataSourceImpl();
+        userHome = System.getProperty("user.home");
+    }
+
+    @After
+    public void restoreUserHome() {
+        System.setProperty("user.home", userHome);
     }
 
     @Test
@@ -52,4 +92,299 @@ public class ConfigurationDataSourceImplTest {
     public void notSecured() {
         assertFalse(ds.isSecured());
     }
+
+    @Test
+    public void savesAreWrittenOnFlush() throws Exception {
+
+        File configFile = initFileSystem(60_000L);
+
+        byte[] empty = Files.readAllBytes(configFile.toPath());
+        assertTrue( new String(empty, Charset.defaultCharset()).contains("\"profiles\":[]") );
+
+        for( int i = 0; i < 3; i++ ) {
+            ds.getProfiles().add(new Profile("p" + i, false, SigningArgumentsType.JAR));
+            ds.saveConfiguration();
+        }
+
+        assertArrayEquals( empty, Files.readAllBytes(configFile.toPath()) );  // still waiting out the delay
+
+        ds.flush();
+
+        String json = new String(Files.readAllBytes(configFile.toPath()), Charset.defaultCharset());
+        assertTrue( json.contains("\"profileName\":\"p2\"") );
+        assertEquals( 1, temp.getRoot().toPath().resolve(".resignator").toFile().list().length );  // no temp files
+    }
+
+    @Test
+    public void saveIsWrittenBehind() throws Exception {
+
+        File configFile = initFileSystem(10L);
+
+        ds.getProfiles().add(new Profile("p", false, SigningArgumentsType.JAR));
+        ds.saveConfiguration();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while( !new String(Files.readAllBytes(configFile.toPath()), Charset.defaultCharset()).contains("\"p\"") ) {
+            assertTrue( System.currentTimeMillis() < deadline );
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void loadSeesPendingSave() throws Exception {
+
+        initFileSystem(60_000L);
+
+        ds.getProfiles().add(new Profile("p", false, SigningArgumentsType.JAR));
+        ds.saveConfiguration();
+
+        ds.loadConfiguration();
+
+        assertTrue( ds.profileExists("p") );
+    }
+
+    @Test
+    public void namesIgnoreCase() throws Exception {
+
+        initFileSystem(60_000L);
+
+        ds.setConfiguration(Optional.of(configWithProfiles("Alpha", "Beta")));
+
+        assertTrue( ds.profileExists("ALPHA") );
+
+        ds.deleteProfile("alpha");
+        assertFalse( ds.profileExists("Alpha") );
+        assertEquals( 1, ds.getProfiles().size() );
+
+        ds.renameProfile("BETA", "Gamma");
+        assertFalse( ds.profileExists("beta") );
+        assertTrue( ds.profileExists("gamma") );
+        assertEquals( "Gamma", ds.getProfiles().get(0).getProfileName() );
+    }
+
+    @Test
+    public void suggestUniqueProfileName() {
+
+        String[] names = new String[2000];
+        names[0] = "x";
+        for( int i = 1; i < names.length; i++ ) {
+            names[i] = "X-" + (i + 1);
+        }
+        ds.setConfiguration(Optional.of(configWithProfiles(names)));
+
+        assertEquals( "x-2001", ds.suggestUniqueProfileName("x") );
+        assertEquals( "y-2", ds.suggestUniqueProfileName("y") );
+    }
+
+    @Test
+    public void decryptsProfilesAsLoaded() throws Exception {
+
+        CountingCryptUtils crypt = new CountingCryptUtils();
+
+        initFileSystem(60_000L);
+        ds.cryptUtils = crypt;
+        ds.activeConf.setUnhashedPassword("pw1");
+        ds.setConfiguration(Optional.of(configWithCredentials(crypt, "pw1", "a", "b", "c")));
+
+        ds.decrypt("pw1");
+        assertEquals( 0, crypt.decrypts.get() );
+
+        ds.loadProfile("B");
+        assertEquals( "b-keypass", ds.activeProfile.getJarsignerConfigKeypass() );
+        assertEquals( "b-storepass", ds.activeProfile.getJarsignerConfigStorepass() );
+        assertEquals( 2, crypt.decrypts.get() );
+
+        ds.loadProfile("b");
+        assertEquals( 2, crypt.decrypts.get() );  // cached
+    }
+
+    @Test
+    public void passwordChangeReencryptsUnloadedProfiles() throws Exception {
+
+        CountingCryptUtils crypt = new CountingCryptUtils();
+
+        initFileSystem(60_000L);
+        ds.cryptUtils = crypt;
+        ds.activeConf.setUnhashedPassword("pw1");
+        ds.setConfiguration(Optional.of(configWithCredentials(crypt, "pw1", "a", "b")));
+        ds.decrypt("pw1");
+
+        ds.activeConf.setUnhashedPassword("pw2");
+        ds.saveConfiguration();
+
+        JarsignerConfig jc = ds.getProfiles().get(1).getJarsignerConfig().get();
+        assertEquals( "", jc.getKeypass() );  // not left in memory
+        assertEquals( "b-keypass", crypt.decrypt(jc.getEncryptedKeypass(), "pw2") );
+
+        ds.loadProfile("a");
+        assertEquals( "a-storepass", ds.activeProfile.getJarsignerConfigStorepass() );
+    }
+
+    @Test
+    public void unlockDecryptsRecentProfilesFirst() throws Exception {
+
+        CountingCryptUtils crypt = new CountingCryptUtils();
+
+        initFileSystem(60_000L);
+        ds.cryptUtils = crypt;
+        ds.decryptThreads = 4;
+        ds.activeConf.setUnhashedPassword("pw1");
+
+        String[] names = new String[20];
+        for( int i=0; i<names.length; i++ ) {
+            names[i] = String.format("p%02d", i);
+        }
+        Configuration c = configWithCredentials(crypt, "pw1", names);
+        c.getRecentProfiles().add("p19");
+        ds.setConfiguration(Optional.of(c));
+
+        List<Double> progress = Collections.synchronizedList(new ArrayList<>());
+        ds.unlock("pw1", progress::add).get(30, TimeUnit.SECONDS);
+
+        assertEquals( 32, crypt.decrypts.get() );  // as many as are cached
+        assertEquals( 32, progress.size() );
+        assertTrue( progress.contains(1.0d) );
+
+        ds.loadProfile("p19");
+        assertEquals( "p19-storepass", ds.activeProfile.getJarsignerConfigStorepass() );
+        assertEquals( 32, crypt.decrypts.get() );
+
+        ds.loadProfile("p18");
+        assertEquals( 34, crypt.decrypts.get() );
+    }
+
+    private Configuration configWithCredentials(CryptUtils crypt, String passPhrase, String... names) throws Exception {
+        Configuration c = configWithProfiles(names);
+        for( Profile p : c.getProfiles() ) {
+            JarsignerConfig jc = new JarsignerConfig("alias", "", "", "/tmp/ks", false);
+            jc.setEncryptedKeypass(crypt.encrypt(p.getProfileName() + "-keypass", passPhrase));
+            jc.setEncryptedStorepass(crypt.encrypt(p.getProfileName() + "-storepass", passPhrase));
+            p.setJarsignerConfig(Optional.of(jc));
+        }
+        return c;
+    }
+
+    @Test
+    public void onlyChangedCredentialsEncrypted() throws Exception {
+
+        CountingCryptUtils crypt = new CountingCryptUtils();
+
+        initFileSystem(60_000L);
+        ds.cryptUtils = crypt;
+        ds.activeConf.setUnhashedPassword("pw1");
+        ds.setConfiguration(Optional.of(configWithCredentials(crypt, "pw1", "a", "b", "c")));
+        ds.decrypt("pw1");
+        crypt.encrypts = 0;
+
+        String bKeypass = ds.getProfiles().get(1).getJarsignerConfig().get().getEncryptedKeypass();
+
+        ds.loadProfile("b");
+        ds.saveProfile();  // unchanged
+        assertEquals( 0, crypt.encrypts );
+        assertEquals( bKeypass, ds.getProfiles().get(2).getJarsignerConfig().get().getEncryptedKeypass() );
+
+        ds.activeProfile.setJarsignerConfigStorepass("b-new-storepass");
+        ds.saveProfile();
+        assertEquals( 1, crypt.encrypts );
+
+        ds.saveConfiguration();
+        assertEquals( 1, crypt.encrypts );
+
+        ds.loadProfile("b");
+        assertEquals( "b-new-storepass", ds.activeProfile.getJarsignerConfigStorepass() );
+        assertEquals( "b-keypass", ds.activeProfile.getJarsignerConfigKeypass() );
+    }
+
+    @Test
+    public void legacyCredentialsMigratedOnSave() throws Exception {
+
+        CountingCryptUtils crypt = new CountingCryptUtils();
+
+        initFileSystem(60_000L);
+        ds.cryptUtils = crypt;
+        ds.activeConf.setUnhashedPassword("pw1");
+        Configuration c = configWithCredentials(crypt, "pw1", "a", "b");
+        JarsignerConfig legacy = c.getProfiles().get(0).getJarsignerConfig().get();
+        legacy.setEncryptedKeypass(crypt.encryptLegacy("a-keypass", "pw1"));
+        ds.setConfiguration(Optional.of(c));
+        ds.decrypt("pw1");
+        crypt.encrypts = 0;
+
+        String bKeypass = ds.getProfiles().get(1).getJarsignerConfig().get().getEncryptedKeypass();
+
+        ds.saveConfiguration();
+        assertEquals( 1, crypt.encrypts );
+
+        JarsignerConfig jc = ds.getProfiles().get(0).getJarsignerConfig().get();
+        assertTrue( crypt.isCurrentFormat(jc.getEncryptedKeypass()) );
+        assertEquals( "a-keypass", crypt.decrypt(jc.getEncryptedKeypass(), "pw1") );
+        assertEquals( bKeypass, ds.getProfiles().get(1).getJarsignerConfig().get().getEncryptedKeypass() );
+    }
+
+    private static class CountingCryptUtils extends CryptUtils {
+
+        final AtomicInteger decrypts = new AtomicInteger();
+        int encrypts;
+
+        @Override
+        protected String encryptLegacy(String cleartext, String passPhrase)
+                throws IOException, PGPException, NoSuchProviderException {
+            return super.encryptLegacy(cleartext, passPhrase);
+        }
+
+        @Override
+        public String encrypt(String cleartext, String passPhrase)
+                throws IOException, PGPException, NoSuchProviderException {
+            encrypts++;
+            return super.encrypt(cleartext, passPhrase);
+        }
+
+        @Override
+        public String decrypt(String encrypted, String passPhrase)
+                throws IOException, PGPException, NoSuchProviderException {
+            decrypts.incrementAndGet();
+            return super.decrypt(encrypted, passPhrase);
+        }
+    }
+
+    /**
+     * ActiveConfiguration.fromDomain() wraps the Configuration's recent profiles list rather than copying it
+     */
+    @Test
+    public void mergeKeepsSharedRecentProfiles() {
+
+        Configuration c = configWithProfiles("a", "b");
+        c.getRecentProfiles().addAll(Arrays.asList("b", "a"));
+        c.setLastUpdatedDateTime(Optional.of(LocalDateTime.now()));
+
+        ds.activeConf = new ActiveConfiguration();
+        ds.activeConf.fromDomain(c);
+        ds.activeConf.getRecentProfiles().add(0, "c");
+
+        ds.mergeActiveConfiguration(c);
+
+        assertEquals( Arrays.asList("c", "b", "a"), c.getRecentProfiles() );
+    }
+
+    private Configuration configWithProfiles(String... names) {
+        Configuration c = new Configuration();
+        for( String name : names ) {
+            c.getProfiles().add(new Profile(name, false, SigningArgumentsType.JAR));
+        }
+        return c;
+    }
+
+    private File initFileSystem(long saveDelayMillis) throws Exception {
+
+        System.setProperty("user.home", temp.getRoot().getAbsolutePath());
+
+        ds.configDir = ".resignator";
+        ds.jsonConfigFile = "resignator.json";
+        ds.activeConf = new ActiveConfiguration();
+        ds.activeProfile = new ActiveProfile();
+        ds.saveDelayMillis = saveDelayMillis;
+        ds.init();
+
+        return new File(new File(temp.getRoot(), ".resignator"), "resignator.json");
+    }
 }
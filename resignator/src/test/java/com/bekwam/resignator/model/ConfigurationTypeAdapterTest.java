@@ -0,0 +1,148 @@
+/*
+ * Copyright 2015 Bekwam, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bekwam.resignator.model;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonWriter;
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests ConfigurationTypeAdapter against the tree-based ConfigurationJSONAdapter
+ *
+ * @author carl_000
+ */
+public class ConfigurationTypeAdapterTest {
+
+    private final Gson treeGson = new GsonBuilder().
+            registerTypeAdapter(Configuration.class, new ConfigurationJSONAdapter()).
+            create();
+
+    private final Gson streamingGson = new GsonBuilder().
+            registerTypeAdapter(Configuration.class, new ConfigurationTypeAdapter()).
+            create();
+
+    @Test
+    public void sameBytesEmptyConfig() {
+        Configuration conf = new Configuration();
+        assertEquals( toJson(treeGson, conf), toJson(streamingGson, conf) );
+    }
+
+    @Test
+    public void sameBytesFullConfig() {
+        Configuration conf = fullConfig();
+        String json = toJson(treeGson, conf);
+        assertTrue( json.contains("\\u003c") );  // html escaping applies to both
+        assertTrue( json.contains("\"keypass\":\"\",\"verbose\"") );  // null keystore left out of both
+        assertEquals( json, toJson(streamingGson, conf) );
+    }
+
+    @Test
+    public void roundTrip() {
+
+        Configuration conf = fullConfig();
+        String json = toJson(streamingGson, conf);
+
+        Configuration read = streamingGson.fromJson(json, Configuration.class);
+
+        // reading fills in defaults for the left out fields the same way
+        assertEquals( toJson(treeGson, treeGson.fromJson(json, Configuration.class)), toJson(streamingGson, read) );
+
+        Profile p = read.getProfiles().get(1);
+        assertEquals( SigningArgumentsType.FOLDER, p.getArgsType() );
+        assertEquals( SignerType.BUILTIN, p.getJarsignerConfig().get().getSignerType() );
+        assertEquals( "", p.getJarsignerConfig().get().getTsaUrl() );
+        assertTrue( p.getJarsignerConfig().get().isDeferTimestamps() );
+        assertFalse( read.getProfiles().get(2).getSourceFile().isPresent() );
+    }
+
+    @Test
+    public void readSkipsUnknownAndDefaultsMissing() {
+
+        String json = "{\"future\":{\"a\":[1,2]},\"recentProfiles\":[\"x\"],\"profiles\":[" +
+                "{\"profileName\":\"x\",\"replaceSignatures\":\"true\",\"jarsignerConfig\":{\"alias\":\"a\",\"extra\":null}}]}";
+
+        Configuration conf = streamingGson.fromJson(json, Configuration.class);
+
+        assertEquals( "", conf.getActiveProfile().get() );
+        assertFalse( conf.getLastUpdatedDateTime().isPresent() );
+        assertEquals( 1, conf.getRecentProfiles().size() );
+
+        Profile p = conf.getProfiles().get(0);
+        assertTrue( p.getReplaceSignatures() );
+        assertEquals( SigningArgumentsType.JAR, p.getArgsType() );
+        assertEquals( JarsignerConfig.DEFAULT_TSA_URL, p.getJarsignerConfig().get().getTsaUrl() );
+        assertEquals( SignerType.JARSIGNER, p.getJarsignerConfig().get().getSignerType() );
+        assertFalse( p.getJarsignerConfig().get().isDeferTimestamps() );
+    }
+
+    private Configuration fullConfig() {
+
+        Configuration conf = new Configuration();
+        conf.setActiveProfile(Optional.of("b <&> 'q'"));
+        conf.setJDKHome(Optional.of("C:\\Program Files\\Java\\jdk1.8.0_66"));
+        conf.setHashedPassword(Optional.of("ABCDEF1234"));
+        conf.setLastUpdatedDateTime(Optional.of(LocalDateTime.of(2015, 11, 4, 9, 30, 15, 123000000)));
+        conf.getRecentProfiles().add("a");
+        conf.getRecentProfiles().add("b <&> 'q'");
+
+        Profile a = new Profile("a", false, SigningArgumentsType.JAR);
+        a.setSourceFile(Optional.of(new SourceFile("/tmp/in.jar")));
+        a.setTargetFile(Optional.of(new TargetFile("/tmp/out.jar")));
+        JarsignerConfig ajc = new JarsignerConfig("business", "", "", null, true);
+        ajc.setEncryptedStorepass("-----BEGIN PGP MESSAGE-----\nabc\n-----END PGP MESSAGE-----\n");
+        ajc.setEncryptedKeypass("");
+        a.setJarsignerConfig(Optional.of(ajc));
+        conf.getProfiles().add(a);
+
+        Profile b = new Profile("b <&> 'q'", true, SigningArgumentsType.FOLDER);
+        b.setSourceFile(Optional.of(new SourceFile("/tmp/jars")));
+        b.setTargetFile(Optional.of(new TargetFile("/tmp/signed")));
+        JarsignerConfig bjc = new JarsignerConfig("é\u2028", "", "", "/tmp/ks", false);
+        bjc.setSignerType(SignerType.BUILTIN);
+        bjc.setTsaUrl("");
+        bjc.setDeferTimestamps(true);
+        b.setJarsignerConfig(Optional.of(bjc));
+        conf.getProfiles().add(b);
+
+        conf.getProfiles().add(new Profile("c", null, SigningArgumentsType.JAR));
+
+        return conf;
+    }
+
+    /**
+     * Same path as ConfigurationDataSourceImpl.saveConfiguration()
+     */
+    private String toJson(Gson gson, Configuration conf) {
+        StringWriter sw = new StringWriter();
+        try (
+                JsonWriter jw = new JsonWriter(sw)
+        ) {
+            gson.toJson(conf, Configuration.class, jw);
+        } catch(Exception exc) {
+            throw new IllegalStateException(exc);
+        }
+        return sw.toString();
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2015 Bekwam, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bekwam.resignator.model;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests JournalConfigurationDataSource
+ *
+ * @author carl_000
+ */
+public class JournalConfigurationDataSourceTest {
+
+    @Rule
+    public ConfigDirRule temp = new ConfigDirRule();
+
+    @Test
+    public void changesAreAppendedAndReplayed() throws Exception {
+
+        JournalConfigurationDataSource ds = newDataSource();
+        byte[] snapshot = Files.readAllBytes(ds.getConfigFile().toPath());
+
+        makeChanges(ds);
+
+        assertArrayEquals( snapshot, Files.readAllBytes(ds.getConfigFile().toPath()) );  // not rewritten
+        assertEquals( 10, Files.readAllLines(ds.getJournalFile()).size() );
+
+        JournalConfigurationDataSource reopened = newDataSource();
+        reopened.loadConfiguration();
+
+        assertEquals( "[c, d]", names(reopened) );
+        assertEquals( "d", reopened.getConfiguration().getActiveProfile().get() );
+    }
+
+    @Test
+    public void replayOverSnapshotThatHasTheChanges() throws Exception {
+
+        JournalConfigurationDataSource ds = newDataSource();
+        makeChanges(ds);
+
+        byte[] journal = Files.readAllBytes(ds.getJournalFile());
+
+        ds.saveConfiguration();  // compacts
+        assertFalse( Files.exists(ds.getJournalFile()) );
+
+        Files.write(ds.getJournalFile(), journal);  // as if the journal removal didn't happen
+
+        JournalConfigurationDataSource reopened = newDataSource();
+        reopened.loadConfiguration();
+
+        assertEquals( "[c, d]", names(reopened) );
+    }
+
+    @Test
+    public void partialRecordDropped() throws Exception {
+
+        JournalConfigurationDataSource ds = newDataSource();
+        makeChanges(ds);
+
+        long length = Files.size(ds.getJournalFile());
+        Files.write(ds.getJournalFile(), "{\"op\":\"UPSERT\",\"prof".getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+
+        JournalConfigurationDataSource reopened = newDataSource();
+        reopened.loadConfiguration();
+
+        assertEquals( "[c, d]", names(reopened) );
+        assertEquals( length, Files.size(reopened.getJournalFile()) );
+    }
+
+    @Test
+    public void compactsAfterManyRecords() throws Exception {
+
+        JournalConfigurationDataSource ds = newDataSource();
+
+        for( int i = 0; i < 260; i++ ) {
+            ds.activeProfile.setProfileName("p" + (i % 10));
+            ds.saveProfile();
+        }
+
+        Path journal = ds.getJournalFile();
+        assertTrue( Files.readAllLines(journal).size() < 50 );
+
+        JournalConfigurationDataSource reopened = newDataSource();
+        reopened.loadConfiguration();
+
+        assertEquals( 10, reopened.getProfiles().size() );
+    }
+
+    private void makeChanges(JournalConfigurationDataSource ds) throws Exception {
+
+        for( String name : new String[] { "a", "b", "d" } ) {
+            ds.activeProfile.setProfileName(name);
+            ds.saveProfile();
+        }
+
+        ds.deleteProfile("a");
+        ds.renameProfile("b", "c");  // not the active profile
+    }
+
+    private String names(ConfigurationDataSource ds) {
+        List<String> names = ds.getProfiles().stream().map(Profile::getProfileName).sorted().collect(Collectors.toList());
+        return names.toString();
+    }
+
+    private JournalConfigurationDataSource newDataSource() throws Exception {
+        return ConfigDirRule.newDataSource(JournalConfigurationDataSource::new);
+    }
+}
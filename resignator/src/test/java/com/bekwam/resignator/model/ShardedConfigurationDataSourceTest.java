@@ -0,0 +1,222 @@
+/*
+ * Copyright 2015 Bekwam, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bekwam.resignator.model;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests ShardedConfigurationDataSource
+ *
+ * @author carl_000
+ */
+public class ShardedConfigurationDataSourceTest {
+
+    @Rule
+    public ConfigDirRule temp = new ConfigDirRule();
+
+    @Test
+    public void profilesReadWhenLoaded() throws Exception {
+
+        ShardedConfigurationDataSource ds = newDataSource();
+        makeChanges(ds);
+        ds.flush();
+
+        ShardedConfigurationDataSource reopened = newDataSource();
+        reopened.loadConfiguration();
+
+        assertEquals( "[c, d]", reopened.getProfileNames().toString() );
+        assertTrue( reopened.getProfiles().isEmpty() );  // nothing read yet
+        assertEquals( "d", reopened.getConfiguration().getActiveProfile().get() );
+
+        reopened.loadProfile("C");
+        assertEquals( "c", reopened.activeProfile.getProfileName() );
+        assertEquals( "b.jar", reopened.activeProfile.getSourceFileFileName() );  // renamed from b
+        assertEquals( 1, reopened.getProfiles().size() );
+    }
+
+    @Test
+    public void removedFilesDeletedAfterIndexWritten() throws Exception {
+
+        ShardedConfigurationDataSource ds = newDataSource();
+        makeChanges(ds);
+
+        assertTrue( Files.exists(ds.shardFile("a")) );  // index still names it
+        assertTrue( Files.exists(ds.shardFile("b")) );
+
+        ds.flush();
+
+        assertFalse( Files.exists(ds.shardFile("a")) );
+        assertFalse( Files.exists(ds.shardFile("b")) );
+        assertTrue( Files.exists(ds.shardFile("c")) );
+        assertTrue( Files.exists(ds.shardFile("d")) );
+    }
+
+    @Test
+    public void missingProfileFileDropped() throws Exception {
+
+        ShardedConfigurationDataSource ds = newDataSource();
+        makeChanges(ds);
+        ds.flush();
+
+        Files.delete(ds.shardFile("c"));
+
+        ShardedConfigurationDataSource reopened = newDataSource();
+        reopened.loadConfiguration();
+
+        assertTrue( reopened.profileExists("c") );
+        reopened.loadProfile("d");
+        assertEquals( "d", reopened.activeProfile.getProfileName() );
+
+        boolean missing = false;
+        try {
+            reopened.loadProfile("c");
+        } catch(NoSuchElementException exc) {
+            missing = true;
+        }
+        assertTrue( missing );
+        assertFalse( reopened.profileExists("c") );
+    }
+
+    @Test
+    public void importsConfigFile() throws Exception {
+
+        Configuration c = new Configuration();
+        c.getProfiles().add(new Profile("first", false, SigningArgumentsType.JAR));
+        c.getProfiles().add(new Profile("Second/Profile", true, SigningArgumentsType.FOLDER));
+        c.getProfiles().add(new Profile("FIRST", false, SigningArgumentsType.JAR));
+        c.getRecentProfiles().add("first");
+        c.setActiveProfile(Optional.of("first"));
+
+        File configDir = temp.newFolder(".resignator");
+        Path configFile = new File(configDir, "resignator.json").toPath();
+        Files.write(configFile, ConfigurationDataSourceImpl.toJson(c));
+        byte[] original = Files.readAllBytes(configFile);
+
+        ShardedConfigurationDataSource ds = newDataSource();
+        ds.loadConfiguration();
+
+        assertEquals( "[first, Second/Profile]", ds.getProfileNames().toString() );
+        assertEquals( "[first]", ds.getRecentProfileNames().toString() );
+
+        ds.loadProfile("second/profile");
+        assertEquals( "Second/Profile", ds.activeProfile.getProfileName() );
+        assertEquals( SigningArgumentsType.FOLDER, ds.activeProfile.getArgsType() );
+
+        assertEquals( new String(original), new String(Files.readAllBytes(configFile)) );  // left as it was
+    }
+
+    @Test
+    public void passwordChangeReencryptsUnreadProfiles() throws Exception {
+
+        ShardedConfigurationDataSource ds = newDataSource();
+        ds.activeConf.setHashedPassword("hash1");
+        ds.activeConf.setUnhashedPassword("pw1");
+        ds.decrypt("pw1");
+        for( String name : new String[] { "a", "b" } ) {
+            ds.activeProfile.setProfileName(name);
+            ds.activeProfile.setJarsignerConfigKeypass(name + "-keypass");
+            ds.activeProfile.setJarsignerConfigStorepass(name + "-storepass");
+            ds.saveProfile();
+        }
+        ds.flush();
+
+        ShardedConfigurationDataSource reopened = newDataSource();
+        reopened.loadConfiguration();
+        reopened.activeConf.setUnhashedPassword("pw1");
+        reopened.decrypt("pw1");
+
+        reopened.activeConf.setHashedPassword("hash2");
+        reopened.activeConf.setUnhashedPassword("pw2");
+        reopened.saveConfiguration();
+        reopened.flush();
+
+        ShardedConfigurationDataSource again = newDataSource();
+        again.loadConfiguration();
+        again.activeConf.setUnhashedPassword("pw2");
+        again.decrypt("pw2");
+
+        again.loadProfile("a");
+        assertEquals( "a-keypass", again.activeProfile.getJarsignerConfigKeypass() );
+        again.loadProfile("b");
+        assertEquals( "b-storepass", again.activeProfile.getJarsignerConfigStorepass() );
+    }
+
+    @Test
+    public void shardFileNames() {
+        assertEquals( ShardedConfigurationDataSource.shardFileName("My Profile"),
+                ShardedConfigurationDataSource.shardFileName("my profile") );
+        assertTrue( ShardedConfigurationDataSource.shardFileName("../x").matches("[a-z0-9_-]+\\.json") );
+        assertFalse( ShardedConfigurationDataSource.shardFileName("a b").equals(
+                ShardedConfigurationDataSource.shardFileName("a_b")) );
+        assertFalse( ShardedConfigurationDataSource.shardFileName("release.@").equals(
+                ShardedConfigurationDataSource.shardFileName("release/!")) );
+    }
+
+    @Test
+    public void fileHoldingAnotherProfileNotOverwritten() throws Exception {
+
+        ShardedConfigurationDataSource ds = newDataSource();
+        ds.activeProfile.setProfileName("alpha");
+        ds.saveProfile();
+
+        Files.copy(ds.shardFile("alpha"), ds.shardFile("beta"));  // as if the names collided
+        byte[] alpha = Files.readAllBytes(ds.shardFile("beta"));
+
+        ds.activeProfile.setProfileName("beta");
+        try {
+            ds.saveProfile();
+            fail( "expected the collision to be detected" );
+        } catch(IOException exc) {
+            assertTrue( exc.getMessage().contains("alpha") );
+        }
+
+        assertArrayEquals( alpha, Files.readAllBytes(ds.shardFile("beta")) );
+
+        ds.activeProfile.setProfileName("ALPHA");  // its own file in another case is fine
+        ds.saveProfile();
+    }
+
+    private void makeChanges(ShardedConfigurationDataSource ds) throws Exception {
+
+        for( String name : new String[] { "a", "b", "d" } ) {
+            ds.activeProfile.setProfileName(name);
+            ds.activeProfile.setSourceFileFileName(name + ".jar");
+            ds.activeProfile.setTargetFileFileName(name + "-signed.jar");
+            ds.saveProfile();
+        }
+
+        ds.deleteProfile("a");
+        ds.renameProfile("b", "c");  // not the active profile
+    }
+
+    private ShardedConfigurationDataSource newDataSource() throws Exception {
+        return ConfigDirRule.newDataSource(ShardedConfigurationDataSource::new);
+    }
+}
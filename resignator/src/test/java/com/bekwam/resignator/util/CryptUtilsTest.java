@@ -20,12 +20,22 @@ import org.bouncycastle.openpgp.PGPException;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import javax.crypto.SecretKey;
 import java.io.IOException;
 import java.security.NoSuchProviderException;
 import java.security.Security;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static junit.framework.TestCase.assertFalse;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * Unit test for crypt utils
@@ -76,4 +86,98 @@ public class CryptUtilsTest {
 
         assertTrue( cleartext.equals(source) );
     }
+
+    @Test
+    public void fieldFormat() throws PGPException, IOException, NoSuchProviderException {
+
+        String first = cryptUtils.encrypt( "storepass1", "abc123" );
+        String second = cryptUtils.encrypt( "storepass1", "abc123" );
+
+        assertTrue( cryptUtils.isCurrentFormat(first) );
+        assertFalse( first.equals(second) );  // fresh iv for each field
+
+        // salt is shared for the session so the key is only derived once
+        assertEquals( first.split(":")[1], second.split(":")[1] );
+
+        assertEquals( "storepass1", new CryptUtils().decrypt(first, "abc123") );
+    }
+
+    @Test(expected=IOException.class)
+    public void wrongPassword() throws PGPException, IOException, NoSuchProviderException {
+        String ciphertext = cryptUtils.encrypt( "storepass1", "abc123" );
+        cryptUtils.decrypt( ciphertext, "abc124" );
+    }
+
+    @Test
+    public void decryptLegacy() throws PGPException, IOException, NoSuchProviderException {
+
+        String legacy = cryptUtils.encryptLegacy( "storepass1", "abc123" );
+
+        assertFalse( cryptUtils.isCurrentFormat(legacy) );
+        assertEquals( "storepass1", cryptUtils.decrypt(legacy, "abc123") );
+    }
+
+    @Test
+    public void deriveKeyOnceConcurrently() throws Exception {
+
+        String ciphertext = new CryptUtils().encrypt( "storepass1", "abc123" );
+
+        AtomicInteger derivations = new AtomicInteger();
+        CryptUtils counting = new CryptUtils() {
+            @Override
+            SecretKey generateKey(String passPhrase, byte[] salt) throws IOException {
+                derivations.incrementAndGet();
+                return super.generateKey(passPhrase, salt);
+            }
+        };
+
+        int numThreads = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for( int i = 0; i < numThreads; i++ ) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return counting.decrypt( ciphertext, "abc123" );
+                }));
+            }
+            start.countDown();
+
+            for( Future<String> f : results ) {
+                assertEquals( "storepass1", f.get() );
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals( 1, derivations.get() );
+    }
+
+    @Test
+    public void deriveKeyAgainAfterFailure() throws Exception {
+
+        String ciphertext = new CryptUtils().encrypt( "storepass1", "abc123" );
+
+        AtomicInteger derivations = new AtomicInteger();
+        CryptUtils failingOnce = new CryptUtils() {
+            @Override
+            SecretKey generateKey(String passPhrase, byte[] salt) throws IOException {
+                if( derivations.incrementAndGet() == 1 ) {
+                    throw new IOException("first derivation fails");
+                }
+                return super.generateKey(passPhrase, salt);
+            }
+        };
+
+        try {
+            failingOnce.decrypt( ciphertext, "abc123" );
+            fail( "expected the first derivation to fail" );
+        } catch(IOException exc) {
+            // expected
+        }
+
+        assertEquals( "storepass1", failingOnce.decrypt(ciphertext, "abc123") );
+        assertEquals( 2, derivations.get() );
+    }
 }